@@ -0,0 +1,122 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.api.AbstractIoHandler;
+import org.apache.mina.api.IoSession;
+import org.apache.mina.transport.nio.FixedSelectorLoopPool;
+import org.apache.mina.transport.nio.NioSelectorLoop;
+import org.apache.mina.transport.nio.NioTcpServer;
+import org.junit.Test;
+
+/**
+ * Measures the memory used by each connection of a MINA server : the clients connect, receive a greeting message and
+ * stay idle, like most of the connections of a server with many clients.
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class ConnectionMemoryBenchmarkTest {
+
+    private static final int CONNECTIONS = 2000;
+
+    private static final byte[] GREETING = "hello\n".getBytes();
+
+    @Test
+    public void benchmark() throws Exception {
+        NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new FixedSelectorLoopPool("Server",
+                Runtime.getRuntime().availableProcessors()), null);
+        final CountDownLatch opened = new CountDownLatch(CONNECTIONS);
+
+        server.getSessionConfig().setBacklog(CONNECTIONS);
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                // a heap buffer, as written by most of the handlers
+                session.write(ByteBuffer.wrap(GREETING));
+                opened.countDown();
+            }
+        });
+        server.bind(0);
+
+        int port = server.getServerSocketChannel().socket().getLocalPort();
+        Socket[] clients = new Socket[CONNECTIONS];
+
+        long heapBefore = usedHeap();
+        long directBefore = usedDirectMemory();
+
+        try {
+            for (int i = 0; i < CONNECTIONS; i++) {
+                clients[i] = new Socket("127.0.0.1", port);
+            }
+
+            assertTrue(opened.await(1, TimeUnit.MINUTES));
+
+            for (Socket client : clients) {
+                assertEquals(GREETING[0], client.getInputStream().read());
+            }
+
+            long heap = usedHeap() - heapBefore;
+            long direct = usedDirectMemory() - directBefore;
+
+            System.out.println("-------------- " + CONNECTIONS + " idle connections");
+            System.out.println("heap   : " + (heap / CONNECTIONS) + " bytes per connection");
+            System.out.println("direct : " + (direct / CONNECTIONS) + " bytes per connection");
+        } finally {
+            for (Socket client : clients) {
+                if (client != null) {
+                    client.close();
+                }
+            }
+
+            server.unbind();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long usedDirectMemory() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+
+        return 0L;
+    }
+}
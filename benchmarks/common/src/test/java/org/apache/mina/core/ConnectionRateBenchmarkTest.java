@@ -0,0 +1,136 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.core;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.api.AbstractIoHandler;
+import org.apache.mina.api.IoSession;
+import org.apache.mina.transport.nio.FixedSelectorLoopPool;
+import org.apache.mina.transport.nio.NioSelectorLoop;
+import org.apache.mina.transport.nio.NioTcpServer;
+import org.junit.Test;
+
+/**
+ * Measures how many connections per second a MINA server accepts and opens, with a typical session configuration.
+ * The clients connect and reset their connection immediately (SO_LINGER 0), so that no socket stays in TIME_WAIT.
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class ConnectionRateBenchmarkTest {
+
+    private static final int CLIENT_THREADS = 4;
+
+    private static final int WARMUP_CONNECTIONS_PER_THREAD = 2000;
+
+    private static final int CONNECTIONS_PER_THREAD = 10000;
+
+    @Test
+    public void benchmark() throws Exception {
+        NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new FixedSelectorLoopPool("Server",
+                Runtime.getRuntime().availableProcessors()), null);
+
+        // a typical configuration : some options are the system defaults
+        server.getSessionConfig().setTcpNoDelay(true);
+        server.getSessionConfig().setKeepAlive(false);
+        server.getSessionConfig().setOobInline(false);
+        server.getSessionConfig().setSoLinger(-1);
+        server.getSessionConfig().setBacklog(1024);
+
+        final CountDownLatch[] opened = new CountDownLatch[1];
+
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                opened[0].countDown();
+            }
+        });
+        server.bind(0);
+
+        int port = server.getServerSocketChannel().socket().getLocalPort();
+
+        try {
+            run("warmup", port, WARMUP_CONNECTIONS_PER_THREAD, opened);
+            run("connections", port, CONNECTIONS_PER_THREAD, opened);
+        } finally {
+            server.unbind();
+        }
+    }
+
+    private void run(String name, final int port, final int connectionsPerThread, CountDownLatch[] opened)
+            throws InterruptedException {
+        opened[0] = new CountDownLatch(CLIENT_THREADS * connectionsPerThread);
+        Thread[] clients = new Thread[CLIENT_THREADS];
+
+        for (int i = 0; i < CLIENT_THREADS; i++) {
+            clients[i] = new Thread("client-" + i) {
+                @Override
+                public void run() {
+                    for (int j = 0; j < connectionsPerThread; j++) {
+                        connect(port);
+                    }
+                }
+            };
+        }
+
+        long t0 = System.nanoTime();
+
+        for (Thread client : clients) {
+            client.start();
+        }
+
+        assertTrue(opened[0].await(2, TimeUnit.MINUTES));
+
+        long elapsed = System.nanoTime() - t0;
+
+        for (Thread client : clients) {
+            client.join();
+        }
+
+        long connections = (long) CLIENT_THREADS * connectionsPerThread;
+
+        System.out.println("-------------- " + name);
+        System.out.println(connections + " connections in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms : "
+                + (connections * TimeUnit.SECONDS.toNanos(1) / elapsed) + " connections/s");
+    }
+
+    private void connect(int port) {
+        Socket socket = new Socket();
+
+        try {
+            socket.setSoLinger(true, 0);
+            socket.connect(new InetSocketAddress("127.0.0.1", port));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+}
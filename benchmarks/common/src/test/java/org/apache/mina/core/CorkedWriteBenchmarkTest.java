@@ -0,0 +1,105 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.core;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.api.AbstractIoHandler;
+import org.apache.mina.api.IoSession;
+import org.apache.mina.transport.nio.FixedSelectorLoopPool;
+import org.apache.mina.transport.nio.NioSelectorLoop;
+import org.apache.mina.transport.nio.NioTcpServer;
+import org.junit.Test;
+
+/**
+ * Measures the request rate of a chatty protocol, whose server writes several small messages for each request, with
+ * and without corking the server sessions.
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class CorkedWriteBenchmarkTest {
+
+    private static final int MESSAGES_PER_REQUEST = 10;
+
+    private static final int MESSAGE_SIZE = 16;
+
+    private static final int WARMUP_REQUESTS = 20000;
+
+    private static final int REQUESTS = 100000;
+
+    @Test
+    public void benchmark() throws Exception {
+        run(false);
+        run(true);
+    }
+
+    private void run(boolean corked) throws Exception {
+        NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new FixedSelectorLoopPool("Server", 1),
+                null);
+
+        server.getSessionConfig().setTcpNoDelay(true);
+        server.getSessionConfig().setCorked(corked);
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void messageReceived(IoSession session, Object message) {
+                int requests = ((ByteBuffer) message).remaining();
+
+                for (int i = 0; i < requests * MESSAGES_PER_REQUEST; i++) {
+                    session.write(ByteBuffer.wrap(new byte[MESSAGE_SIZE]));
+                }
+            }
+        });
+        server.bind(0);
+
+        Socket client = new Socket("127.0.0.1", server.getServerSocketChannel().socket().getLocalPort());
+        client.setTcpNoDelay(true);
+
+        try {
+            OutputStream out = client.getOutputStream();
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            byte[] response = new byte[MESSAGES_PER_REQUEST * MESSAGE_SIZE];
+
+            for (int i = 0; i < WARMUP_REQUESTS; i++) {
+                out.write(1);
+                in.readFully(response);
+            }
+
+            long t0 = System.nanoTime();
+
+            for (int i = 0; i < REQUESTS; i++) {
+                out.write(1);
+                in.readFully(response);
+            }
+
+            long elapsed = System.nanoTime() - t0;
+
+            System.out.println("-------------- corked : " + corked);
+            System.out.println(REQUESTS + " requests in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms : "
+                    + (REQUESTS * TimeUnit.SECONDS.toNanos(1) / elapsed) + " requests/s");
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.core;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.transport.nio.NioSelectorLoop;
+import org.junit.Test;
+
+/**
+ * Measures how many selector wakeups are done per task pushed in a {@link NioSelectorLoop} by foreign threads, like
+ * the {@link org.apache.mina.service.executor.OrderedHandlerExecutor} workers do when they write. Before the wakeups
+ * were coalesced, every task cost one wakeup.
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class NioSelectorLoopWakeupBenchmarkTest {
+
+    private static final int PRODUCER_COUNT = 4;
+
+    private static final int MESSAGES_PER_PRODUCER = 500000;
+
+    @Test
+    public void benchmark() throws InterruptedException {
+        final NioSelectorLoop loop = new NioSelectorLoop("wakeup-benchmark");
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(PRODUCER_COUNT * MESSAGES_PER_PRODUCER);
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+
+        for (int i = 0; i < PRODUCER_COUNT; i++) {
+            Thread producer = new Thread("producer-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    for (int j = 0; j < MESSAGES_PER_PRODUCER; j++) {
+                        loop.runInLoop(task);
+                    }
+                }
+            };
+            producer.setDaemon(true);
+            producer.start();
+        }
+
+        long wakeupsBefore = loop.getWakeupCount();
+        long t0 = System.nanoTime();
+        start.countDown();
+
+        assertTrue("all the tasks were not run", done.await(2, TimeUnit.MINUTES));
+
+        long elapsed = System.nanoTime() - t0;
+        long messages = (long) PRODUCER_COUNT * MESSAGES_PER_PRODUCER;
+        long wakeups = loop.getWakeupCount() - wakeupsBefore;
+
+        System.out.println("-------------- " + messages + " tasks pushed by " + PRODUCER_COUNT + " threads");
+        System.out.println("Tasks per second : " + (messages * 1000000000L / elapsed));
+        System.out.println("Wakeups : " + wakeups + " (" + messages + " without coalescing)");
+        System.out.println("Wakeups per message : " + ((double) wakeups / messages));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.api.AbstractIoHandler;
+import org.apache.mina.api.IoSession;
+import org.apache.mina.transport.nio.FixedSelectorLoopPool;
+import org.apache.mina.transport.nio.NioTcpServer;
+import org.apache.mina.transport.nio.SpinPolicy;
+import org.apache.mina.transport.nio.SpinPolicy.IdleStrategy;
+import org.junit.Test;
+
+/**
+ * Measures the round trip latency of a one byte ping-pong between a blocking socket and a MINA echo server, for
+ * several {@link SpinPolicy}. With a spinning loop, the server reacts to the ping without being woken up by the
+ * kernel, at the price of one busy core.
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class SelectorLoopSpinLatencyBenchmarkTest {
+
+    private static final int WARMUP_ROUND_TRIPS = 20000;
+
+    private static final int ROUND_TRIPS = 100000;
+
+    @Test
+    public void benchmark() throws IOException {
+        run("blocking select", SpinPolicy.NONE);
+        run("spin 10000 x selectNow, busy", SpinPolicy.iterations(10000, IdleStrategy.BUSY));
+        run("spin 100us, onSpinWait", SpinPolicy.duration(100, TimeUnit.MICROSECONDS, IdleStrategy.SPIN_WAIT));
+        run("spin 100us, yield", SpinPolicy.duration(100, TimeUnit.MICROSECONDS, IdleStrategy.YIELD));
+    }
+
+    private void run(String name, SpinPolicy spinPolicy) throws IOException {
+        FixedSelectorLoopPool pool = new FixedSelectorLoopPool("Server", 1);
+        pool.setSpinPolicy(spinPolicy);
+
+        NioTcpServer server = new NioTcpServer(pool, null);
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void messageReceived(IoSession session, Object message) {
+                ByteBuffer received = (ByteBuffer) message;
+                ByteBuffer echo = ByteBuffer.allocate(received.remaining());
+                echo.put(received);
+                echo.flip();
+                session.write(echo);
+            }
+        });
+        server.bind(0);
+
+        int port = server.getServerSocketChannel().socket().getLocalPort();
+        Socket socket = new Socket();
+
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress("127.0.0.1", port));
+
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+
+            for (int i = 0; i < WARMUP_ROUND_TRIPS; i++) {
+                pingPong(in, out);
+            }
+
+            long[] latencies = new long[ROUND_TRIPS];
+
+            for (int i = 0; i < ROUND_TRIPS; i++) {
+                long t0 = System.nanoTime();
+                pingPong(in, out);
+                latencies[i] = System.nanoTime() - t0;
+            }
+
+            Arrays.sort(latencies);
+
+            System.out.println("-------------- " + name + " (" + spinPolicy + ")");
+            System.out.println("p50 : " + (latencies[ROUND_TRIPS / 2] / 1000) + "us");
+            System.out.println("p99 : " + (latencies[ROUND_TRIPS * 99 / 100] / 1000) + "us");
+            System.out.println("p99.9 : " + (latencies[ROUND_TRIPS * 999 / 1000] / 1000) + "us");
+        } finally {
+            socket.close();
+            server.unbind();
+        }
+    }
+
+    private void pingPong(InputStream in, OutputStream out) throws IOException {
+        out.write(42);
+        out.flush();
+        assertEquals(42, in.read());
+    }
+}
@@ -238,6 +238,44 @@ public final class IoBuffer {
         return this;
     }
 
+    /**
+     * Removes the buffers located entirely before the position : their bytes
+     * have been read, and their memory can be reclaimed. Unlike
+     * {@link #compact()}, no byte is copied, and the buffer containing the
+     * position is kept whole. The position, limit and mark are moved back by
+     * the number of removed bytes.
+     * 
+     * @return the current {@link IoBuffer}
+     */
+    public IoBuffer discardReadBuffers() {
+        position.updatePos();
+        BufferNode first = position.getNode();
+
+        if ((first == null) || (first == head)) { // NOSONAR, check if instances are the same.
+            return this;
+        }
+
+        int discarded = first.offset;
+        int newPosition = position() - discarded;
+        int newLimit = limit() - discarded;
+        int newMark = (mark == null) ? -1 : mark.getPosition() - discarded;
+
+        // the kept buffers are queued again, as their offsets change
+        head = null;
+        tail = null;
+        capacity = 0;
+
+        for (BufferNode node = first; node != null; node = node.getNext()) {
+            enqueue(node.getBuffer());
+        }
+
+        limit(newLimit);
+        position(newPosition);
+        mark = (newMark < 0) ? null : getPointerByPosition(newMark);
+
+        return this;
+    }
+
     /**
      * Returns a copy of the current {@link IoBuffer}, with an independent copy
      * of the position, limit and mark.
@@ -923,22 +961,29 @@ public final class IoBuffer {
         IoBuffer out = new IoBuffer();
         out.order(order());
 
-        position.getNode().getBuffer().position(position.getPositionInNode());
         if (hasRemaining()) {
-            tail.getBuffer().limit(limit.getPositionInNode());
-            for (BufferNode node = position.getNode(); node != limit.getNode(); node = node.getNext()) {
-                if (node != head) { // NOSONAR, check if instances are the same.
-                    node.getBuffer().position(0);
+            limit.updatePos();
+            BufferNode first = position.getNode();
+            BufferNode last = limit.getNode();
+
+            // the slice shares the bytes from the position node to the limit node
+            for (BufferNode node = first;; node = node.getNext()) {
+                ByteBuffer buffer = node.getBuffer().duplicate();
+                buffer.clear();
+
+                if (node == first) { // NOSONAR, check if instances are the same.
+                    buffer.position(position.getPositionInNode());
                 }
-                out.add(node.getBuffer());
-            }
-            if (tail != head) { // NOSONAR, check if instances are the same.
-                tail.getBuffer().position(0);
+
+                if (node == last) { // NOSONAR, check if instances are the same.
+                    buffer.limit(limit.getPositionInNode());
+                    out.add(buffer);
+                    break;
+                }
+
+                out.add(buffer);
             }
-            out.add(tail.getBuffer().slice());
-            tail.getBuffer().limit(tail.getBuffer().capacity());
         }
-        position.getNode().getBuffer().position(0);
 
         return out;
     }
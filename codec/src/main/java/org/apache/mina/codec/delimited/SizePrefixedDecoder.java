@@ -23,6 +23,9 @@ import org.apache.mina.codec.IoBuffer;
 import org.apache.mina.codec.ProtocolDecoder;
 
 /**
+ * Decodes the messages prefixed by their size. The payload decoder reads a
+ * slice of the input holding the payload, and the input position is moved past
+ * the payload : several messages can be decoded from the same input.
  * 
  * @author <a href="http://mina.apache.org">Apache MINA Project</a>
  */
@@ -111,6 +114,9 @@ public class SizePrefixedDecoder<OUT> implements ProtocolDecoder<IoBuffer, OUT,
             buffer.limit(buffer.position() + nextBlockSize.getValue());
 
             output = payloadDecoder.decode(buffer);
+
+            // the payload was decoded from a slice : skip it for the next message
+            input.position(input.position() + nextBlockSize.getValue());
             nextBlockSize.reset();
         }
 
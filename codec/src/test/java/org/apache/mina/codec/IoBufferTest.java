@@ -893,6 +893,34 @@ public class IoBufferTest {
         }
     }
 
+    @Test
+    public void testSliceInLastBuffers() {
+        IoBuffer ioBuffer = IoBuffer.wrap("012".getBytes(), "345".getBytes(), "6789".getBytes());
+
+        ioBuffer.position(4);
+        ioBuffer.limit(8);
+
+        IoBuffer slice = ioBuffer.slice();
+
+        assertEquals(4, slice.remaining());
+
+        byte seg[] = "4567".getBytes();
+        for (int i = 0; i < 4; i++) {
+            assertEquals(seg[i], slice.get(i));
+        }
+
+        // the sliced IoBuffer is unchanged
+        assertEquals(4, ioBuffer.position());
+        assertEquals('4', ioBuffer.get());
+
+        ioBuffer.position(7);
+        ioBuffer.limit(10);
+        slice = ioBuffer.slice();
+
+        assertEquals(3, slice.remaining());
+        assertEquals('7', slice.get());
+    }
+
     @Test
     public void testShort() {
         for (ByteOrder bo : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
@@ -1201,4 +1229,37 @@ public class IoBufferTest {
         assertEquals(hw2b, hw1b);
         Assert.assertThat(wh1b, is(not(hw1b)));
     }
+
+    @Test
+    public void testDiscardReadBuffers() {
+        IoBuffer ioBuffer = IoBuffer.wrap("012".getBytes(), "345".getBytes(), "6789".getBytes());
+
+        // nothing to discard while the first buffer is not read
+        ioBuffer.position(2);
+        ioBuffer.discardReadBuffers();
+        assertEquals(10, ioBuffer.capacity());
+        assertEquals(2, ioBuffer.position());
+
+        ioBuffer.position(4);
+        ioBuffer.mark();
+        ioBuffer.position(5);
+        ioBuffer.limit(9);
+        ioBuffer.discardReadBuffers();
+
+        assertEquals(7, ioBuffer.capacity());
+        assertEquals(2, ioBuffer.position());
+        assertEquals(6, ioBuffer.limit());
+        assertEquals('5', ioBuffer.get());
+        assertEquals('6', ioBuffer.get());
+
+        ioBuffer.reset();
+        assertEquals(1, ioBuffer.position());
+        assertEquals('4', ioBuffer.get());
+
+        // the next buffers are added after the kept ones
+        ioBuffer.limit(ioBuffer.capacity());
+        ioBuffer.add(ByteBuffer.wrap("ab".getBytes()));
+        ioBuffer.position(7);
+        assertEquals('a', ioBuffer.get());
+    }
 }
@@ -0,0 +1,98 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.codec.delimited;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import org.apache.mina.codec.IoBuffer;
+import org.apache.mina.codec.delimited.ints.RawInt32;
+import org.junit.Test;
+
+/**
+ * A {@link SizePrefixedDecoder} test : the decoder moves past the decoded messages.
+ * 
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class SizePrefixedDecoderTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final SizePrefixedDecoder<String> decoder = new SizePrefixedDecoder<String>(new RawInt32(
+            ByteOrder.BIG_ENDIAN).getDecoder(), new IoBufferDecoder<String>() {
+        @Override
+        public String decode(IoBuffer input) {
+            byte[] bytes = new byte[input.remaining()];
+            input.get(bytes);
+
+            return new String(bytes, UTF8);
+        }
+    });
+
+    private static ByteBuffer frame(String message) {
+        byte[] payload = message.getBytes(UTF8);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + payload.length);
+        buffer.putInt(payload.length);
+        buffer.put(payload);
+        buffer.flip();
+
+        return buffer;
+    }
+
+    @Test
+    public void messagesAreDecodedOneAfterTheOther() {
+        IoBuffer input = IoBuffer.wrap(frame("first"), frame("second"));
+        SizePrefixedDecoder.MutableInt state = decoder.createDecoderState();
+
+        assertEquals("first", decoder.decode(input, state));
+        assertEquals(9, input.position());
+
+        assertEquals("second", decoder.decode(input, state));
+        assertFalse(input.hasRemaining());
+
+        assertNull(decoder.decode(input, state));
+    }
+
+    @Test
+    public void incompleteMessageIsDecodedOnceComplete() {
+        ByteBuffer frame = frame("message");
+        ByteBuffer head = frame.duplicate();
+        head.limit(6);
+        ByteBuffer tail = frame.duplicate();
+        tail.position(6);
+
+        IoBuffer input = IoBuffer.wrap(head);
+        SizePrefixedDecoder.MutableInt state = decoder.createDecoderState();
+
+        // the size is read, the payload is left for the next call
+        assertNull(decoder.decode(input, state));
+        assertEquals(4, input.position());
+
+        input.add(tail);
+
+        assertEquals("message", decoder.decode(input, state));
+        assertFalse(input.hasRemaining());
+    }
+}
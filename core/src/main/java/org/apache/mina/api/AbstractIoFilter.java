@@ -94,5 +94,12 @@ public abstract class AbstractIoFilter implements IoFilter {
     @Override
     public void secureClosed(IoSession session) {
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writabilityChanged(IoSession session, boolean writable) {
+    }
     
 }
\ No newline at end of file
@@ -108,4 +108,11 @@ public abstract class AbstractIoHandler implements IoHandler {
     @Override
     public void secureClosed(IoSession session) {
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writabilityChanged(IoSession session, boolean writable) {
+    }
 }
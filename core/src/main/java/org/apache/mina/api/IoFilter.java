@@ -97,4 +97,13 @@ public interface IoFilter {
      */
     void secureClosed(IoSession session);
 
+    /**
+     * Invoked when the session becomes writable or not writable, as its write queue crosses one of its watermarks.
+     * 
+     * @see IoSession#isWritable()
+     * @param session {@link IoSession} associated with the invocation
+     * @param writable <code>true</code> if the session became writable
+     */
+    void writabilityChanged(IoSession session, boolean writable);
+
 }
\ No newline at end of file
@@ -113,4 +113,14 @@ public interface IoHandler {
      */
     void secureClosed(IoSession session);
 
+    /**
+     * Invoked when the session becomes writable or not writable, as its write queue crosses one of its watermarks. A
+     * producer should stop writing to a session which is not writable, and resume when it's writable again.
+     * 
+     * @see IoSession#isWritable()
+     * @param session {@link IoSession} associated with the invocation
+     * @param writable <code>true</code> if the session became writable
+     */
+    void writabilityChanged(IoSession session, boolean writable);
+
 }
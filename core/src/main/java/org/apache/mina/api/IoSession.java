@@ -211,6 +211,18 @@ public interface IoSession {
      */
     boolean isWriteSuspended();
 
+    /**
+     * Tells if the messages written now will be sent soon : a session is not writable when the bytes waiting in its
+     * write queue are above the high watermark, because the remote peer reads them slower than they are written. The
+     * session is writable again when the queued bytes are back under the low watermark.<br>
+     * The writes are not refused when the session is not writable, the producers are expected to throttle
+     * themselves, using the {@link IoHandler#writabilityChanged(IoSession, boolean)} event.
+     * 
+     * @see IoSessionConfig#setWriteQueueWatermarks(int, int)
+     * @return <code>true</code> if the session is writable
+     */
+    boolean isWritable();
+
     /* BASIC STATS */
     /**
      * Gets the total number of bytes read for this session since it was created.
@@ -352,6 +364,25 @@ public interface IoSession {
      */
     IoFuture<Void> writeWithFuture(Object message);
 
+    /**
+     * Same as {@link IoSession#write(Object)}, with a priority : the queued urgent messages are written before the
+     * queued normal ones, once the message being written is complete.
+     * 
+     * @param message the message to be processed and written
+     * @param priority the priority of the message
+     */
+    void write(Object message, WritePriority priority);
+
+    /**
+     * Same as {@link IoSession#write(Object, WritePriority)}, but provide a {@link IoFuture} for tracking the completion
+     * of this write.
+     * 
+     * @param message the message to be processed and written
+     * @param priority the priority of the message
+     * @return the {@link IoFuture} for tracking this asynchronous operation
+     */
+    IoFuture<Void> writeWithFuture(Object message, WritePriority priority);
+
     /**
      * Internal method for enqueue write request after filter chain processing
      * 
@@ -360,4 +391,11 @@ public interface IoSession {
      */
     WriteRequest enqueueWriteRequest(WriteRequest writeRequest);
 
+    /**
+     * Writes the queued messages as soon as possible. Only useful for the corked sessions, whose messages are queued
+     * until they are flushed : called from the session selector loop, the messages are written immediately, otherwise
+     * the loop writes them as soon as it runs the flush request, without waiting for the end of its iteration.
+     */
+    void flush();
+
 }
\ No newline at end of file
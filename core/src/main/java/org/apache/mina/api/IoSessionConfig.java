@@ -30,6 +30,11 @@ import org.apache.mina.session.TrafficClassEnum;
  * @author <a href="http://mina.apache.org">Apache MINA Project</a>
  */
 public interface IoSessionConfig {
+    /** The default number of queued bytes above which a session is not writable */
+    int DEFAULT_WRITE_QUEUE_HIGH_WATERMARK = 64 * 1024;
+
+    /** The default number of queued bytes under which a session is writable again */
+    int DEFAULT_WRITE_QUEUE_LOW_WATERMARK = 32 * 1024;
 
     /**
      * Returns the size of the read buffer that I/O processor allocates
@@ -127,4 +132,55 @@ public interface IoSessionConfig {
      * @param timeOut The timeout to set, in milliseconds. 0 means infinite
      */
     void setTimeout(int timeOut);
+
+    /**
+     * Returns the number of bytes waiting in the write queue above which the session is not writable.
+     * 
+     * @see IoSession#isWritable()
+     * @return the high watermark, in bytes
+     */
+    int getWriteQueueHighWatermark();
+
+    /**
+     * Returns the number of bytes waiting in the write queue under which the session is writable again.
+     * 
+     * @see IoSession#isWritable()
+     * @return the low watermark, in bytes
+     */
+    int getWriteQueueLowWatermark();
+
+    /**
+     * Sets the write queue watermarks. The session is not writable anymore when more than highWatermark bytes are
+     * waiting in its write queue, and is writable again when lowWatermark bytes or less are waiting.
+     * 
+     * @see IoSession#isWritable()
+     * @param lowWatermark the low watermark, in bytes
+     * @param highWatermark the high watermark, in bytes, at least lowWatermark
+     */
+    void setWriteQueueWatermarks(int lowWatermark, int highWatermark);
+
+    /**
+     * Tells if the received buffers given to the {@link org.apache.mina.service.executor.IoHandlerExecutor} are taken
+     * from the selector loop pool.
+     * 
+     * @see #setPooledReceiveBuffers(boolean)
+     * @return <code>true</code> if the received buffers are pooled
+     */
+    boolean isPooledReceiveBuffers();
+
+    /**
+     * Sets if the received buffers given to the {@link org.apache.mina.service.executor.IoHandlerExecutor} are taken
+     * from the selector loop pool. The read buffer of the selector loop is reused for the next read, so the received
+     * bytes are copied before being handed to the executor : either in a new heap buffer, or in a pooled direct buffer
+     * given back to the pool when the {@link org.apache.mina.api.IoHandler#messageReceived(IoSession, Object)} call
+     * returns, and the buffer has no backing array.<br>
+     * 
+     * With pooled buffers, the received buffer lives until the handler returns, or until it's written if the handler
+     * writes it to a session of the same selector loop : it's given back to the pool after the last of them. The
+     * handler must not keep the received buffer, or a view of it (slice, duplicate), after the call, as when there is
+     * no executor : a view given to {@link IoSession#write(Object)} must be copied first.
+     * 
+     * @param pooledReceiveBuffers <code>true</code> for pooling the received buffers
+     */
+    void setPooledReceiveBuffers(boolean pooledReceiveBuffers);
 }
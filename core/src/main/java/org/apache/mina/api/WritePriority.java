@@ -0,0 +1,36 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.api;
+
+/**
+ * The priority of a message written to an {@link IoSession}. The queued messages of each priority are written in
+ * order, the urgent ones before the normal ones : a small control message (heartbeat, acknowledgement, cancellation)
+ * does not wait behind the bulk data already queued. A message is never interrupted by another one : an urgent message
+ * is written after the end of the message being written.
+ * <ul>
+ * <li>{@link #URGENT} - written before the queued normal messages</li>
+ * <li>{@link #NORMAL} - the default priority</li>
+ * </ul>
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public enum WritePriority {
+    URGENT, NORMAL
+}
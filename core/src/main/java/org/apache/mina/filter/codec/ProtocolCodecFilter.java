@@ -24,12 +24,14 @@ import java.nio.ByteBuffer;
 import org.apache.mina.api.AbstractIoFilter;
 import org.apache.mina.api.IoFilter;
 import org.apache.mina.api.IoSession;
+import org.apache.mina.codec.IoBuffer;
 import org.apache.mina.codec.ProtocolDecoder;
 import org.apache.mina.codec.ProtocolDecoderException;
 import org.apache.mina.codec.ProtocolEncoder;
 import org.apache.mina.filterchain.ReadFilterChainController;
 import org.apache.mina.filterchain.WriteFilterChainController;
 import org.apache.mina.session.AttributeKey;
+import org.apache.mina.session.FileRegion;
 import org.apache.mina.session.WriteRequest;
 import org.apache.mina.util.Assert;
 import org.slf4j.Logger;
@@ -39,6 +41,15 @@ import org.slf4j.LoggerFactory;
  * An {@link IoFilter} which translates binary or protocol specific data into
  * message objects and vice versa using {@link ProtocolCodecFactory},
  * {@link ProtocolEncoder}, or {@link ProtocolDecoder}.
+ * <p>
+ * In cumulative mode (see {@link #newCumulativeInstance}), the decoder reads
+ * an {@link IoBuffer} : the bytes it leaves are kept for the session, and the
+ * next received bytes are appended to them. A decoder just returns
+ * <code>null</code> while a message is not complete, and does not need to
+ * keep the partial data itself. The received bytes are copied once when they
+ * are appended, the kept ones never : a large message received in many parts
+ * costs a linear number of copies. The decoded messages must not keep views
+ * of the decoder input, see {@link #newCumulativeInstance}.
  * 
  * @param MESSAGE
  *            the kind of high level business message this filter will encode
@@ -64,6 +75,13 @@ public class ProtocolCodecFilter<MESSAGE, ENCODED, ENCODING_STATE, DECODING_STAT
     /** key for session attribute holding the decoder */
     private static final AttributeKey<Object> DECODER = new AttributeKey<Object>(Object.class, "internal_decoder");
 
+    /** key for session attribute holding the received bytes not consumed by the decoder, in cumulative mode */
+    private static final AttributeKey<IoBuffer> CUMULATION = new AttributeKey<IoBuffer>(IoBuffer.class,
+            "internal_cumulation");
+
+    /** tells if the bytes left by the decoder are kept for the next received bytes */
+    private final boolean cumulative;
+
     /**
      * Creates a new instance of ProtocolCodecFilter, with the specified encoder
      * and decoder.
@@ -71,10 +89,41 @@ public class ProtocolCodecFilter<MESSAGE, ENCODED, ENCODING_STATE, DECODING_STAT
      */
     public ProtocolCodecFilter(ProtocolEncoder<MESSAGE, ENCODED, ENCODING_STATE> encoder,
             ProtocolDecoder<ENCODED, MESSAGE, DECODING_STATE> decoder) {
+        this(encoder, decoder, false);
+    }
+
+    private ProtocolCodecFilter(ProtocolEncoder<MESSAGE, ENCODED, ENCODING_STATE> encoder,
+            ProtocolDecoder<ENCODED, MESSAGE, DECODING_STATE> decoder, boolean cumulative) {
         Assert.assertNotNull(encoder, "encoder");
         Assert.assertNotNull(decoder, "decoder");
         this.encoder = encoder;
         this.decoder = decoder;
+        this.cumulative = cumulative;
+    }
+
+    /**
+     * Creates a new instance of ProtocolCodecFilter in cumulative mode : the
+     * decoder reads the received bytes following the ones it left before.
+     * <p>
+     * When no byte is left from the previous reads, the decoder reads the
+     * selector loop read buffer in place, which is reused as soon as the
+     * received message is processed. The decoded messages must not keep views
+     * (slices, duplicates) of the decoder input : the bytes they hold must be
+     * copied.
+     *
+     * @param encoder
+     *            the encoder, producing the low level messages to write
+     * @param decoder
+     *            the decoder, reading the cumulated bytes
+     * @return the filter
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static <MESSAGE, ENCODED, ENCODING_STATE, DECODING_STATE> ProtocolCodecFilter<MESSAGE, ENCODED, ENCODING_STATE, DECODING_STATE> newCumulativeInstance(
+            ProtocolEncoder<MESSAGE, ENCODED, ENCODING_STATE> encoder,
+            ProtocolDecoder<IoBuffer, MESSAGE, DECODING_STATE> decoder) {
+        // the decoder input is not the encoder output : it is always an IoBuffer
+        return new ProtocolCodecFilter<MESSAGE, ENCODED, ENCODING_STATE, DECODING_STATE>(encoder,
+                (ProtocolDecoder) decoder, true);
     }
 
     /**
@@ -95,6 +144,12 @@ public class ProtocolCodecFilter<MESSAGE, ENCODED, ENCODING_STATE, DECODING_STAT
 
         DECODING_STATE state = getDecodingState(session);
 
+        if (cumulative && (in instanceof ByteBuffer)) {
+            decodeCumulated(session, (ByteBuffer) in, state, controller);
+
+            return;
+        }
+
         // Loop until the decoder cannot decode more
         MESSAGE msg;
         try {
@@ -107,6 +162,66 @@ public class ProtocolCodecFilter<MESSAGE, ENCODED, ENCODING_STATE, DECODING_STAT
         }
     }
 
+    /**
+     * Decode the received bytes following the ones left by the previous
+     * decoding, and keep the bytes the decoder leaves. The received buffer is
+     * reused by the selector loop, so its bytes are copied when they are kept,
+     * and the decoded messages must not keep views of it.
+     */
+    @SuppressWarnings("unchecked")
+    private void decodeCumulated(IoSession session, ByteBuffer in, DECODING_STATE state,
+            ReadFilterChainController controller) {
+        IoBuffer cumulation = session.getAttribute(CUMULATION, null);
+        IoBuffer input;
+
+        if (cumulation == null) {
+            // nothing left from the previous reads : decode the received buffer in place
+            input = IoBuffer.wrap(in);
+        } else {
+            input = cumulation.add(copy(in));
+        }
+
+        in.position(in.limit());
+
+        MESSAGE msg;
+        try {
+            while (((msg = decoder.decode((ENCODED) input, state)) != null)) {
+                super.messageReceived(session, msg, controller);
+            }
+        } catch (ProtocolDecoderException e) {
+            LOGGER.debug("decoding exception : ", e);
+            session.removeAttribute(CUMULATION);
+            throw e;
+        }
+
+        if (!input.hasRemaining()) {
+            if (cumulation != null) {
+                session.removeAttribute(CUMULATION);
+            }
+        } else if (cumulation == null) {
+            LOGGER.debug("keeping {} bytes for the next decoding", input.remaining());
+            session.setAttribute(CUMULATION, IoBuffer.wrap(copy(input)));
+        } else {
+            // the fully decoded buffers are released
+            cumulation.discardReadBuffers();
+        }
+    }
+
+    private static ByteBuffer copy(ByteBuffer in) {
+        ByteBuffer copy = ByteBuffer.allocate(in.remaining());
+        copy.put(in.duplicate());
+        copy.flip();
+
+        return copy;
+    }
+
+    private static ByteBuffer copy(IoBuffer in) {
+        byte[] bytes = new byte[in.remaining()];
+        in.get(bytes);
+
+        return ByteBuffer.wrap(bytes);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -115,6 +230,13 @@ public class ProtocolCodecFilter<MESSAGE, ENCODED, ENCODING_STATE, DECODING_STAT
     public void messageWriting(IoSession session, WriteRequest message, WriteFilterChainController controller) {
         LOGGER.debug("Processing a MESSAGE_WRITTING for session {}", session);
 
+        if (message.getMessage() instanceof FileRegion) {
+            // the file bytes are written as they are
+            super.messageWriting(session, message, controller);
+
+            return;
+        }
+
         ENCODED encoded = encoder.encode((MESSAGE) message.getMessage(), getEncodingState(session));
         message.setMessage(encoded);
 
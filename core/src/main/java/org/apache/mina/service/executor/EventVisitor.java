@@ -41,4 +41,6 @@ public interface EventVisitor {
     void visit(HandshakeCompletedEvent handshakeCompletedEvent);
 
     void visit(SecureClosedEvent secureClosedEvent);
+
+    void visit(WritabilityChangedEvent event);
 }
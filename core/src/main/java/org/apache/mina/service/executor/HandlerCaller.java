@@ -69,6 +69,8 @@ class HandlerCaller implements EventVisitor {
             session.getService().getIoHandler().messageReceived(session, event.getMessage());
         } catch (Exception e) {
             session.getService().getIoHandler().exceptionCaught(session, e);
+        } finally {
+            event.release();
         }
     }
 
@@ -111,4 +113,14 @@ class HandlerCaller implements EventVisitor {
             session.getService().getIoHandler().exceptionCaught(session, e);
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public void visit(WritabilityChangedEvent event) {
+        IoSession session = event.getSession();
+        try {
+            session.getService().getIoHandler().writabilityChanged(session, event.isWritable());
+        } catch (Exception e) {
+            session.getService().getIoHandler().exceptionCaught(session, e);
+        }
+    }
+}
@@ -21,14 +21,21 @@ package org.apache.mina.service.executor;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.mina.api.IoHandler;
+import org.apache.mina.api.IoSession;
+import org.apache.mina.session.AttributeKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Use this executor if you want the {@link IoHandler} events of a session to be executed in order and on the same
- * thread. In your {@link IoHandler} code you don't need to care about session level concurrency.
+ * thread. In your {@link IoHandler} code you don't need to care about session level concurrency.<br/>
+ * 
+ * The executor can also slow down the sessions sending faster than their handler processes the events : the reads of
+ * a session are suspended when too many of its events are waiting, and resumed when the handler has caught up. The
+ * peer is then slowed down by the TCP flow control, instead of the events piling up in the queues.
  * 
  * @author <a href="http://mina.apache.org">Apache MINA Project</a>
  */
@@ -36,8 +43,20 @@ public final class OrderedHandlerExecutor implements IoHandlerExecutor {
 
     private static final Logger LOG = LoggerFactory.getLogger(OrderedHandlerExecutor.class);
 
+    /** The pending events of a session, when the reads are suspended by the executor */
+    private static final AttributeKey<PendingEvents> PENDING_EVENTS = new AttributeKey<PendingEvents>(
+            PendingEvents.class, "internal_pendingEvents");
+
+    private static HandlerCaller caller = new HandlerCaller();
+
     private Worker[] workers;
 
+    /** The number of pending events of a session above which its reads are suspended, 0 for never suspending them */
+    private final int maxPendingEvents;
+
+    /** The number of pending events of a session at or under which its reads are resumed */
+    private final int resumePendingEvents;
+
     /**
      * Create an {@link OrderedHandlerExecutor} with a given number of thread and a given queue size.
      * 
@@ -45,7 +64,35 @@ public final class OrderedHandlerExecutor implements IoHandlerExecutor {
      * @param queueSize the size of the queue for each worker thread
      */
     public OrderedHandlerExecutor(int workerThreadCount, int queueSize) {
+        this(workerThreadCount, queueSize, 0, 0);
+    }
+
+    /**
+     * Create an {@link OrderedHandlerExecutor} suspending the reads of the sessions having too many pending events :
+     * waiting in the queue, or being executed. The reads are suspended with {@link IoSession#suspendRead()}, so the
+     * handler should not suspend and resume the reads itself. As a worker queue is shared by several sessions, its size
+     * should be well above maxPendingEvents : the selector loop blocks when a queue is full.
+     * 
+     * @param workerThreadCount the worker thread count
+     * @param queueSize the size of the queue for each worker thread
+     * @param maxPendingEvents the number of pending events above which the reads of a session are suspended, 0 for
+     *        never suspending them
+     * @param resumePendingEvents the number of pending events at or under which the reads are resumed, lower than
+     *        maxPendingEvents
+     */
+    public OrderedHandlerExecutor(int workerThreadCount, int queueSize, int maxPendingEvents, int resumePendingEvents) {
+        if (maxPendingEvents < 0) {
+            throw new IllegalArgumentException("maxPendingEvents: " + maxPendingEvents + " (expected: 0+)");
+        }
+
+        if ((maxPendingEvents > 0) && ((resumePendingEvents < 0) || (resumePendingEvents >= maxPendingEvents))) {
+            throw new IllegalArgumentException("resumePendingEvents: " + resumePendingEvents + " (expected: 0 to "
+                    + (maxPendingEvents - 1) + ")");
+        }
+
         LOG.debug("creating OrderedHandlerExecutor workerThreadCount = {} queueSize = {}", workerThreadCount, queueSize);
+        this.maxPendingEvents = maxPendingEvents;
+        this.resumePendingEvents = resumePendingEvents;
         workers = new Worker[workerThreadCount];
 
         for (int i = 0; i < workerThreadCount; i++) {
@@ -63,8 +110,14 @@ public final class OrderedHandlerExecutor implements IoHandlerExecutor {
     @Override
     public void execute(Event event) {
         try {
-            int workerIndex = (int) (event.getSession().getId() % workers.length);
+            IoSession session = event.getSession();
+            int workerIndex = (int) (session.getId() % workers.length);
             LOG.debug("executing event {} in worker {}", event, workerIndex);
+
+            if (maxPendingEvents > 0) {
+                eventQueued(session);
+            }
+
             workers[workerIndex].enqueue(event);
         } catch (InterruptedException e) {
             // interrupt the world
@@ -72,10 +125,78 @@ public final class OrderedHandlerExecutor implements IoHandlerExecutor {
         }
     }
 
-    /** thread in charge of gathering events from a queue and running them */
-    private static class Worker extends Thread {
+    /**
+     * @return the number of events waiting in the queues of all the workers
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+
+        for (Worker worker : workers) {
+            depth += worker.queue.size();
+        }
 
-        private static HandlerCaller caller = new HandlerCaller();
+        return depth;
+    }
+
+    /**
+     * Count a new event of the session, and suspend its reads if it has too many pending events
+     */
+    private void eventQueued(IoSession session) {
+        PendingEvents pending = session.getAttribute(PENDING_EVENTS, null);
+
+        if (pending == null) {
+            // the events are not all produced by the selector loop
+            synchronized (session) {
+                pending = session.getAttribute(PENDING_EVENTS, null);
+
+                if (pending == null) {
+                    pending = new PendingEvents();
+                    session.setAttribute(PENDING_EVENTS, pending);
+                }
+            }
+        }
+
+        if ((pending.incrementAndGet() > maxPendingEvents) && !pending.readSuspended) {
+            synchronized (pending) {
+                if (!pending.readSuspended && (pending.get() > maxPendingEvents)) {
+                    LOG.debug("suspending the reads of session {}, {} events are pending", session, pending.get());
+                    pending.readSuspended = true;
+                    session.suspendRead();
+                }
+            }
+        }
+    }
+
+    /**
+     * Count an executed event of the session, and resume its reads if they were suspended and the handler has caught
+     * up
+     */
+    private void eventExecuted(IoSession session) {
+        PendingEvents pending = session.getAttribute(PENDING_EVENTS, null);
+
+        if ((pending.decrementAndGet() <= resumePendingEvents) && pending.readSuspended) {
+            synchronized (pending) {
+                if (pending.readSuspended && (pending.get() <= resumePendingEvents)) {
+                    LOG.debug("resuming the reads of session {}", session);
+                    pending.readSuspended = false;
+                    session.resumeRead();
+                }
+            }
+        }
+    }
+
+    /**
+     * The number of events of a session waiting in the queue or being executed
+     */
+    private static class PendingEvents extends AtomicInteger {
+        private static final long serialVersionUID = 1L;
+
+        /** Tells if the reads of the session were suspended by the executor, changed with this lock held */
+        private volatile boolean readSuspended;
+    }
+
+    /** thread in charge of gathering events from a queue and running them */
+    private class Worker extends Thread {
 
         private final BlockingQueue<Event> queue;
 
@@ -101,6 +222,10 @@ public final class OrderedHandlerExecutor implements IoHandlerExecutor {
                     LOG.debug("dequeing event {}", e);
                     e.visit(caller);
 
+                    if (maxPendingEvents > 0) {
+                        eventExecuted(e.getSession());
+                    }
+
                 } catch (InterruptedException e) {
                     // end this thread
                     return;
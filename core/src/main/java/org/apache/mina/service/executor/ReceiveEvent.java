@@ -19,7 +19,10 @@
  */
 package org.apache.mina.service.executor;
 
+import java.nio.ByteBuffer;
+
 import org.apache.mina.api.IoSession;
+import org.apache.mina.util.DirectBufferArena;
 
 /**
  * A {@link IoSession} received a message {@link Event}.
@@ -31,9 +34,25 @@ public class ReceiveEvent implements Event {
 
     private final Object message;
 
+    /** The arena the message buffer is given back to, <code>null</code> if the message is not pooled */
+    private final DirectBufferArena arena;
+
     public ReceiveEvent(final IoSession session, final Object message) {
+        this(session, message, null);
+    }
+
+    /**
+     * Create an event for a buffer taken from a pool. The event owns the buffer, and gives it back with
+     * {@link #release()} when the handler is done with it.
+     * 
+     * @param session the session
+     * @param message the received message
+     * @param arena the arena the message is given back to, <code>null</code> if the message is not pooled
+     */
+    public ReceiveEvent(final IoSession session, final Object message, final DirectBufferArena arena) {
         this.session = session;
         this.message = message;
+        this.arena = arena;
     }
 
     /**
@@ -48,6 +67,16 @@ public class ReceiveEvent implements Event {
         return message;
     }
 
+    /**
+     * Give the message buffer back to its pool, if it was taken from one. The message must not be used after. A buffer
+     * retained by a write goes back to the pool once written.
+     */
+    public void release() {
+        if (arena != null) {
+            arena.release((ByteBuffer) message);
+        }
+    }
+
     @Override
     public void visit(EventVisitor visitor) {
         visitor.visit(this);
@@ -22,7 +22,9 @@ package org.apache.mina.session;
 import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -37,6 +39,7 @@ import org.apache.mina.api.IoServer;
 import org.apache.mina.api.IoService;
 import org.apache.mina.api.IoSession;
 import org.apache.mina.api.IoSessionConfig;
+import org.apache.mina.api.WritePriority;
 import org.apache.mina.filterchain.ReadFilterChainController;
 import org.apache.mina.filterchain.WriteFilterChainController;
 import org.apache.mina.service.executor.CloseEvent;
@@ -48,9 +51,11 @@ import org.apache.mina.service.executor.OpenEvent;
 import org.apache.mina.service.executor.ReceiveEvent;
 import org.apache.mina.service.executor.SecureClosedEvent;
 import org.apache.mina.service.executor.SentEvent;
+import org.apache.mina.service.executor.WritabilityChangedEvent;
 import org.apache.mina.service.idlechecker.IdleChecker;
 import org.apache.mina.transport.nio.SelectorLoop;
 import org.apache.mina.transport.nio.SslHelper;
+import org.apache.mina.util.DirectBufferArena;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -122,6 +127,22 @@ public abstract class AbstractIoSession implements IoSession, ReadFilterChainCon
     /** Tells if the session is secured or not */
     protected volatile boolean secured;
 
+    // ------------------------------------------------------------------------
+    // Write queue accounting
+    // ------------------------------------------------------------------------
+
+    /** The number of bytes waiting in the write queue */
+    private final AtomicLong queuedWriteBytes = new AtomicLong();
+
+    /** Tells if the session is not writable, because its write queue went above the high watermark */
+    private final AtomicBoolean unwritable = new AtomicBoolean();
+
+    /** The writability last given to the filters and the handler */
+    private volatile boolean deliveredWritable = true;
+
+    /** Delivers the writability changes one at a time, when the session has no thread of its own for them */
+    private final Object writabilityLock = new Object();
+
     // ------------------------------------------------------------------------
     // Filter chain
     // ------------------------------------------------------------------------
@@ -388,6 +409,103 @@ public abstract class AbstractIoSession implements IoSession, ReadFilterChainCon
         return writtenBytes;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isWritable() {
+        return !unwritable.get();
+    }
+
+    /**
+     * @return the number of bytes waiting in the write queue
+     */
+    public long getQueuedWriteBytes() {
+        return queuedWriteBytes.get();
+    }
+
+    /**
+     * To be called by the internal plumber when some bytes are added to the write queue
+     * 
+     * @param bytesCount number of bytes added to the write queue
+     */
+    public void incrementQueuedWriteBytes(long bytesCount) {
+        long queued = queuedWriteBytes.addAndGet(bytesCount);
+
+        if ((queued > getConfig().getWriteQueueHighWatermark()) && isWritable()) {
+            updateWritability();
+        }
+    }
+
+    /**
+     * To be called by the internal plumber when some queued bytes are written on the socket
+     * 
+     * @param bytesCount number of bytes removed from the write queue
+     */
+    public void decrementQueuedWriteBytes(long bytesCount) {
+        long queued = queuedWriteBytes.addAndGet(-bytesCount);
+
+        if ((queued <= getConfig().getWriteQueueLowWatermark()) && !isWritable()) {
+            updateWritability();
+        }
+    }
+
+    /**
+     * Change the writability until it matches the queued bytes, as the writers and the selector loop update them
+     * concurrently : a writer may make the session not writable after the loop emptied the queue.
+     */
+    private void updateWritability() {
+        IoSessionConfig sessionConfig = getConfig();
+
+        for (;;) {
+            long queued = queuedWriteBytes.get();
+
+            if (isWritable()) {
+                if (queued <= sessionConfig.getWriteQueueHighWatermark()) {
+                    return;
+                }
+
+                if (unwritable.compareAndSet(false, true)) {
+                    dispatchWritabilityChanged();
+                }
+            } else {
+                if (queued > sessionConfig.getWriteQueueLowWatermark()) {
+                    return;
+                }
+
+                if (unwritable.compareAndSet(true, false)) {
+                    dispatchWritabilityChanged();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the writability change delivered. The writers and the selector loop change the writability concurrently :
+     * the events must be delivered by a single thread at a time, which reads the writability when delivering. By
+     * default, the calling thread delivers the event.
+     */
+    protected void dispatchWritabilityChanged() {
+        synchronized (writabilityLock) {
+            deliverWritabilityChanged();
+        }
+    }
+
+    /**
+     * Deliver the current writability, unless it's the one delivered last : an event dispatched before a later change
+     * is dropped, or delivers the later writability. Must be called by one thread at a time.
+     */
+    protected void deliverWritabilityChanged() {
+        boolean writable = isWritable();
+
+        if (writable == deliveredWritable) {
+            return;
+        }
+
+        deliveredWritable = writable;
+        processWritabilityChanged(writable);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -489,7 +607,7 @@ public abstract class AbstractIoSession implements IoSession, ReadFilterChainCon
      */
     @Override
     public void write(Object message) {
-        doWriteWithFuture(message, null);
+        doWriteWithFuture(message, null, WritePriority.NORMAL);
     }
 
     /**
@@ -498,12 +616,31 @@ public abstract class AbstractIoSession implements IoSession, ReadFilterChainCon
     @Override
     public IoFuture<Void> writeWithFuture(Object message) {
         IoFuture<Void> future = new DefaultWriteFuture();
-        doWriteWithFuture(message, future);
+        doWriteWithFuture(message, future, WritePriority.NORMAL);
 
         return future;
     }
 
-    private void doWriteWithFuture(Object message, IoFuture<Void> future) {
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(Object message, WritePriority priority) {
+        doWriteWithFuture(message, null, priority);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IoFuture<Void> writeWithFuture(Object message, WritePriority priority) {
+        IoFuture<Void> future = new DefaultWriteFuture();
+        doWriteWithFuture(message, future, priority);
+
+        return future;
+    }
+
+    private void doWriteWithFuture(Object message, IoFuture<Void> future, WritePriority priority) {
         if (IS_DEBUG) {
             LOG.debug("writing message {} to session {}", message, this);
         }
@@ -514,6 +651,7 @@ public abstract class AbstractIoSession implements IoSession, ReadFilterChainCon
         }
 
         WriteRequest writeRequest = new DefaultWriteRequest(message);
+        writeRequest.setPriority(priority);
 
         // process the queue
         processMessageWriting(writeRequest, future);
@@ -666,19 +804,7 @@ public abstract class AbstractIoSession implements IoSession, ReadFilterChainCon
 
                     if (executor != null) {
                         // asynchronous event
-                        // copy the bytebuffer
-                        if (IS_DEBUG) {
-                            LOG.debug("copying bytebuffer before pushing to the executor");
-                        }
-
-                        ByteBuffer original = message;
-                        ByteBuffer clone = ByteBuffer.allocate(original.capacity());
-                        // copy from the beginning
-                        original.rewind();
-                        clone.put(original);
-                        original.rewind();
-                        clone.flip();
-                        executor.execute(new ReceiveEvent(this, clone));
+                        executor.execute(copyReceivedBuffer(message));
                     } else {
                         // synchronous call (in the I/O loop)
                         handler.messageReceived(this, message);
@@ -696,6 +822,44 @@ public abstract class AbstractIoSession implements IoSession, ReadFilterChainCon
 
     }
 
+    /**
+     * Copy the received bytes of the selector loop read buffer, which is reused for the next read, before pushing them
+     * to the executor. Only the remaining bytes are copied, in a buffer of the session pool if it has one and the
+     * received buffers are pooled, or else in a new heap buffer of the exact size.
+     * 
+     * @param original the selector loop read buffer, left untouched
+     * @return the event to push to the executor
+     */
+    private ReceiveEvent copyReceivedBuffer(ByteBuffer original) {
+        if (IS_DEBUG) {
+            LOG.debug("copying bytebuffer before pushing to the executor");
+        }
+
+        int size = original.remaining();
+        DirectBufferArena arena = getConfig().isPooledReceiveBuffers() ? getReceiveBufferArena() : null;
+        ByteBuffer copy = (arena == null) ? null : arena.acquire(size);
+
+        if (copy == null) {
+            // not pooled, too big, or the arena is full
+            arena = null;
+            copy = ByteBuffer.allocate(size);
+        }
+
+        copy.put(original.duplicate());
+        copy.flip();
+
+        return new ReceiveEvent(this, copy, arena);
+    }
+
+    /**
+     * The pool of the received buffers copied for the handler executor.
+     * 
+     * @return the pool, <code>null</code> if the session has none
+     */
+    protected DirectBufferArena getReceiveBufferArena() {
+        return null;
+    }
+
     /**
      * process session message writing event using the filter chain. To be called by the session {@link SelectorLoop} .
      * 
@@ -852,6 +1016,42 @@ public abstract class AbstractIoSession implements IoSession, ReadFilterChainCon
         }
     }
 
+    /**
+     * process session writability changed event using the filter chain. To be called by the thread which changed the
+     * write queue size.
+     * 
+     * @param writable <code>true</code> if the session became writable
+     */
+    public void processWritabilityChanged(boolean writable) {
+        if (IS_DEBUG) {
+            LOG.debug("processing writability changed to {} event for session {}", writable, this);
+        }
+
+        try {
+            int size = chain.length;
+
+            for (int i = size - 1; i >= 0; i--) {
+                chain[i].writabilityChanged(this, writable);
+            }
+
+            IoHandler handler = getService().getIoHandler();
+
+            if (handler != null) {
+                IoHandlerExecutor executor = getService().getIoHandlerExecutor();
+
+                if (executor != null) {
+                    // asynchronous event
+                    executor.execute(new WritabilityChangedEvent(this, writable));
+                } else {
+                    // synchronous call
+                    handler.writabilityChanged(this, writable);
+                }
+            }
+        } catch (RuntimeException e) {
+            processException(e);
+        }
+    }
+
     /**
      * process session message received event using the filter chain. To be called by the session {@link SelectorLoop} .
      * 
@@ -906,19 +1106,7 @@ public abstract class AbstractIoSession implements IoSession, ReadFilterChainCon
                 if (executor != null) {
                     // asynchronous event
                     if (message == tl.get()) {
-                        // copy the bytebuffer
-                        if (IS_DEBUG) {
-                            LOG.debug("copying bytebuffer before pushing to the executor");
-                        }
-
-                        ByteBuffer original = (ByteBuffer) message;
-                        ByteBuffer clone = ByteBuffer.allocate(original.capacity());
-                        // copy from the beginning
-                        original.rewind();
-                        clone.put(original);
-                        original.rewind();
-                        clone.flip();
-                        executor.execute(new ReceiveEvent(this, clone));
+                        executor.execute(copyReceivedBuffer((ByteBuffer) message));
                     } else {
                         executor.execute(new ReceiveEvent(this, message));
                     }
@@ -982,4 +1170,11 @@ public abstract class AbstractIoSession implements IoSession, ReadFilterChainCon
 
         return id;
     }
-}
\ No newline at end of file
+
+    /**
+     * {@inheritDoc} By default, the messages are not delayed : there is nothing to flush.
+     */
+    @Override
+    public void flush() {
+    }
+}
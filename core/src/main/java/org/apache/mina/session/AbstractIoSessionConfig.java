@@ -55,6 +55,15 @@ public abstract class AbstractIoSessionConfig implements IoSessionConfig {
     /** The SO_TIMEOUT socket option */
     private Integer timeout = null;
 
+    /** The number of queued bytes above which the session is not writable */
+    private int writeQueueHighWatermark = DEFAULT_WRITE_QUEUE_HIGH_WATERMARK;
+
+    /** The number of queued bytes under which the session is writable again */
+    private int writeQueueLowWatermark = DEFAULT_WRITE_QUEUE_LOW_WATERMARK;
+
+    /** Tells if the received buffers given to the handler executor are pooled */
+    private boolean pooledReceiveBuffers;
+
     /**
      * {@inheritDoc}
      */
@@ -177,4 +186,54 @@ public abstract class AbstractIoSessionConfig implements IoSessionConfig {
     public void setTimeout(int timeout) {
         this.timeout = timeout;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getWriteQueueHighWatermark() {
+        return writeQueueHighWatermark;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getWriteQueueLowWatermark() {
+        return writeQueueLowWatermark;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setWriteQueueWatermarks(int lowWatermark, int highWatermark) {
+        if (lowWatermark < 0) {
+            throw new IllegalArgumentException("lowWatermark: " + lowWatermark + " (expected: 0+)");
+        }
+
+        if (highWatermark < lowWatermark) {
+            throw new IllegalArgumentException("highWatermark: " + highWatermark + " (expected: " + lowWatermark
+                    + "+)");
+        }
+
+        this.writeQueueLowWatermark = lowWatermark;
+        this.writeQueueHighWatermark = highWatermark;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isPooledReceiveBuffers() {
+        return pooledReceiveBuffers;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setPooledReceiveBuffers(boolean pooledReceiveBuffers) {
+        this.pooledReceiveBuffers = pooledReceiveBuffers;
+    }
 }
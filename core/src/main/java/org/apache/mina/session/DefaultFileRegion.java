@@ -0,0 +1,127 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.session;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Default implementation for file regions.
+ * 
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class DefaultFileRegion implements FileRegion {
+    /** The channel of the file */
+    private final FileChannel fileChannel;
+
+    /** The position of the first byte of the region */
+    private final long originalPosition;
+
+    /** The position of the next byte to write */
+    private long position;
+
+    /** The number of bytes left to write */
+    private long remainingBytes;
+
+    /**
+     * Creates a region covering the file from its current position to its end.
+     * 
+     * @param fileChannel the channel of the file
+     * @throws IOException if the file position or size can't be read
+     */
+    public DefaultFileRegion(FileChannel fileChannel) throws IOException {
+        this(fileChannel, fileChannel.position(), fileChannel.size() - fileChannel.position());
+    }
+
+    /**
+     * Creates a region of a file.
+     * 
+     * @param fileChannel the channel of the file
+     * @param position the position in the file of the first byte to write
+     * @param count the number of bytes to write
+     */
+    public DefaultFileRegion(FileChannel fileChannel, long position, long count) {
+        if (fileChannel == null) {
+            throw new IllegalArgumentException("Parameter >fileChannel< must not be null!");
+        }
+
+        if (position < 0) {
+            throw new IllegalArgumentException("position: " + position + " (expected: 0+)");
+        }
+
+        if (count < 0) {
+            throw new IllegalArgumentException("count: " + count + " (expected: 0+)");
+        }
+
+        this.fileChannel = fileChannel;
+        this.originalPosition = position;
+        this.position = position;
+        this.remainingBytes = count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FileChannel getFileChannel() {
+        return fileChannel;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRemainingBytes() {
+        return remainingBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getWrittenBytes() {
+        return position - originalPosition;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void update(long amount) {
+        position += amount;
+        remainingBytes -= amount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "FileRegion[position : " + position + ", remaining : " + remainingBytes + "]";
+    }
+}
@@ -22,7 +22,9 @@ package org.apache.mina.session;
 import java.nio.ByteBuffer;
 
 import org.apache.mina.api.IoFuture;
+import org.apache.mina.api.WritePriority;
 import org.apache.mina.util.ByteBufferDumper;
+import org.apache.mina.util.DirectBufferArena;
 
 /**
  * Default implementation for write requests.
@@ -46,6 +48,12 @@ public class DefaultWriteRequest implements WriteRequest {
     private boolean secureInternal = false;
 
     private boolean confirmRequested = true;
+
+    /** The priority of the message in the write queue */
+    private WritePriority priority = WritePriority.NORMAL;
+
+    /** The arena the message buffer was taken from, <code>null</code> if it was not pooled */
+    private DirectBufferArena arena;
     
     /**
      * Creates a new instance of a WriteRequest, storing the message as it was
@@ -165,6 +173,36 @@ public class DefaultWriteRequest implements WriteRequest {
         return sb.toString();
     }
 
+    /**
+     * Store a message written in a buffer taken from an arena : the buffer is given back to the arena by
+     * {@link #releaseMessage()}, once written.
+     * 
+     * @param message the buffer containing the message
+     * @param arena the arena the buffer was taken from
+     */
+    public void setPooledMessage(ByteBuffer message, DirectBufferArena arena) {
+        this.message = message;
+        this.arena = arena;
+    }
+
+    /**
+     * @return <code>true</code> if the message buffer is given back to an arena once written
+     */
+    public boolean isPooledMessage() {
+        return arena != null;
+    }
+
+    /**
+     * Give back the message buffer to its arena, if it was taken from one. The message must not be used anymore.
+     */
+    public void releaseMessage() {
+        if (arena != null) {
+            arena.release((ByteBuffer) message);
+            arena = null;
+            message = null;
+        }
+    }
+
     @Override
     public boolean isSecureInternal() {
         return secureInternal;
@@ -179,4 +217,24 @@ public class DefaultWriteRequest implements WriteRequest {
     public boolean isConfirmRequested() {
         return confirmRequested;
     }
-}
\ No newline at end of file
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public WritePriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setPriority(WritePriority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("Parameter >priority< must not be null!");
+        }
+
+        this.priority = priority;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.session;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * A part of a file, written to a session as a message : the bytes are transferred from the file to the socket by the
+ * operating system, with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, without
+ * being copied in the JVM heap nor in a direct buffer.<br/>
+ * 
+ * The region goes through the filter chain as any other message, and is written as is at the end : it can't be
+ * written to a secured session, as the bytes must be encrypted. The region is updated as the bytes are written, and
+ * the file channel is not closed by the session : it can be closed once the write future is completed.
+ * 
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public interface FileRegion {
+    /**
+     * @return the channel of the file the bytes are read from
+     */
+    FileChannel getFileChannel();
+
+    /**
+     * @return the position in the file of the next byte to write
+     */
+    long getPosition();
+
+    /**
+     * @return the number of bytes left to write
+     */
+    long getRemainingBytes();
+
+    /**
+     * @return the number of bytes written so far
+     */
+    long getWrittenBytes();
+
+    /**
+     * Called when some bytes of the region have been written.
+     * 
+     * @param amount the number of written bytes
+     */
+    void update(long amount);
+}
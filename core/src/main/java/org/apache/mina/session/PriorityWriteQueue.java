@@ -0,0 +1,173 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.session;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+import org.apache.mina.api.WritePriority;
+
+/**
+ * A queue of write requests with one lane per {@link WritePriority}. The requests are added to the lane of their
+ * priority, and the queue methods see the lanes in the priority order. The session writing the requests picks the lane
+ * to write from by itself, with {@link #getLane(int)}.
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class PriorityWriteQueue extends AbstractQueue<WriteRequest> {
+    /** The lanes, in the {@link WritePriority} order */
+    private final DefaultWriteQueue[] lanes;
+
+    public PriorityWriteQueue() {
+        lanes = new DefaultWriteQueue[WritePriority.values().length];
+
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new DefaultWriteQueue();
+        }
+    }
+
+    /**
+     * @return the number of lanes
+     */
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Gets the requests of a priority
+     * 
+     * @param index the {@link WritePriority} ordinal
+     * @return the lane
+     */
+    public Queue<WriteRequest> getLane(int index) {
+        return lanes[index];
+    }
+
+    /**
+     * {@inheritDoc} The request is added to the lane of its priority.
+     */
+    @Override
+    public boolean offer(WriteRequest writeRequest) {
+        WritePriority priority = writeRequest.getPriority();
+
+        return lanes[priority == null ? WritePriority.NORMAL.ordinal() : priority.ordinal()].offer(writeRequest);
+    }
+
+    /**
+     * {@inheritDoc} The request is taken from the first lane which is not empty.
+     */
+    @Override
+    public WriteRequest poll() {
+        for (DefaultWriteQueue lane : lanes) {
+            WriteRequest writeRequest = lane.poll();
+
+            if (writeRequest != null) {
+                return writeRequest;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public WriteRequest peek() {
+        for (DefaultWriteQueue lane : lanes) {
+            WriteRequest writeRequest = lane.peek();
+
+            if (writeRequest != null) {
+                return writeRequest;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        for (DefaultWriteQueue lane : lanes) {
+            if (!lane.isEmpty()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        int size = 0;
+
+        for (DefaultWriteQueue lane : lanes) {
+            size += lane.size();
+        }
+
+        return size;
+    }
+
+    /**
+     * {@inheritDoc} The requests are iterated lane by lane.
+     */
+    @Override
+    public Iterator<WriteRequest> iterator() {
+        return new Iterator<WriteRequest>() {
+            private int lane;
+
+            private Iterator<WriteRequest> current = lanes[0].iterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (lane == lanes.length - 1) {
+                        return false;
+                    }
+
+                    current = lanes[++lane].iterator();
+                }
+
+                return true;
+            }
+
+            @Override
+            public WriteRequest next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return current.next();
+            }
+
+            @Override
+            public void remove() {
+                current.remove();
+            }
+        };
+    }
+}
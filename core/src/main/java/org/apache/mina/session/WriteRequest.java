@@ -20,6 +20,7 @@
 package org.apache.mina.session;
 
 import org.apache.mina.api.IoFuture;
+import org.apache.mina.api.WritePriority;
 
 /**
  * The write request created by the {@link org.apache.mina.api.IoSession#write} method, 
@@ -91,4 +92,15 @@ public interface WriteRequest {
      * @return the send confirm flag
      */
     boolean isConfirmRequested();
+
+    /**
+     * @return the priority of the message in the session write queue
+     */
+    WritePriority getPriority();
+
+    /**
+     * Set the priority of the message in the session write queue
+     * @param priority the priority
+     */
+    void setPriority(WritePriority priority);
 }
\ No newline at end of file
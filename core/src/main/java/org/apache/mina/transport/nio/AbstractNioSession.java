@@ -19,10 +19,14 @@
  */
 package org.apache.mina.transport.nio;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 import java.util.Queue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -35,10 +39,12 @@ import org.apache.mina.api.IoSession;
 import org.apache.mina.service.idlechecker.IdleChecker;
 import org.apache.mina.session.AbstractIoSession;
 import org.apache.mina.session.DefaultWriteFuture;
-import org.apache.mina.session.DefaultWriteQueue;
 import org.apache.mina.session.DefaultWriteRequest;
+import org.apache.mina.session.FileRegion;
+import org.apache.mina.session.PriorityWriteQueue;
 import org.apache.mina.session.WriteRequest;
 import org.apache.mina.util.AbstractIoFuture;
+import org.apache.mina.util.DirectBufferArena;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,14 +60,75 @@ public abstract class AbstractNioSession extends AbstractIoSession {
     // A speedup for logs
     private static final boolean IS_DEBUG = LOG.isDebugEnabled();
 
+    /** The maximum number of queued buffers written by a single gathering write */
+    static final int MAX_GATHERED_BUFFERS = 64;
+
+    /** The number of bytes above which no more queued buffers are added to a gathering write */
+    static final int MAX_GATHERED_BYTES = 256 * 1024;
+
+    /** The buffers of a gathering write, one array per selector loop thread */
+    private static final ThreadLocal<ByteBuffer[]> GATHERED_BUFFERS = new ThreadLocal<ByteBuffer[]>() {
+        @Override
+        protected ByteBuffer[] initialValue() {
+            return new ByteBuffer[MAX_GATHERED_BUFFERS];
+        }
+    };
+
+    /** The number of bytes to write of each buffer of a gathering write, one array per selector loop thread */
+    private static final ThreadLocal<int[]> GATHERED_SIZES = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[MAX_GATHERED_BUFFERS];
+        }
+    };
+
     /** the NIO channel for this session */
     protected final SelectableChannel channel;
 
     /** is this session registered for being polled for write ready events */
     private final AtomicBoolean registeredForWrite = new AtomicBoolean();
 
-    /** the queue of pending writes for the session, to be dequeued by the {@link SelectorLoop} */
-    private final Queue<WriteRequest> writeQueue = new DefaultWriteQueue();
+    /**
+     * the queue of pending writes for the session, to be dequeued by the {@link SelectorLoop}, with one lane per
+     * priority. The queued bytes are counted when the requests are added, and discounted when they are written.
+     */
+    private final PriorityWriteQueue writeQueue = new PriorityWriteQueue() {
+        @Override
+        public boolean offer(WriteRequest writeRequest) {
+            // counted first, so that the loop never discounts bytes not counted yet
+            incrementQueuedWriteBytes(remainingBytes(writeRequest.getMessage()));
+
+            return super.offer(writeRequest);
+        }
+    };
+
+    /**
+     * @return the number of bytes left to write of a queued message
+     */
+    /* No qualifier */static long remainingBytes(Object message) {
+        if (message instanceof FileRegion) {
+            return ((FileRegion) message).getRemainingBytes();
+        }
+
+        return ((ByteBuffer) message).remaining();
+    }
+
+    /**
+     * The lane of the message being written, -1 between two messages. Set by the writer of a partial direct write, before
+     * registering the session for write events, and then used by the selector loop only
+     */
+    private volatile int pinnedLane = -1;
+
+    /** The number of messages written in a row while lower priority messages were waiting. Used by the selector loop */
+    private int higherPriorityInARow;
+
+    /** Delivers the writability of the session, run by the session selector loop */
+    private final Runnable writabilityTask = new Runnable() {
+        @Override
+        public void run() {
+            deliverWritabilityChanged();
+        }
+    };
 
     public AbstractNioSession(IoService service, SelectableChannel channel, IdleChecker idleChecker) {
         super(service, idleChecker);
@@ -76,6 +143,66 @@ public abstract class AbstractNioSession extends AbstractIoSession {
      */
     protected abstract int writeDirect(Object message);
 
+    /**
+     * Tells if the writes are only queued, until the session is flushed.
+     * 
+     * @return <code>true</code> if the session is corked
+     */
+    protected boolean isCorked() {
+        return false;
+    }
+
+    /**
+     * Tells if only the selector loop writes to the channel : the other threads hand their messages to the loop, instead
+     * of writing them or queuing them.
+     * 
+     * @return <code>true</code> if the selector loop is the only writer
+     */
+    protected boolean isSingleWriter() {
+        return false;
+    }
+
+    /**
+     * Gets how the queued messages of the different priorities are shared.
+     * 
+     * @return the number of urgent messages written in a row while normal messages are waiting, 0 for a strict
+     *         priority
+     */
+    protected int getWritePriorityWeight() {
+        return 0;
+    }
+
+    /**
+     * Get the queued messages written by the selector loop, after a first message was queued. By default, the session
+     * is registered for write events.
+     */
+    protected void scheduleFlush() {
+        flushWriteQueue();
+    }
+
+    /**
+     * The selector loop in charge of the events of this session.
+     * 
+     * @return the loop, <code>null</code> if the session has none of its own
+     */
+    protected SelectorLoop getEventSelectorLoop() {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc} The writability changes are delivered by the session selector loop, in the order it gets them.
+     */
+    @Override
+    protected void dispatchWritabilityChanged() {
+        SelectorLoop selectorLoop = getEventSelectorLoop();
+
+        if (selectorLoop == null) {
+            super.dispatchWritabilityChanged();
+        } else {
+            selectorLoop.runInLoop(writabilityTask);
+        }
+    }
+
     /**
      * Copy the HeapBuffer into a DirectBuffer, if needed.
      * 
@@ -85,6 +212,27 @@ public abstract class AbstractNioSession extends AbstractIoSession {
      */
     protected abstract ByteBuffer convertToDirectBuffer(WriteRequest writeRequest, boolean createNew);
 
+    /**
+     * Keep a received buffer taken from the session pool out of the pool until it's written : the handler may write
+     * the buffer it received, which is given back to the pool when the handler returns.
+     * 
+     * @param writeRequest the request containing the direct buffer
+     * @param message the direct buffer
+     */
+    protected void retainReceivedBuffer(WriteRequest writeRequest, ByteBuffer message) {
+        DefaultWriteRequest request = (DefaultWriteRequest) writeRequest;
+
+        if (!getConfig().isPooledReceiveBuffers() || request.isPooledMessage()) {
+            return;
+        }
+
+        DirectBufferArena arena = getReceiveBufferArena();
+
+        if ((arena != null) && arena.retain(message)) {
+            request.setPooledMessage(message, arena);
+        }
+    }
+
     // ------------------------------------------------------------------------
     // Close session management
     // ------------------------------------------------------------------------
@@ -171,6 +319,10 @@ public abstract class AbstractNioSession extends AbstractIoSession {
             LOG.debug("enqueueWriteRequest {}", writeRequest);
         }
 
+        if (writeRequest.getMessage() instanceof FileRegion) {
+            return enqueueFileRegion(writeRequest);
+        }
+
         if (isSecured()) {
             // SSL/TLS : we have to encrypt the message
             SslHelper sslHelper = getAttribute(SSL_HELPER, null);
@@ -187,7 +339,7 @@ public abstract class AbstractNioSession extends AbstractIoSession {
         if (writeRequest != null) {
             ByteBuffer message = (ByteBuffer) writeRequest.getMessage();
 
-            if (writeQueue.isEmpty()) {
+            if (writeQueue.isEmpty() && !isCorked()) {
                 // Transfer the buffer in a DirectByteBuffer if it's a HeapByteBuffer and if it's too big
                 message = convertToDirectBuffer(writeRequest, false);
 
@@ -208,6 +360,11 @@ public abstract class AbstractNioSession extends AbstractIoSession {
                 int remaining = message.remaining();
 
                 if ((written < 0) || (remaining > 0)) {
+                    if (written > 0) {
+                        // the rest of the message is written before any other one
+                        pinnedLane = writeRequest.getPriority().ordinal();
+                    }
+
                     // Create a DirectBuffer unconditionally
                     convertToDirectBuffer(writeRequest, true);
 
@@ -220,7 +377,10 @@ public abstract class AbstractNioSession extends AbstractIoSession {
                         flushWriteQueue();
                     }
                 } else {
-                    // The message has been fully written : update the stats, and signal the handler
+                    // The message has been fully written : give back its buffer, update the stats, and signal the
+                    // handler
+                    ((DefaultWriteRequest) writeRequest).releaseMessage();
+
                     // generate the message sent event
                     // complete the future if we have one (we should...)
                     final DefaultWriteFuture future = (DefaultWriteFuture) writeRequest.getFuture();
@@ -241,8 +401,14 @@ public abstract class AbstractNioSession extends AbstractIoSession {
 
                 // We have to push the request on the writeQueue
                 writeQueue.add(writeRequest);
+
                 if (!registeredForWrite.getAndSet(true)) {
-                    flushWriteQueue();
+                    if (isCorked()) {
+                        // the writes are grouped until the flush
+                        scheduleFlush();
+                    } else {
+                        flushWriteQueue();
+                    }
                 }
             }
         }
@@ -250,8 +416,43 @@ public abstract class AbstractNioSession extends AbstractIoSession {
         return writeRequest;
     }
 
+    /**
+     * Queue a file region : it's always written by the selector loop, as the bytes are transferred from the file
+     * without being copied.
+     * 
+     * @param writeRequest the request containing the {@link FileRegion}
+     * @return the queued request
+     */
+    private WriteRequest enqueueFileRegion(WriteRequest writeRequest) {
+        if (isSecured()) {
+            throw new IllegalStateException("A FileRegion can't be written to a secured session");
+        }
+
+        writeQueue.add(writeRequest);
+
+        if (!registeredForWrite.getAndSet(true)) {
+            if (isCorked()) {
+                scheduleFlush();
+            } else {
+                flushWriteQueue();
+            }
+        }
+
+        return writeRequest;
+    }
+
     public abstract void flushWriteQueue();
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() {
+        if (!writeQueue.isEmpty() && !registeredForWrite.getAndSet(true)) {
+            flushWriteQueue();
+        }
+    }
+
     public void setNotRegisteredForWrite() {
         registeredForWrite.set(false);
     }
@@ -260,6 +461,27 @@ public abstract class AbstractNioSession extends AbstractIoSession {
         return registeredForWrite.get();
     }
 
+    /**
+     * Take the write registration flag, so that the writers don't register the session for write events.
+     * 
+     * @return <code>true</code> if the flag was taken, <code>false</code> if it was already set
+     */
+    protected boolean tryRegisterForWrite() {
+        return registeredForWrite.compareAndSet(false, true);
+    }
+
+    /**
+     * Give back the buffers of the requests left in the write queue, once the channel is closed. Must be called by the
+     * selector loop, as it could be writing the head of the queue.
+     */
+    protected void discardWriteQueue() {
+        WriteRequest writeRequest;
+
+        while ((writeRequest = writeQueue.poll()) != null) {
+            ((DefaultWriteRequest) writeRequest).releaseMessage();
+        }
+    }
+
     /**
      * Get the {@link Queue} of this session. The write queue contains the pending writes.
      * 
@@ -280,44 +502,159 @@ public abstract class AbstractNioSession extends AbstractIoSession {
                 LOG.debug("writable session : {}", this);
             }
 
+            if (isWriteSuspended()) {
+                // the queued messages wait for the writes to be resumed
+                updateInterest(selectorLoop, false);
+                return;
+            }
+
+            // the queued buffers of a stream are written together, in a single system call
+            final boolean gathering = channel instanceof SocketChannel;
+            final ByteBuffer[] buffers = GATHERED_BUFFERS.get();
+            final int[] sizes = GATHERED_SIZES.get();
+
             do {
-                // get a write request from the queue. We left it in the queue,
-                // just in case we can't write all of the message content into
-                // the channel : we will have to retrieve the message later
-                final WriteRequest writeRequest = writeQueue.peek();
+                // the two first lanes having messages to write
+                int first = -1;
+                int second = -1;
+
+                for (int i = 0; i < writeQueue.getLaneCount(); i++) {
+                    if (!writeQueue.getLane(i).isEmpty()) {
+                        if (first < 0) {
+                            first = i;
+                        } else {
+                            second = i;
+                            break;
+                        }
+                    }
+                }
 
-                if (writeRequest == null) {
+                if (first < 0) {
                     // Nothing to write : we are done
                     break;
                 }
 
-                // The message is necessarily a ByteBuffer at this point
-                ByteBuffer buf = (ByteBuffer) writeRequest.getMessage();
+                final int weight = getWritePriorityWeight();
+                final boolean lowerWaiting = (weight > 0) && (second >= 0);
+                final int lane;
+                int quota = MAX_GATHERED_BUFFERS;
+
+                if ((pinnedLane >= 0) && !writeQueue.getLane(pinnedLane).isEmpty()) {
+                    // a message is never interrupted by another one
+                    lane = pinnedLane;
+                } else if (lowerWaiting && (higherPriorityInARow >= weight)) {
+                    // let a lower priority message through
+                    lane = second;
+                } else {
+                    lane = first;
+                }
+
+                if (lowerWaiting) {
+                    quota = (lane == first) ? Math.max(1, weight - higherPriorityInARow) : 1;
+                }
+
+                final Queue<WriteRequest> laneQueue = writeQueue.getLane(lane);
+
+                // get the write requests from the lane. We left them in the lane,
+                // just in case we can't write all of their content into
+                // the channel : we will have to retrieve them later
+                int count = 0;
+                long bytes = 0;
+                FileRegion region = null;
+
+                for (WriteRequest writeRequest : laneQueue) {
+                    // The message is a ByteBuffer or a FileRegion at this point
+                    // Note that if the connection is secured, the buffer
+                    // already contains encrypted data.
+                    Object message = writeRequest.getMessage();
+
+                    if (message instanceof FileRegion) {
+                        // a region is written alone, after the buffers queued before it
+                        if (count == 0) {
+                            region = (FileRegion) message;
+                        }
+
+                        break;
+                    }
 
-                // Note that if the connection is secured, the buffer
-                // already contains encrypted data.
+                    ByteBuffer buf = (ByteBuffer) message;
+                    sizes[count] = buf.remaining();
+                    buffers[count++] = buf;
+                    bytes += buf.remaining();
+
+                    if (!gathering || (count == quota) || (bytes >= MAX_GATHERED_BYTES)) {
+                        break;
+                    }
+                }
+
+                if ((count == 0) && (region == null)) {
+                    // Nothing to write : we are done
+                    break;
+                }
 
                 // Try to write the data, and get back the number of bytes
                 // actually written
-                int written = ((SocketChannel) channel).write(buf);
+                long written;
+
+                if (region != null) {
+                    written = transferFileRegion(region);
+                    count = 1;
+                } else if (count == 1) {
+                    written = ((WritableByteChannel) channel).write(buffers[0]);
+                } else {
+                    written = ((SocketChannel) channel).write(buffers, 0, count);
+                }
 
                 if (IS_DEBUG) {
-                    LOG.debug("wrote {} bytes to {}", written, this);
+                    LOG.debug("wrote {} bytes from {} messages to {}", new Object[] { written, count, this });
                 }
 
                 if (written > 0) {
-                    incrementWrittenBytes(written);
+                    incrementWrittenBytes((int) written);
+                    decrementQueuedWriteBytes(written);
                 }
 
                 // Update the idle status for this session
                 idleChecker.sessionWritten(this, System.currentTimeMillis());
 
                 // Ok, we may not have written everything. Check that.
-                if (buf.remaining() == 0) {
-                    // completed write request, let's remove it (we use poll() instead
-                    // of remove(), because remove() may throw an exception if the
-                    // queue is empty.
-                    writeQueue.poll();
+                int completed = 0;
+                boolean started;
+
+                if (region != null) {
+                    completed = region.getRemainingBytes() == 0 ? 1 : 0;
+                    started = written > 0;
+                } else {
+                    while ((completed < count) && !buffers[completed].hasRemaining()) {
+                        completed++;
+                    }
+
+                    started = (completed < count) && (buffers[completed].remaining() < sizes[completed]);
+
+                    // don't retain the buffers until the next write
+                    Arrays.fill(buffers, 0, count, null);
+                }
+
+                // the first message not completed keeps its lane until it's written, if it was started
+                if (completed == count) {
+                    pinnedLane = -1;
+                } else if (started) {
+                    pinnedLane = lane;
+                } else if (completed > 0) {
+                    pinnedLane = -1;
+                }
+
+                if (completed > 0) {
+                    higherPriorityInARow = (lowerWaiting && (lane == first)) ? higherPriorityInARow + completed : 0;
+                }
+
+                for (int i = 0; i < completed; i++) {
+                    // completed write request, let's remove it. Only the selector
+                    // loop removes requests, the head of the lane is the request we wrote
+                    final WriteRequest writeRequest = laneQueue.poll();
+
+                    // the buffer can be reused as soon as it's written
+                    ((DefaultWriteRequest) writeRequest).releaseMessage();
 
                     // complete the future if we have one (we should...)
                     final DefaultWriteFuture future = (DefaultWriteFuture) writeRequest.getFuture();
@@ -332,7 +669,9 @@ public abstract class AbstractNioSession extends AbstractIoSession {
                     if ((highLevel != null) && writeRequest.isConfirmRequested()) {
                         processMessageSent(highLevel);
                     }
-                } else {
+                }
+
+                if (completed < count) {
                     // output socket buffer is full, we need
                     // to give up until next selection for
                     // writing.
@@ -344,34 +683,115 @@ public abstract class AbstractNioSession extends AbstractIoSession {
             // that an empty queue
             // if the session is no more interested in writing, we need
             // to stop listening for OP_WRITE events
-            //
-            // IMPORTANT : this section is synchronized so that the OP_WRITE flag
-            // can be set safely by both the selector thread and the writer thread.
-            synchronized (writeQueue) {
-                if (writeQueue.isEmpty()) {
-                    if (isClosing()) {
-                        if (IS_DEBUG) {
-                            LOG.debug("closing session {} have empty write queue, so we close it", this);
-                        }
-
-                        // we was flushing writes, now we to the close
-                        channelClose();
-                        processSessionClosed();
-                    } else {
-                        // no more write event needed
-                        selectorLoop.modifyRegistration(false, !isReadSuspended(), false, (SelectorListener) this,
-                                channel, false);
-
-                        // Reset the flag in IoSession too
-                        setNotRegisteredForWrite();
-                    }
+            if (isSingleWriter()) {
+                // only this thread touches the write queue and the OP_WRITE flag
+                writeQueueFlushed(selectorLoop);
+            } else {
+                // IMPORTANT : this section is synchronized so that the OP_WRITE flag
+                // can be set safely by both the selector thread and the writer thread.
+                synchronized (writeQueue) {
+                    writeQueueFlushed(selectorLoop);
                 }
-                // if the queue is not empty, that means we have some more data to write : 
-                // the channel OP_WRITE interest remains as it was.
             }
         } catch (final IOException e) {
             LOG.error("Exception while writing : ", e);
             processException(e);
         }
     }
+
+    /**
+     * Set the channel interest from the session state : read events unless the reads are suspended, write events if
+     * the session has messages to write or is closing, unless the writes are suspended. The writers change the
+     * interest concurrently, so the state is read again once the interest is set, and the interest set again if the
+     * state changed meanwhile.
+     * 
+     * @param selectorLoop the loop of the session
+     * @param wakeup <code>true</code> if the loop must be woken up
+     */
+    protected void updateInterest(SelectorLoop selectorLoop, boolean wakeup) {
+        for (;;) {
+            final boolean read = !isReadSuspended();
+            final boolean write = needsWriteEvents();
+
+            selectorLoop.modifyRegistration(false, read, write, (SelectorListener) this, channel, wakeup);
+
+            if ((read != isReadSuspended()) && (write == needsWriteEvents())) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the session waits for write events : to write its queued messages, or to be closed
+     *         once they are written
+     */
+    private boolean needsWriteEvents() {
+        return (isRegisteredForWrite() || isClosing()) && !isWriteSuspended();
+    }
+
+    /**
+     * Stop listening for OP_WRITE events once the write queue is empty, or close the session if it was waiting for the
+     * queued messages to be written.
+     * 
+     * @param selectorLoop the loop of the session
+     */
+    private void writeQueueFlushed(SelectorLoop selectorLoop) {
+        if (writeQueue.isEmpty()) {
+            if (isClosing()) {
+                if (IS_DEBUG) {
+                    LOG.debug("closing session {} have empty write queue, so we close it", this);
+                }
+
+                // we was flushing writes, now we to the close
+                channelClose();
+                processSessionClosed();
+            } else {
+                // no more write event needed
+                final boolean read = !isReadSuspended();
+                selectorLoop.modifyRegistration(false, read, false, (SelectorListener) this, channel, false);
+
+                // Reset the flag in IoSession too
+                setNotRegisteredForWrite();
+
+                // a writer may have queued a message after we found the queue empty, and before we reset the
+                // flag : it saw the flag set, so it's up to us to get the message written
+                if (!writeQueue.isEmpty() && tryRegisterForWrite()) {
+                    flushWriteQueue();
+                } else if (read == isReadSuspended()) {
+                    // the reads were suspended or resumed meanwhile, we may have overwritten the new interest
+                    updateInterest(selectorLoop, false);
+                }
+            }
+        }
+        // if the queue is not empty, that means we have some more data to write :
+        // the channel OP_WRITE interest remains as it was.
+    }
+
+    /**
+     * Transfer the bytes of a file region into the channel, from the file system cache. The region is updated, so that
+     * the next write event goes on where this one stopped.
+     * 
+     * @param region the region to write
+     * @return the number of written bytes
+     * @throws IOException if the file can't be read, or the channel written
+     */
+    private long transferFileRegion(FileRegion region) throws IOException {
+        long remaining = region.getRemainingBytes();
+
+        if (remaining == 0) {
+            return 0;
+        }
+
+        FileChannel fileChannel = region.getFileChannel();
+        long written = fileChannel.transferTo(region.getPosition(), remaining, (WritableByteChannel) channel);
+
+        if (written > 0) {
+            region.update(written);
+        } else if (region.getPosition() >= fileChannel.size()) {
+            // nothing will ever be written, don't wait for the next write event
+            throw new EOFException("The file ends before the region : " + region);
+        }
+
+        return written;
+    }
 }
@@ -0,0 +1,357 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.mina.transport.nio;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of {@link SelectorLoop} growing with the load, up to a maximum size. The loops are created when needed, and
+ * their thread stops after being idle for the keep alive time : a mostly idle service costs one thread, or none.<br>
+ *
+ * A new session is given to the first loop which is not loaded : less than {@link #getMaxSessionsPerLoop()} sessions,
+ * and a recent utilisation under {@link #getGrowUtilisation()}. A new loop is created when all the loops are loaded.
+ * As the sessions are packed on the first loops, the last ones are drained when the load drops, and their thread
+ * stops.<br>
+ *
+ * The same pool can be shared by several services of the JVM, by giving it to all their constructors.
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class ElasticSelectorLoopPool implements SelectorLoopPool {
+    /** The default utilisation above which a loop is considered as loaded */
+    public static final double DEFAULT_GROW_UTILISATION = 0.7d;
+
+    /** The default number of sessions above which a loop is considered as loaded */
+    public static final int DEFAULT_MAX_SESSIONS_PER_LOOP = 1024;
+
+    /** The default time an idle loop keeps its thread */
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 60000L;
+
+    /** The prefix of the loop thread names */
+    private final String prefix;
+
+    /** The loops, created on demand */
+    private final NioSelectorLoop[] loops;
+
+    /** The number of loops created so far */
+    private volatile int size;
+
+    /** The utilisation above which a loop is considered as loaded */
+    private volatile double growUtilisation = DEFAULT_GROW_UTILISATION;
+
+    /** The number of sessions above which a loop is considered as loaded */
+    private volatile int maxSessionsPerLoop = DEFAULT_MAX_SESSIONS_PER_LOOP;
+
+    // =====================
+    // the loops settings, applied to the loops created later. Guarded by this
+    // =====================
+    /** The time an idle loop keeps its thread */
+    private long keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_KEEP_ALIVE_MILLIS);
+
+    /** Tells if the loops use an array based selected keys set */
+    private boolean optimizeSelectedKeys;
+
+    /** The loops spin policy */
+    private SpinPolicy spinPolicy = SpinPolicy.NONE;
+
+    /** The number of premature select() returns before a selector is rebuilt */
+    private int selectorRebuildThreshold = NioSelectorLoop.DEFAULT_SELECTOR_REBUILD_THRESHOLD;
+
+    /**
+     * Create a pool of at most "maxSize" {@link SelectorLoop}. No loop is created before the first call to
+     * {@link #getSelectorLoop()}.
+     *
+     * @param prefix the prefix of the loop thread names
+     * @param maxSize the maximum number of loops
+     */
+    public ElasticSelectorLoopPool(String prefix, int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize: " + maxSize + " (expected: 1+)");
+        }
+
+        this.prefix = prefix;
+        loops = new NioSelectorLoop[maxSize];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SelectorLoop getSelectorLoop() {
+        final int created = size;
+        final int maxSessions = maxSessionsPerLoop;
+        final double maxUtilisation = growUtilisation;
+        NioSelectorLoop leastLoaded = null;
+        int leastCount = Integer.MAX_VALUE;
+
+        for (int i = 0; i < created; i++) {
+            NioSelectorLoop loop = loops[i];
+            int count = loop.getRegisteredChannelCount();
+
+            if ((count < maxSessions) && (loop.getRecentUtilisation() < maxUtilisation)) {
+                return loop;
+            }
+
+            if (count < leastCount) {
+                leastLoaded = loop;
+                leastCount = count;
+            }
+        }
+
+        if (created < loops.length) {
+            return grow(created);
+        }
+
+        // all the loops are loaded, and we can't create more
+        return leastLoaded;
+    }
+
+    /**
+     * Get the loop at the given index, creating it and the previous ones if needed, for spreading some long lived
+     * channels on distinct loops.
+     * 
+     * @param index the index of the loop, from 0 to {@link #getMaxSize()} - 1
+     * @return the loop
+     */
+    public SelectorLoop getSelectorLoop(int index) {
+        if ((index < 0) || (index >= loops.length)) {
+            throw new IllegalArgumentException("index: " + index + " (expected: 0 to " + (loops.length - 1) + ")");
+        }
+
+        while (size <= index) {
+            grow(size);
+        }
+
+        return loops[index];
+    }
+
+    /**
+     * Create the loop at the given index, unless another thread did it meanwhile
+     */
+    private synchronized NioSelectorLoop grow(int index) {
+        if (size == index) {
+            NioSelectorLoop loop = new NioSelectorLoop(prefix + "-I/O", index);
+            loop.setKeepAliveTime(keepAliveNanos, TimeUnit.NANOSECONDS);
+            loop.setOptimizeSelectedKeys(optimizeSelectedKeys);
+            loop.setSpinPolicy(spinPolicy);
+            loop.setSelectorRebuildThreshold(selectorRebuildThreshold);
+
+            loops[index] = loop;
+            size = index + 1;
+        }
+
+        return loops[index];
+    }
+
+    /**
+     * @return the maximum number of loops
+     */
+    public int getMaxSize() {
+        return loops.length;
+    }
+
+    /**
+     * @return the number of loops created so far, running or not
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of loops whose thread is running
+     */
+    public int getRunningLoopCount() {
+        int running = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (loops[i].isRunning()) {
+                running++;
+            }
+        }
+
+        return running;
+    }
+
+    /**
+     * Get the mean recent utilisation of the running loops of the pool : the fraction of the time they spend
+     * processing events rather than waiting for them. Only the running loops are counted, as the pool grows when they
+     * are loaded.
+     * 
+     * @return the utilisation, between 0 (idle) and 1 (saturated)
+     * @see NioSelectorLoop#getRecentUtilisation()
+     */
+    public double getRecentUtilisation() {
+        final int created = size;
+        double utilisation = 0d;
+        int running = 0;
+
+        for (int i = 0; i < created; i++) {
+            if (loops[i].isRunning()) {
+                utilisation += loops[i].getRecentUtilisation();
+                running++;
+            }
+        }
+
+        return running == 0 ? 0d : utilisation / running;
+    }
+
+    /**
+     * Sets the recent utilisation above which a loop does not get new sessions, unless all the loops are loaded.
+     *
+     * @see NioSelectorLoop#getRecentUtilisation()
+     * @param growUtilisation the utilisation, between 0 excluded and 1
+     */
+    public void setGrowUtilisation(double growUtilisation) {
+        if ((growUtilisation <= 0d) || (growUtilisation > 1d)) {
+            throw new IllegalArgumentException("growUtilisation: " + growUtilisation + " (expected: ]0, 1])");
+        }
+
+        this.growUtilisation = growUtilisation;
+    }
+
+    /**
+     * @return the recent utilisation above which a loop does not get new sessions
+     */
+    public double getGrowUtilisation() {
+        return growUtilisation;
+    }
+
+    /**
+     * Sets the number of sessions above which a loop does not get new sessions, unless all the loops are loaded.
+     *
+     * @param maxSessionsPerLoop the number of sessions
+     */
+    public void setMaxSessionsPerLoop(int maxSessionsPerLoop) {
+        if (maxSessionsPerLoop <= 0) {
+            throw new IllegalArgumentException("maxSessionsPerLoop: " + maxSessionsPerLoop + " (expected: 1+)");
+        }
+
+        this.maxSessionsPerLoop = maxSessionsPerLoop;
+    }
+
+    /**
+     * @return the number of sessions above which a loop does not get new sessions
+     */
+    public int getMaxSessionsPerLoop() {
+        return maxSessionsPerLoop;
+    }
+
+    /**
+     * Set the keep alive time of all the loops of the pool.
+     *
+     * @see NioSelectorLoop#setKeepAliveTime(long, TimeUnit)
+     * @param keepAliveTime how long an idle loop keeps its thread, 0 for never stopping the threads
+     * @param unit the keep alive time unit
+     */
+    public synchronized void setKeepAliveTime(long keepAliveTime, TimeUnit unit) {
+        if (keepAliveTime < 0) {
+            throw new IllegalArgumentException("keepAliveTime: " + keepAliveTime + " (expected: 0+)");
+        }
+
+        keepAliveNanos = unit.toNanos(keepAliveTime);
+
+        for (int i = 0; i < size; i++) {
+            loops[i].setKeepAliveTime(keepAliveNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Use an array based selected keys set in all the loops of the pool, if the JDK allows it.
+     *
+     * @see NioSelectorLoop#setOptimizeSelectedKeys(boolean)
+     * @param optimizeSelectedKeys <code>true</code> to use an array based selected keys set
+     */
+    public synchronized void setOptimizeSelectedKeys(boolean optimizeSelectedKeys) {
+        this.optimizeSelectedKeys = optimizeSelectedKeys;
+
+        for (int i = 0; i < size; i++) {
+            loops[i].setOptimizeSelectedKeys(optimizeSelectedKeys);
+        }
+    }
+
+    /**
+     * Set the spin policy of all the loops of the pool.
+     *
+     * @see NioSelectorLoop#setSpinPolicy(SpinPolicy)
+     * @param spinPolicy the spin policy
+     */
+    public synchronized void setSpinPolicy(SpinPolicy spinPolicy) {
+        if (spinPolicy == null) {
+            throw new IllegalArgumentException("Parameter >spinPolicy< must not be null!");
+        }
+
+        this.spinPolicy = spinPolicy;
+
+        for (int i = 0; i < size; i++) {
+            loops[i].setSpinPolicy(spinPolicy);
+        }
+    }
+
+    /**
+     * Set the selector rebuild threshold of all the loops of the pool.
+     *
+     * @see NioSelectorLoop#setSelectorRebuildThreshold(int)
+     * @param selectorRebuildThreshold the number of premature select() returns, 0 for never rebuilding the selectors
+     */
+    public synchronized void setSelectorRebuildThreshold(int selectorRebuildThreshold) {
+        if (selectorRebuildThreshold < 0) {
+            throw new IllegalArgumentException("selectorRebuildThreshold: " + selectorRebuildThreshold
+                    + " (expected: 0+)");
+        }
+
+        this.selectorRebuildThreshold = selectorRebuildThreshold;
+
+        for (int i = 0; i < size; i++) {
+            loops[i].setSelectorRebuildThreshold(selectorRebuildThreshold);
+        }
+    }
+
+    /**
+     * Gets the statistics of all the loops created so far, summed.
+     *
+     * @return the pool statistics
+     */
+    public SelectorLoopStats getStats() {
+        SelectorLoopStats stats = new SelectorLoopStats(0, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0, 0, 0);
+
+        for (int i = 0; i < size; i++) {
+            stats = stats.plus(loops[i].getStats());
+        }
+
+        return stats;
+    }
+
+    /**
+     * Gets the statistics of each loop created so far.
+     *
+     * @return the statistics of the loops, in the pool order
+     */
+    public List<SelectorLoopStats> getLoopStats() {
+        final int created = size;
+        List<SelectorLoopStats> stats = new ArrayList<>(created);
+
+        for (int i = 0; i < created; i++) {
+            stats.add(loops[i].getStats());
+        }
+
+        return stats;
+    }
+}
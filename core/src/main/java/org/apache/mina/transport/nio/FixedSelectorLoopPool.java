@@ -18,6 +18,8 @@
  */
 package org.apache.mina.transport.nio;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -27,7 +29,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class FixedSelectorLoopPool implements SelectorLoopPool {
     /** the pool of selector loop */
-    private final SelectorLoop[] pool;
+    /* No qualifier */final NioSelectorLoop[] pool;
 
     /** the index of the next selector loop to be served */
     private final AtomicInteger nextIndex = new AtomicInteger();
@@ -42,7 +44,7 @@ public class FixedSelectorLoopPool implements SelectorLoopPool {
             throw new IllegalArgumentException("We can't create a pool with no Selectorloop in it");
         }
 
-        pool = new SelectorLoop[size];
+        pool = new NioSelectorLoop[size];
 
         for (int i = 0; i < size; i++) {
             pool[i] = new NioSelectorLoop(prefix + "-I/O", i);
@@ -56,4 +58,108 @@ public class FixedSelectorLoopPool implements SelectorLoopPool {
     public SelectorLoop getSelectorLoop() {
         return pool[Math.abs(nextIndex.incrementAndGet() % pool.length)];
     }
+
+    /**
+     * Get the loop at the given index, for spreading some long lived channels on distinct loops.
+     * 
+     * @param index the index of the loop, from 0 to {@link #getSize()} - 1
+     * @return the loop
+     */
+    public SelectorLoop getSelectorLoop(int index) {
+        if ((index < 0) || (index >= pool.length)) {
+            throw new IllegalArgumentException("index: " + index + " (expected: 0 to " + (pool.length - 1) + ")");
+        }
+
+        return pool[index];
+    }
+
+    /**
+     * @return the number of loops of the pool
+     */
+    public int getSize() {
+        return pool.length;
+    }
+
+    /**
+     * Use an array based selected keys set in all the loops of the pool, if the JDK allows it.
+     * 
+     * @see NioSelectorLoop#setOptimizeSelectedKeys(boolean)
+     * @param optimizeSelectedKeys <code>true</code> to use an array based selected keys set
+     */
+    public void setOptimizeSelectedKeys(boolean optimizeSelectedKeys) {
+        for (NioSelectorLoop loop : pool) {
+            loop.setOptimizeSelectedKeys(optimizeSelectedKeys);
+        }
+    }
+
+    /**
+     * Set the spin policy of all the loops of the pool.
+     * 
+     * @see NioSelectorLoop#setSpinPolicy(SpinPolicy)
+     * @param spinPolicy the spin policy
+     */
+    public void setSpinPolicy(SpinPolicy spinPolicy) {
+        for (NioSelectorLoop loop : pool) {
+            loop.setSpinPolicy(spinPolicy);
+        }
+    }
+
+    /**
+     * Set the selector rebuild threshold of all the loops of the pool.
+     * 
+     * @see NioSelectorLoop#setSelectorRebuildThreshold(int)
+     * @param selectorRebuildThreshold the number of premature select() returns, 0 for never rebuilding the selectors
+     */
+    public void setSelectorRebuildThreshold(int selectorRebuildThreshold) {
+        for (NioSelectorLoop loop : pool) {
+            loop.setSelectorRebuildThreshold(selectorRebuildThreshold);
+        }
+    }
+
+    /**
+     * Get the mean recent utilisation of the loops of the pool : the fraction of the time they spend processing
+     * events rather than waiting for them.
+     * 
+     * @return the utilisation, between 0 (idle) and 1 (saturated)
+     * @see NioSelectorLoop#getRecentUtilisation()
+     */
+    public double getRecentUtilisation() {
+        double utilisation = 0d;
+
+        for (NioSelectorLoop loop : pool) {
+            utilisation += loop.getRecentUtilisation();
+        }
+
+        return utilisation / pool.length;
+    }
+
+    /**
+     * Gets the statistics of all the loops of the pool, summed.
+     * 
+     * @return the pool statistics
+     */
+    public SelectorLoopStats getStats() {
+        SelectorLoopStats stats = pool[0].getStats();
+
+        for (int i = 1; i < pool.length; i++) {
+            stats = stats.plus(pool[i].getStats());
+        }
+
+        return stats;
+    }
+
+    /**
+     * Gets the statistics of each loop of the pool, as a single overloaded loop is hidden by the pool average.
+     * 
+     * @return the statistics of the loops, in the pool order
+     */
+    public List<SelectorLoopStats> getLoopStats() {
+        List<SelectorLoopStats> stats = new ArrayList<>(pool.length);
+
+        for (NioSelectorLoop loop : pool) {
+            stats.add(loop.getStats());
+        }
+
+        return stats;
+    }
 }
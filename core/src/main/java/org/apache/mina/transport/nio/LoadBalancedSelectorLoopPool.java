@@ -0,0 +1,154 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.transport.nio;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A fixed size pool of {@link SelectorLoop} giving the least loaded loop instead of the next one. With long lived
+ * sessions of very different weights, a round robin pool ends up with some hot loops, capping the throughput of the
+ * whole service.<br>
+ *
+ * Sessions already running on a hot loop can be moved to a lighter one with
+ * {@link NioTcpSession#migrate(SelectorLoop)}.
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class LoadBalancedSelectorLoopPool extends FixedSelectorLoopPool {
+    /**
+     * How the pool chooses the loop of a new session
+     */
+    public enum Strategy {
+        /** The loop with the fewest registered channels */
+        LEAST_SESSIONS,
+        /** The loop with the lowest recent utilisation, the fewest registered channels when it's similar */
+        LEAST_UTILISATION,
+        /** The least loaded of two loops picked at random : almost as good, without looking at all the loops */
+        POWER_OF_TWO_CHOICES
+    }
+
+    /** Two loops whose utilisation differs by less than this are considered as equally busy */
+    private static final double UTILISATION_TOLERANCE = 0.05d;
+
+    /** The loop selection strategy */
+    private final Strategy strategy;
+
+    /**
+     * Create a pool of "size" {@link SelectorLoop}
+     *
+     * @param prefix the prefix of the loop thread names
+     * @param size the number of loops
+     * @param strategy the loop selection strategy
+     */
+    public LoadBalancedSelectorLoopPool(String prefix, int size, Strategy strategy) {
+        super(prefix, size);
+
+        if (strategy == null) {
+            throw new IllegalArgumentException("Parameter >strategy< must not be null!");
+        }
+
+        this.strategy = strategy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SelectorLoop getSelectorLoop() {
+        switch (strategy) {
+        case LEAST_SESSIONS:
+            return leastSessions();
+
+        case LEAST_UTILISATION:
+            return leastUtilisation();
+
+        case POWER_OF_TWO_CHOICES:
+            return powerOfTwoChoices();
+
+        default:
+            throw new IllegalStateException("unexpected strategy : " + strategy);
+        }
+    }
+
+    /**
+     * @return the loop selection strategy
+     */
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    private SelectorLoop leastSessions() {
+        NioSelectorLoop best = pool[0];
+        int bestCount = best.getRegisteredChannelCount();
+
+        for (int i = 1; i < pool.length; i++) {
+            int count = pool[i].getRegisteredChannelCount();
+
+            if (count < bestCount) {
+                best = pool[i];
+                bestCount = count;
+            }
+        }
+
+        return best;
+    }
+
+    private SelectorLoop leastUtilisation() {
+        NioSelectorLoop best = pool[0];
+        double bestUtilisation = best.getRecentUtilisation();
+
+        for (int i = 1; i < pool.length; i++) {
+            NioSelectorLoop loop = pool[i];
+            double utilisation = loop.getRecentUtilisation();
+
+            if (utilisation < bestUtilisation - UTILISATION_TOLERANCE) {
+                best = loop;
+                bestUtilisation = utilisation;
+            } else if ((utilisation < bestUtilisation + UTILISATION_TOLERANCE)
+                    && (loop.getRegisteredChannelCount() < best.getRegisteredChannelCount())) {
+                // as busy, but with less sessions : the utilisation is not measured yet for the newest sessions
+                best = loop;
+                bestUtilisation = utilisation;
+            }
+        }
+
+        return best;
+    }
+
+    private SelectorLoop powerOfTwoChoices() {
+        if (pool.length == 1) {
+            return pool[0];
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(pool.length);
+        int second = random.nextInt(pool.length - 1);
+
+        if (second >= first) {
+            second++;
+        }
+
+        NioSelectorLoop firstLoop = pool[first];
+        NioSelectorLoop secondLoop = pool[second];
+
+        return firstLoop.getRegisteredChannelCount() <= secondLoop.getRegisteredChannelCount() ? firstLoop
+                : secondLoop;
+    }
+}
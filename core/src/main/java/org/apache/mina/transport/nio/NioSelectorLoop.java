@@ -21,21 +21,34 @@ package org.apache.mina.transport.nio;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
-
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.util.DirectBufferArena;
+import org.apache.mina.util.MpscRingBuffer;
+import org.apache.mina.util.TimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * This class holds a Selector and handle all the incoming events for the sessions registered on this selector.ALl the
  * events will be processed by some dedicated thread, taken from a pool. It will loop forever, until the instance is
- * stopped.
+ * stopped.<br>
+ * 
+ * The thread is only started when the first channel is registered. If a keep alive time is set, the thread stops when
+ * no channel has been registered for this time, closing the selector, and is restarted on demand with a new selector.
  * 
  * @author <a href="http://mina.apache.org">Apache MINA Project</a>
  */
@@ -45,20 +58,131 @@ public class NioSelectorLoop implements SelectorLoop {
 
     private static final boolean IS_DEBUG = LOG.isDebugEnabled();
 
-    /** the selector managed by this class */
-    private Selector selector;
+    /** The default capacity of the registration and task ring buffers, before they overflow */
+    public static final int DEFAULT_QUEUE_CAPACITY = 16 * 1024;
+
+    /** The duration of the windows used for measuring the recent utilisation of the loop */
+    public static final long UTILISATION_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** The default number of consecutive premature select() returns before we rebuild the selector */
+    public static final int DEFAULT_SELECTOR_REBUILD_THRESHOLD = 512;
+
+    /** The size of the read buffer */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /** The worker thread is not running : not started yet, or stopped after being idle */
+    private static final int STOPPED = 0;
+
+    /** The worker thread is running */
+    private static final int RUNNING = 1;
 
-    /** Read buffer for all the incoming bytes (default to 64Kb) */
-    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    /** the selector managed by this class, replaced when it has to be rebuilt */
+    private volatile Selector selector;
+
+    /** Read buffer for all the incoming bytes (64Kb), allocated by the worker thread when it starts */
+    private ByteBuffer readBuffer;
 
     /** The queue containing the channels to register on the selector */
-    private final Queue<Registration> registrationQueue = new ConcurrentLinkedQueue<>();
+    private final LoopQueue<Registration> registrationQueue;
 
     /**
      * Queue of runnable events to be run by the selector loop, used for running user code in the I/O loop and avoiding
      * concurrency issues
      */
-    private final Queue<Runnable> runnableQueue = new ConcurrentLinkedQueue<>();
+    private final LoopQueue<Runnable> runnableQueue;
+
+    /** The tasks to run at the end of the current iteration. Used by the worker thread only */
+    private final List<Runnable> endOfIterationTasks = new ArrayList<Runnable>();
+
+    /**
+     * Set when a wakeup has been requested since the last select, so that only the first producer pays for the
+     * selector.wakeup() system call
+     */
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    /** The number of selector.wakeup() calls actually done */
+    private final AtomicLong wakeupCount = new AtomicLong();
+
+    /**
+     * The number of consecutive select() calls returning no key without being woken up, 0 to never rebuild the
+     * selector
+     */
+    private volatile int selectorRebuildThreshold = DEFAULT_SELECTOR_REBUILD_THRESHOLD;
+
+    /** The number of consecutive select() calls which returned prematurely. Used by the worker thread only */
+    private int prematureSelectCount;
+
+    /** The number of selector rebuilds */
+    private final AtomicLong selectorRebuildCount = new AtomicLong();
+
+    // =====================
+    // statistics, written by the worker thread only
+    // =====================
+    /** The number of loop iterations */
+    private volatile long iterationCount;
+
+    /** The number of ready keys processed */
+    private volatile long readyKeyCount;
+
+    /** The time spent in select, in nanoseconds */
+    private volatile long selectTimeNanos;
+
+    /** The time spent processing the ready keys, in nanoseconds */
+    private volatile long ioTimeNanos;
+
+    /** The time spent registering channels, in nanoseconds */
+    private volatile long registrationTimeNanos;
+
+    /** The time spent running tasks, in nanoseconds */
+    private volatile long taskTimeNanos;
+
+    /** The number of channels registered on the selector, updated after each registration and iteration */
+    private volatile int registeredChannelCount;
+
+    /** The number of registrations pushed in the queue and not yet processed */
+    private final AtomicInteger pendingRegistrationCount = new AtomicInteger();
+
+    /** The start of the current utilisation measurement window */
+    private long utilisationWindowStart = System.nanoTime();
+
+    /** The busy time in the current utilisation measurement window */
+    private long utilisationWindowBusyNanos;
+
+    /** The end of the last utilisation measurement window */
+    private volatile long utilisationWindowEnd = utilisationWindowStart;
+
+    /** The utilisation of the loop during the last windows, decaying with a half life of one window */
+    private volatile double recentUtilisation;
+
+    /** Tells if we want to use an array based selected keys set */
+    private volatile boolean optimizeSelectedKeys;
+
+    /** The array based selected keys set, <code>null</code> if the selector uses its own set */
+    private SelectedSelectionKeySet selectedKeys;
+
+    /** Tells if the array based selected keys set is in use */
+    private volatile boolean selectedKeysOptimized;
+
+    /** How long we poll the selector before blocking in select() */
+    private volatile SpinPolicy spinPolicy = SpinPolicy.NONE;
+
+    /** The name of the thread running the loop */
+    private final String workerName;
+
+    /** The thread running the loop, replaced when the loop is restarted after being idle */
+    private volatile SelectorWorker worker;
+
+    /** The worker thread state, {@link #STOPPED} or {@link #RUNNING} */
+    private final AtomicInteger state = new AtomicInteger(STOPPED);
+
+    /** How long the worker thread waits without any registered channel before stopping, 0 for never stopping */
+    private volatile long keepAliveNanos;
+
+    /** The timeouts scheduled in this loop. Used by the worker thread only */
+    private final TimingWheel timingWheel = new TimingWheel();
+
+    /** The direct buffers used for copying the heap buffers written to the sessions of this loop */
+    private final DirectBufferArena directBufferArena = new DirectBufferArena();
 
     /**
      * Creates an instance of the SelectorLoop.
@@ -77,32 +201,93 @@ public class NioSelectorLoop implements SelectorLoop {
      * @param index
      */
     public NioSelectorLoop(final String prefix, final int index) {
-        String workerName = "SelectorWorker " + prefix;
+        this(prefix, index, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates an instance of the SelectorLoop. The worker thread is started when the first channel is registered, or
+     * the first task is pushed.<br>
+     * 
+     * The pending registrations and tasks are kept in ring buffers of the given capacity. The producers never wait
+     * for the worker : when a ring buffer is full, the next elements are kept in an unbounded queue, allocating a node
+     * per element, until the worker catches up.
+     * 
+     * @param prefix
+     * @param index
+     * @param queueCapacity the number of pending registrations, and of pending tasks, kept without any allocation
+     */
+    public NioSelectorLoop(final String prefix, final int index, final int queueCapacity) {
+        registrationQueue = new LoopQueue<>(queueCapacity);
+        runnableQueue = new LoopQueue<>(queueCapacity);
+
+        String name = "SelectorWorker " + prefix;
 
         if (index >= 0) {
-            workerName += "-" + index;
+            name += "-" + index;
         }
 
-        SelectorWorker worker = new SelectorWorker(workerName);
+        workerName = name;
+        selector = openSelector();
+    }
 
+    private static Selector openSelector() {
         try {
             if (IS_DEBUG) {
                 LOG.debug("open a selector");
             }
 
-            selector = Selector.open();
+            return Selector.open();
         } catch (final IOException ioe) {
             LOG.error("Impossible to open a new NIO selector, O/S is out of file descriptor ?");
             throw new IllegalStateException("Impossible to open a new NIO selector, O/S is out of file descriptor ?",
                     ioe);
         }
+    }
 
-        if (IS_DEBUG) {
-            LOG.debug("starting worker thread");
+    /**
+     * Close the selector of a loop which is about to stop, so that an idle loop holds no file descriptor. Must be
+     * called by the worker thread, when no channel is registered.
+     */
+    private void closeSelector() {
+        try {
+            selector.close();
+        } catch (final IOException e) {
+            LOG.warn("Failed to close the selector of an idle loop", e);
+        }
+    }
+
+    /**
+     * Start the worker thread if it's not running. Must be called after pushing something in the queues : a stopping
+     * worker checks the queues after changing its state.
+     */
+    private void startIfNeeded() {
+        if ((state.get() == STOPPED) && state.compareAndSet(STOPPED, RUNNING)) {
+            if (IS_DEBUG) {
+                LOG.debug("starting worker thread");
+            }
+
+            SelectorWorker newWorker = new SelectorWorker(workerName);
+            worker = newWorker;
+            newWorker.start();
         }
+    }
+
+    /**
+     * Stop the worker thread, unless some work was pushed meanwhile. Must be called by the worker thread.
+     * 
+     * @return <code>true</code> if the worker thread must exit
+     */
+    private boolean tryStop() {
+        state.set(STOPPED);
 
-        worker.start();
+        // the queue sizes are read from the producer counters, updated by a CAS before the producers check the state :
+        // either we see the new element, or the producer sees the loop stopped and starts a new worker
+        if ((registrationQueue.size() == 0) && (runnableQueue.size() == 0)) {
+            return true;
+        }
 
+        // keep running, unless the producer already started a new worker
+        return !state.compareAndSet(STOPPED, RUNNING);
     }
 
     /**
@@ -134,11 +319,19 @@ public class NioSelectorLoop implements SelectorLoop {
             ops |= SelectionKey.OP_WRITE;
         }
 
-        // TODO : if it's the same selector/worker, we don't need to do that we could directly enqueue
-        registrationQueue.add(new Registration(ops, channel, listener, callback));
+        Registration registration = new Registration(ops, channel, listener, callback);
 
-        // Now, wakeup the selector in order to let it update the selectionKey status
-        wakeup();
+        if (inLoop()) {
+            // we are the worker, we can register the channel right now
+            processRegistration(registration);
+        } else {
+            pendingRegistrationCount.incrementAndGet();
+            enqueue(registrationQueue, registration);
+            startIfNeeded();
+
+            // Now, wakeup the selector in order to let it update the selectionKey status
+            wakeup();
+        }
     }
 
     /**
@@ -146,8 +339,40 @@ public class NioSelectorLoop implements SelectorLoop {
      */
     @Override
     public void runInLoop(Runnable task) {
-        runnableQueue.add(task);
-        wakeup();
+        if (inLoop()) {
+            task.run();
+        } else {
+            enqueue(runnableQueue, task);
+            startIfNeeded();
+            wakeup();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void runAtEndOfIteration(Runnable task) {
+        if (inLoop()) {
+            endOfIterationTasks.add(task);
+        } else {
+            runInLoop(task);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean inLoop() {
+        return Thread.currentThread() == worker;
+    }
+
+    /**
+     * Push an element in one of the loop queues. It never blocks : a full ring buffer overflows in an unbounded queue.
+     */
+    private <T> void enqueue(LoopQueue<T> queue, T element) {
+        queue.offer(element);
     }
 
     /**
@@ -182,10 +407,30 @@ public class NioSelectorLoop implements SelectorLoop {
             ops |= SelectionKey.OP_WRITE;
         }
 
-        key.interestOps(ops);
+        try {
+            key.interestOps(ops);
+        } catch (CancelledKeyException e) {
+            if (key.selector() == selector) {
+                throw e;
+            }
+
+            // the key belongs to a selector we just closed after rebuilding it, the new key is updated below
+        }
 
-        // we need to wakeup for the registration to be modified (TODO : not needed if we are in the worker thread)
-        if (wakeup) {
+        // the selector may have been rebuilt meanwhile, the new key must get the new interest set too
+        final Selector currentSelector = selector;
+
+        if (key.selector() != currentSelector) {
+            final SelectionKey newKey = channel.keyFor(currentSelector);
+
+            if (newKey != null) {
+                newKey.interestOps(ops);
+            }
+        }
+
+        // we need to wakeup for the registration to be modified, unless we are the worker : the new interest set will
+        // be used by the next select
+        if (wakeup && !inLoop()) {
             wakeup();
         }
     }
@@ -208,6 +453,18 @@ public class NioSelectorLoop implements SelectorLoop {
         key.cancel();
         key.attach(null);
 
+        // the selector may have been rebuilt meanwhile, the new key must be cancelled too
+        final Selector currentSelector = selector;
+
+        if (key.selector() != currentSelector) {
+            final SelectionKey newKey = channel.keyFor(currentSelector);
+
+            if (newKey != null) {
+                newKey.cancel();
+                newKey.attach(null);
+            }
+        }
+
         if (IS_DEBUG) {
             LOG.debug("unregistering : {} done !", listener);
         }
@@ -226,6 +483,11 @@ public class NioSelectorLoop implements SelectorLoop {
 
         @Override
         public void run() {
+            readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+            // the time since when no channel is registered, if the loop is allowed to stop
+            long idleStart = System.nanoTime();
+            boolean idle = false;
 
             for (;;) {
                 try {
@@ -233,54 +495,137 @@ public class NioSelectorLoop implements SelectorLoop {
                         LOG.debug("selecting...");
                     }
 
-                    final int readyCount = selector.select();
+                    if (!selector.isOpen()) {
+                        // restarted after being idle
+                        selector = openSelector();
+                        selectedKeys = null;
+                    }
+
+                    if (optimizeSelectedKeys != (selectedKeys != null)) {
+                        updateSelectedKeys();
+                    }
 
-                    if (IS_DEBUG) {
-                        LOG.debug("... done selecting : {} events", readyCount);
+                    final long selectStart = System.nanoTime();
+                    int readyCount = 0;
+                    SpinPolicy policy = spinPolicy;
+
+                    if (policy.isEnabled()) {
+                        readyCount = spin(policy);
                     }
 
-                    if (readyCount > 0) {
-                        final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
-
-                        while (it.hasNext()) {
-                            final SelectionKey key = it.next();
-                            final SelectorListener listener = (SelectorListener) key.attachment();
-                            int ops = key.readyOps();
-                            boolean isAcceptable = (ops & SelectionKey.OP_ACCEPT) == SelectionKey.OP_ACCEPT;
-                            boolean isConnectable = (ops & SelectionKey.OP_CONNECT) == SelectionKey.OP_CONNECT;
-                            boolean isReadable = (ops & SelectionKey.OP_READ) == SelectionKey.OP_READ;
-                            boolean isWritable = (ops & SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE;
-                            listener.ready(isAcceptable, isConnectable, isReadable, isReadable ? readBuffer : null,
-                                    isWritable);
-                            // if you don't remove the event of the set, the selector will present you this event again
-                            // and again
-                            if (IS_DEBUG) {
-                                LOG.debug("remove");
+                    if (readyCount == 0) {
+                        // from now, a producer has to wake us up again
+                        wakeupPending.set(false);
+
+                        // wait until the next timeout expiration, if any
+                        long timeoutNanos = timingWheel.nanosToNextExpiration(System.nanoTime());
+
+                        final long keepAlive = keepAliveNanos;
+
+                        if (idle) {
+                            // nothing registered and no timeout : wait until the keep alive time elapsed
+                            timeoutNanos = Math.max(1L, keepAlive - (System.nanoTime() - idleStart));
+                        } else if ((keepAlive > 0) && ((timeoutNanos < 0) || (timeoutNanos > keepAlive))) {
+                            // the cancelled keys are only removed by the select : wake up from time to time for
+                            // checking if the last channel is gone
+                            timeoutNanos = keepAlive;
+                        }
+
+                        if (registrationQueue.isEmpty() && runnableQueue.isEmpty() && (timeoutNanos != 0)) {
+                            final long blockStart = System.nanoTime();
+
+                            if (timeoutNanos < 0) {
+                                readyCount = selector.select();
+                            } else {
+                                readyCount = selector.select(Math.max(1L,
+                                        TimeUnit.NANOSECONDS.toMillis(timeoutNanos + 999999L)));
                             }
 
-                            it.remove();
+                            if (readyCount == 0) {
+                                if ((timeoutNanos < 0) || (System.nanoTime() - blockStart < timeoutNanos)) {
+                                    checkPrematureSelect();
+                                } else {
+                                    // the timeout elapsed
+                                    prematureSelectCount = 0;
+                                }
+                            } else {
+                                prematureSelectCount = 0;
+                            }
+                        } else {
+                            // some work was pushed before the flag was reset, or some timeouts expired : don't block
+                            readyCount = selector.selectNow();
                         }
                     }
 
-                    // new registration
-                    while (!registrationQueue.isEmpty()) {
-                        final Registration reg = registrationQueue.poll();
+                    if (IS_DEBUG) {
+                        LOG.debug("... done selecting : {} events", readyCount);
+                    }
 
-                        try {
-                            SelectionKey selectionKey = reg.channel.register(selector, reg.ops, reg.listener);
+                    final long ioStart = System.nanoTime();
 
-                            if (reg.getCallback() != null) {
-                                reg.getCallback().done(selectionKey);
-                            }
-                        } catch (final ClosedChannelException ex) {
-                            // dead session..
-                            LOG.error("socket is already dead", ex);
+                    if (readyCount > 0) {
+                        if (selectedKeys != null) {
+                            processSelectedKeys(selectedKeys);
+                        } else {
+                            processSelectedKeys(selector.selectedKeys().iterator());
                         }
                     }
 
+                    final long registrationStart = System.nanoTime();
+
+                    // new registration
+                    processRegistrations();
+
+                    final long taskStart = System.nanoTime();
+
                     // tasks
-                    while (!runnableQueue.isEmpty()) {
-                        runnableQueue.poll().run();
+                    processTasks();
+
+                    // expired timeouts
+                    timingWheel.expire(System.nanoTime());
+
+                    // the work grouped for the whole iteration
+                    processEndOfIterationTasks();
+
+                    final long end = System.nanoTime();
+
+                    // only this thread updates the counters, no need for atomic increments
+                    iterationCount++;
+                    readyKeyCount += readyCount;
+                    selectTimeNanos += ioStart - selectStart;
+                    ioTimeNanos += registrationStart - ioStart;
+                    registrationTimeNanos += taskStart - registrationStart;
+                    taskTimeNanos += end - taskStart;
+                    registeredChannelCount = selector.keys().size();
+                    updateRecentUtilisation(end - ioStart, end);
+
+                    final long keepAlive = keepAliveNanos;
+
+                    if ((keepAlive > 0) && (registeredChannelCount == 0) && (timingWheel.size() == 0)) {
+                        if (!idle) {
+                            idle = true;
+                            idleStart = end;
+                        } else if (end - idleStart >= keepAlive) {
+                            // release the read buffer and the selector with the thread, new ones are created on
+                            // restart. A producer may wake the closed selector up : this does nothing
+                            readBuffer = null;
+                            closeSelector();
+
+                            if (tryStop()) {
+                                if (IS_DEBUG) {
+                                    LOG.debug("no channel registered since {}ms, stopping the worker thread",
+                                            TimeUnit.NANOSECONDS.toMillis(end - idleStart));
+                                }
+
+                                return;
+                            }
+
+                            // some work was pushed meanwhile, the selector is opened again at the next iteration
+                            readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+                            idle = false;
+                        }
+                    } else {
+                        idle = false;
                     }
                 } catch (final Exception e) {
                     LOG.error("Unexpected exception : ", e);
@@ -289,9 +634,553 @@ public class NioSelectorLoop implements SelectorLoop {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * The timeouts are stored in a timing wheel owned by the loop, with a precision of
+     * {@link TimingWheel#DEFAULT_TICK_MILLIS} milliseconds. A task scheduled by another thread is handed to the loop,
+     * a task scheduled by the loop itself is added immediately.
+     */
+    @Override
+    public TimingWheel.Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        final TimingWheel.Timeout timeout = timingWheel.newTimeout(task, delay, unit);
+
+        if (inLoop()) {
+            timingWheel.add(timeout);
+        } else {
+            runInLoop(new Runnable() {
+                @Override
+                public void run() {
+                    timingWheel.add(timeout);
+                }
+            });
+        }
+
+        return timeout;
+    }
+
+    /**
+     * Called when a blocking select() returned no key. If nobody woke the selector up, the JDK selector may be spinning
+     * (the epoll bug), burning a whole CPU : past a threshold, the selector is replaced by a new one. Must be called by
+     * the worker thread.
+     */
+    private void checkPrematureSelect() {
+        if (wakeupPending.get() || !registrationQueue.isEmpty() || !runnableQueue.isEmpty()) {
+            // legit wakeup
+            prematureSelectCount = 0;
+            return;
+        }
+
+        if (Thread.interrupted()) {
+            // an interrupted thread can't block in select() until its interrupt status is cleared
+            LOG.debug("Selector worker interrupted, clearing the interrupt status");
+            prematureSelectCount = 0;
+            return;
+        }
+
+        int threshold = selectorRebuildThreshold;
+        prematureSelectCount++;
+
+        if ((threshold > 0) && (prematureSelectCount >= threshold)) {
+            LOG.warn("Selector returned prematurely {} times in a row, rebuilding it", prematureSelectCount);
+            prematureSelectCount = 0;
+            doRebuildSelector();
+        }
+    }
+
+    /**
+     * Replace the selector by a new one, registering all the valid keys of the old selector with the same interest set
+     * and attachment, and close the old one. Must be called by the worker thread.
+     */
+    private void doRebuildSelector() {
+        final Selector oldSelector = selector;
+        final Selector newSelector;
+
+        try {
+            newSelector = Selector.open();
+        } catch (final IOException e) {
+            LOG.warn("Failed to create a new selector, keeping the current one", e);
+            return;
+        }
+
+        // the array based selected keys set will be installed in the new selector at the next loop iteration
+        selectedKeys = null;
+
+        final List<SelectionKey> oldKeys = new ArrayList<>();
+        final List<SelectionKey> newKeys = new ArrayList<>();
+
+        for (SelectionKey key : oldSelector.keys()) {
+            final SelectableChannel channel = key.channel();
+            final Object attachment = key.attachment();
+
+            try {
+                if (!key.isValid() || (channel.keyFor(newSelector) != null)) {
+                    continue;
+                }
+
+                SelectionKey newKey = channel.register(newSelector, key.interestOps(), attachment);
+                oldKeys.add(key);
+                newKeys.add(newKey);
+
+                if (attachment instanceof NioTcpSession) {
+                    ((NioTcpSession) attachment).setSelectionKey(newKey);
+                }
+            } catch (CancelledKeyException | ClosedChannelException e) {
+                // the channel was closed meanwhile
+                if (IS_DEBUG) {
+                    LOG.debug("cannot register {} on the new selector", channel, e);
+                }
+            }
+        }
+
+        selector = newSelector;
+
+        // other threads may have modified or cancelled the old keys while we were registering the new ones
+        for (int i = 0; i < oldKeys.size(); i++) {
+            final SelectionKey oldKey = oldKeys.get(i);
+            final SelectionKey newKey = newKeys.get(i);
+
+            try {
+                newKey.interestOps(oldKey.interestOps());
+            } catch (CancelledKeyException e) {
+                newKey.cancel();
+            }
+        }
+
+        try {
+            oldSelector.close();
+        } catch (final IOException e) {
+            LOG.warn("Failed to close the old selector", e);
+        }
+
+        long count = selectorRebuildCount.incrementAndGet();
+        LOG.info("Selector rebuilt ({} rebuilds so far), {} channels moved to the new selector", count, newKeys.size());
+    }
+
+    /**
+     * Replace the selector of this loop by a new one. This is done automatically when the selector is detected as
+     * spinning, it should not be needed otherwise.
+     */
+    public void rebuildSelector() {
+        runInLoop(new Runnable() {
+            @Override
+            public void run() {
+                doRebuildSelector();
+            }
+        });
+    }
+
+    /**
+     * Sets the number of consecutive select() calls returning no key, without anybody waking the selector up, before
+     * we consider the selector is spinning and rebuild it.
+     * 
+     * @param selectorRebuildThreshold the number of premature returns, 0 for never rebuilding the selector
+     */
+    public void setSelectorRebuildThreshold(int selectorRebuildThreshold) {
+        if (selectorRebuildThreshold < 0) {
+            throw new IllegalArgumentException("selectorRebuildThreshold: " + selectorRebuildThreshold
+                    + " (expected: 0+)");
+        }
+
+        this.selectorRebuildThreshold = selectorRebuildThreshold;
+    }
+
+    /**
+     * Add the busy time of an iteration to the current utilisation window, and close the window if it's old enough.
+     * Must be called by the worker thread.
+     */
+    private void updateRecentUtilisation(long busyNanos, long now) {
+        utilisationWindowBusyNanos += busyNanos;
+
+        long windowDuration = now - utilisationWindowStart;
+
+        if (windowDuration >= UTILISATION_WINDOW_NANOS) {
+            double utilisation = Math.min(1d, (double) utilisationWindowBusyNanos / windowDuration);
+            recentUtilisation = (recentUtilisation + utilisation) / 2;
+            utilisationWindowStart = now;
+            utilisationWindowBusyNanos = 0;
+            utilisationWindowEnd = now;
+        }
+    }
+
+    /**
+     * Gets the part of the time the loop was busy recently, measured over windows of
+     * {@link #UTILISATION_WINDOW_NANOS} nanoseconds, the older windows weighting less. Cheap enough to be called for
+     * every session creation.
+     * 
+     * @return the recent utilisation, between 0 and 1
+     */
+    public double getRecentUtilisation() {
+        double utilisation = recentUtilisation;
+        long sinceLastWindow = System.nanoTime() - utilisationWindowEnd;
+
+        if (sinceLastWindow > 2 * UTILISATION_WINDOW_NANOS) {
+            // the loop is blocked in select since a while, it's idle
+            utilisation = utilisation * UTILISATION_WINDOW_NANOS / sinceLastWindow;
+        }
+
+        return utilisation;
+    }
+
+    /**
+     * Gets the number of channels registered on this loop, including the pending registrations.
+     * 
+     * @return the number of channels
+     */
+    public int getRegisteredChannelCount() {
+        return registeredChannelCount + pendingRegistrationCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SelectorLoopStats getStats() {
+        return new SelectorLoopStats(1, iterationCount, selectTimeNanos, ioTimeNanos, registrationTimeNanos,
+                taskTimeNanos, readyKeyCount, wakeupCount.get(), selectorRebuildCount.get(),
+                registrationQueue.size(), runnableQueue.size(), registeredChannelCount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DirectBufferArena getDirectBufferArena() {
+        return directBufferArena;
+    }
+
+    /**
+     * Lets the worker thread stop when no channel has been registered on the loop, and no timeout scheduled, for the
+     * given time. The thread, its read buffer and the selector are released, a new thread is started with a new
+     * selector as soon as a channel is registered, or a task pushed.
+     * 
+     * @param keepAliveTime how long the loop waits before stopping, 0 for never stopping
+     * @param unit the keep alive time unit
+     */
+    public void setKeepAliveTime(long keepAliveTime, TimeUnit unit) {
+        if (keepAliveTime < 0) {
+            throw new IllegalArgumentException("keepAliveTime: " + keepAliveTime + " (expected: 0+)");
+        }
+
+        keepAliveNanos = unit.toNanos(keepAliveTime);
+
+        // the loop may be blocked in a select without timeout
+        wakeup();
+    }
+
+    /**
+     * @param unit the unit of the returned time
+     * @return how long the worker thread waits without any registered channel before stopping, 0 for never
+     */
+    public long getKeepAliveTime(TimeUnit unit) {
+        return unit.convert(keepAliveNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return <code>true</code> if the selector is open, <code>false</code> if it was closed by a stopping worker
+     */
+    /* No qualifier */boolean isSelectorOpen() {
+        return selector.isOpen();
+    }
+
+    /**
+     * @return <code>true</code> if the worker thread is running, <code>false</code> if it was not started yet or stopped
+     *         after being idle
+     */
+    public boolean isRunning() {
+        return state.get() == RUNNING;
+    }
+
+    /**
+     * @return the number of times the selector was rebuilt
+     */
+    public long getSelectorRebuildCount() {
+        return selectorRebuildCount.get();
+    }
+
+    /**
+     * Dispatch the events of the selected keys stored in the selector set.
+     */
+    private void processSelectedKeys(Iterator<SelectionKey> it) {
+        while (it.hasNext()) {
+            final SelectionKey key = it.next();
+
+            // if you don't remove the event of the set, the selector will present you this event again
+            // and again
+            it.remove();
+
+            processSelectedKey(key);
+        }
+    }
+
+    /**
+     * Dispatch the events of the selected keys stored in our array.
+     */
+    private void processSelectedKeys(SelectedSelectionKeySet keys) {
+        int size = keys.size();
+
+        for (int i = 0; i < size; i++) {
+            processSelectedKey(keys.take(i));
+        }
+
+        keys.reset();
+    }
+
+    /**
+     * Dispatch the ready events of a key to its listener.
+     */
+    private void processSelectedKey(SelectionKey key) {
+        if (!key.isValid()) {
+            // cancelled by a listener processed before this one
+            return;
+        }
+
+        final SelectorListener listener = (SelectorListener) key.attachment();
+        int ops = key.readyOps();
+        boolean isAcceptable = (ops & SelectionKey.OP_ACCEPT) == SelectionKey.OP_ACCEPT;
+        boolean isConnectable = (ops & SelectionKey.OP_CONNECT) == SelectionKey.OP_CONNECT;
+        boolean isReadable = (ops & SelectionKey.OP_READ) == SelectionKey.OP_READ;
+        boolean isWritable = (ops & SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE;
+        listener.ready(isAcceptable, isConnectable, isReadable, isReadable ? readBuffer : null, isWritable);
+    }
+
+    /**
+     * Install or remove the array based selected keys set, depending on the {@link #optimizeSelectedKeys} flag. Must be
+     * called by the worker thread, outside of a select.
+     */
+    private void updateSelectedKeys() {
+        if (optimizeSelectedKeys) {
+            selectedKeys = SelectedSelectionKeySet.install(selector);
+
+            if (selectedKeys == null) {
+                LOG.warn("The JDK does not allow to replace the selected keys set, keeping the default one");
+                optimizeSelectedKeys = false;
+            }
+        } else {
+            selectedKeys.uninstall();
+            selectedKeys = null;
+        }
+
+        selectedKeysOptimized = selectedKeys != null;
+    }
+
+    /**
+     * Poll the selector until a key is ready, some work is queued, or the spin policy tells us to stop. Must be called
+     * by the worker thread.
+     * 
+     * @param policy the spin policy
+     * @return the number of ready keys, 0 if the loop has to block in select()
+     */
+    private int spin(SpinPolicy policy) throws IOException {
+        // we check the queues ourselves while spinning, the producers don't need to call selector.wakeup()
+        wakeupPending.set(true);
+
+        long start = System.nanoTime();
+        int iteration = 0;
+
+        while (policy.canSpin(iteration++, start)) {
+            int readyCount = selector.selectNow();
+
+            if (readyCount > 0) {
+                return readyCount;
+            }
+
+            if (!registrationQueue.isEmpty() || !runnableQueue.isEmpty()) {
+                return 0;
+            }
+
+            policy.idle();
+        }
+
+        return 0;
+    }
+
+    /**
+     * Tells the loop to poll its selector for a while before blocking, for reducing the latency at the cost of burning
+     * some CPU. The new policy is used from the next loop iteration.
+     * 
+     * @param spinPolicy the spin policy, {@link SpinPolicy#NONE} for blocking immediately
+     */
+    public void setSpinPolicy(SpinPolicy spinPolicy) {
+        if (spinPolicy == null) {
+            throw new IllegalArgumentException("Parameter >spinPolicy< must not be null!");
+        }
+
+        this.spinPolicy = spinPolicy;
+        wakeup();
+    }
+
+    /**
+     * @return the current spin policy
+     */
+    public SpinPolicy getSpinPolicy() {
+        return spinPolicy;
+    }
+
+    /**
+     * Replace the HashSet the JDK selector uses for the selected keys by a flat array, so that dispatching the ready
+     * keys creates no garbage. The JDK may refuse it (for instance when the <code>sun.nio.ch</code> package is not
+     * opened to MINA), in this case the loop keeps using the default set. The change is done by the loop thread before
+     * its next select.
+     * 
+     * @param optimizeSelectedKeys <code>true</code> to use an array based selected keys set
+     */
+    public void setOptimizeSelectedKeys(boolean optimizeSelectedKeys) {
+        this.optimizeSelectedKeys = optimizeSelectedKeys;
+        wakeup();
+    }
+
+    /**
+     * @return <code>true</code> if the loop is currently using an array based selected keys set
+     */
+    public boolean isSelectedKeysOptimized() {
+        return selectedKeysOptimized;
+    }
+
+    /**
+     * Register the pending channels on the selector. Must be called by the worker thread.
+     */
+    private void processRegistrations() {
+        // Only process the registrations queued so far : the postponed ones will be retried after the next select
+        int count = registrationQueue.size();
+
+        while (count-- > 0) {
+            Registration reg = registrationQueue.poll();
+
+            if (reg == null) {
+                break;
+            }
+
+            processRegistration(reg);
+
+            // decremented after the registered channel count update : the loop load may be overestimated for an
+            // instant, never underestimated
+            pendingRegistrationCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Register a channel on the selector. Must be called by the worker thread.
+     */
+    private void processRegistration(Registration reg) {
+        try {
+            SelectionKey selectionKey = reg.channel.register(selector, reg.ops, reg.listener);
+
+            // keep the count up to date for the load aware pools, a burst of registrations may be done in one iteration
+            registeredChannelCount = selector.keys().size();
+
+            if (reg.getCallback() != null) {
+                reg.getCallback().done(selectionKey);
+            }
+        } catch (final ClosedChannelException ex) {
+            // dead session..
+            LOG.error("socket is already dead", ex);
+        } catch (final CancelledKeyException ex) {
+            // the channel previous key is still registered until the next select, postpone the registration
+            if (IS_DEBUG) {
+                LOG.debug("postponing registration {}", reg);
+            }
+
+            pendingRegistrationCount.incrementAndGet();
+            enqueue(registrationQueue, reg);
+        }
+    }
+
+    /**
+     * Run the tasks postponed to the end of the iteration, including the ones they add. Must be called by the worker
+     * thread.
+     */
+    private void processEndOfIterationTasks() {
+        if (endOfIterationTasks.isEmpty()) {
+            return;
+        }
+
+        // a failing task must not drop the next ones : they are the flushes of other sessions
+        for (int i = 0; i < endOfIterationTasks.size(); i++) {
+            try {
+                endOfIterationTasks.get(i).run();
+            } catch (final Exception e) {
+                LOG.error("Unexpected exception in an end of iteration task : ", e);
+            }
+        }
+
+        endOfIterationTasks.clear();
+    }
+
+    /**
+     * Run the pending tasks. Must be called by the worker thread.
+     */
+    private void processTasks() {
+        Runnable task;
+
+        while ((task = runnableQueue.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Only the first call following a select really wakes up the selector, the next ones are no-op until the worker
+     * selects again.
+     */
     @Override
     public void wakeup() {
-        selector.wakeup();
+        if (wakeupPending.compareAndSet(false, true)) {
+            wakeupCount.incrementAndGet();
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * @return the number of times the selector has really been woken up since this loop was created
+     */
+    public long getWakeupCount() {
+        return wakeupCount.get();
+    }
+
+    /**
+     * A queue of the loop : a ring buffer, and an unbounded queue taking the elements when the ring buffer is full.
+     * Once an element overflowed, the next ones follow it in the overflow queue until the worker drained it, so that the
+     * elements pushed by a thread are taken in order. Only the worker thread takes the elements.
+     */
+    private static class LoopQueue<E> {
+        private final MpscRingBuffer<E> ring;
+
+        private final Queue<E> overflow = new ConcurrentLinkedQueue<E>();
+
+        LoopQueue(int capacity) {
+            ring = new MpscRingBuffer<>(capacity);
+        }
+
+        void offer(E element) {
+            if (!overflow.isEmpty() || !ring.offer(element)) {
+                overflow.offer(element);
+            }
+        }
+
+        /**
+         * The ring buffer elements are older than the overflowed ones of the same producer : the overflow queue is only
+         * polled when no slot of the ring buffer is claimed.
+         */
+        E poll() {
+            E element = ring.poll();
+
+            if ((element != null) || (ring.size() > 0)) {
+                // a producer may be publishing an element older than the overflowed ones
+                return element;
+            }
+
+            return overflow.poll();
+        }
+
+        boolean isEmpty() {
+            return ring.isEmpty() && overflow.isEmpty();
+        }
+
+        int size() {
+            return ring.size() + overflow.size();
+        }
     }
 
     private static class Registration {
@@ -25,7 +25,6 @@ import java.net.SocketException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
-import org.apache.mina.api.IdleStatus;
 import org.apache.mina.api.IoFuture;
 import org.apache.mina.api.IoSession;
 import org.apache.mina.api.MinaRuntimeException;
@@ -35,7 +34,6 @@ import org.apache.mina.service.idlechecker.IdleChecker;
 import org.apache.mina.service.idlechecker.IndexedIdleChecker;
 import org.apache.mina.transport.ConnectFuture;
 import org.apache.mina.transport.tcp.AbstractTcpClient;
-import org.apache.mina.transport.tcp.TcpSessionConfig;
 import org.apache.mina.util.Assert;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -81,9 +79,7 @@ public class NioTcpClient extends AbstractTcpClient {
      *        operations.
      */
     public NioTcpClient(SelectorLoopPool selectorLoopPool, IoHandlerExecutor handlerExecutor) {
-        super(handlerExecutor);
-        connectSelectorLoop = selectorLoopPool.getSelectorLoop();
-        readWriteSelectorPool = selectorLoopPool;
+        this(selectorLoopPool.getSelectorLoop(), selectorLoopPool, handlerExecutor);
     }
 
     /**
@@ -130,85 +126,13 @@ public class NioTcpClient extends AbstractTcpClient {
             throw new MinaRuntimeException("can't configure socket as non-blocking", e);
         }
 
-        // apply idle configuration
         // Has to be final, as it's used in a inner class...
         final NioTcpSession session = new NioTcpSession(this, clientSocket, readWriteSelectorPool.getSelectorLoop(),
                 idleChecker);
-        TcpSessionConfig config = getSessionConfig();
-
-        session.getConfig().setIdleTimeInMillis(IdleStatus.READ_IDLE, config.getIdleTimeInMillis(IdleStatus.READ_IDLE));
-        session.getConfig().setIdleTimeInMillis(IdleStatus.WRITE_IDLE,
-                config.getIdleTimeInMillis(IdleStatus.WRITE_IDLE));
-
-        // apply the default service socket configuration
-        Boolean keepAlive = config.isKeepAlive();
-
-        if (keepAlive != null) {
-            session.getConfig().setKeepAlive(keepAlive);
-        }
-
-        Boolean oobInline = config.isOobInline();
-
-        if (oobInline != null) {
-            session.getConfig().setOobInline(oobInline);
-        }
-
-        Boolean reuseAddress = config.isReuseAddress();
-
-        if (reuseAddress != null) {
-            session.getConfig().setReuseAddress(reuseAddress);
-        }
-
-        Boolean tcpNoDelay = config.isTcpNoDelay();
-
-        if (tcpNoDelay != null) {
-            session.getConfig().setTcpNoDelay(tcpNoDelay);
-        }
-
-        Integer receiveBufferSize = config.getReadBufferSize();
 
-        if (receiveBufferSize != null) {
-            session.getConfig().setReadBufferSize(receiveBufferSize);
-        } else {
-            int rcvBufferSize;
-            try {
-                rcvBufferSize = clientSocket.socket().getReceiveBufferSize();
-            } catch (SocketException e) {
-                throw new MinaRuntimeException("can't configure socket receive buffer size", e);
-            }
-            session.getConfig().setReadBufferSize(rcvBufferSize);
-        }
-
-        Integer sendBufferSize = config.getSendBufferSize();
-
-        if (sendBufferSize != null) {
-            session.getConfig().setSendBufferSize(sendBufferSize);
-        } else {
-            int sndBufferSize;
-            try {
-                sndBufferSize = clientSocket.socket().getSendBufferSize();
-            } catch (SocketException e) {
-                throw new MinaRuntimeException("can't configure socket send buffe size", e);
-            }
-            session.getConfig().setSendBufferSize(sndBufferSize);
-        }
-
-        Integer trafficClass = config.getTrafficClass();
-
-        if (trafficClass != null) {
-            session.getConfig().setTrafficClass(trafficClass);
-        }
-
-        Integer soLinger = config.getSoLinger();
-
-        if (soLinger != null) {
-            session.getConfig().setSoLinger(soLinger);
-        }
-
-        // Set the secured flag if the service is to be used over SSL/TLS
-        if (config.isSecured()) {
-            session.initSecure(config.getSslContext());
-        }
+        // apply the service configuration, only the non default socket options are set
+        new TcpSessionConfigTemplate(getSessionConfig(), TcpSessionConfigTemplate.SocketDefaults.ofClientSocket())
+                .apply(session);
 
         // connect to a running server. We get an immediate result if
         // the socket is blocking, and either true or false if it's non blocking
@@ -22,18 +22,27 @@ package org.apache.mina.transport.nio;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.mina.api.IdleStatus;
 import org.apache.mina.api.MinaRuntimeException;
 import org.apache.mina.service.executor.IoHandlerExecutor;
 import org.apache.mina.service.executor.OrderedHandlerExecutor;
 import org.apache.mina.service.idlechecker.IdleChecker;
 import org.apache.mina.service.idlechecker.IndexedIdleChecker;
 import org.apache.mina.transport.tcp.AbstractTcpServer;
+import org.apache.mina.transport.tcp.AdmissionController;
 import org.apache.mina.transport.tcp.TcpSessionConfig;
 import org.apache.mina.util.Assert;
 import org.slf4j.Logger;
@@ -48,6 +57,12 @@ public class NioTcpServer extends AbstractTcpServer implements SelectorListener
     /** A logger for this class */
     static final Logger LOG = LoggerFactory.getLogger(NioTcpServer.class);
 
+    /** The default maximum number of connections accepted for one accept readiness event */
+    public static final int DEFAULT_MAX_ACCEPTS_PER_EVENT = 64;
+
+    /** The SO_REUSEPORT socket option, <code>null</code> if the JDK does not know it (before Java 9) */
+    private static final SocketOption<Boolean> SO_REUSEPORT = findReusePortOption();
+
     /** the bound local address */
     private SocketAddress address = null;
 
@@ -61,7 +76,19 @@ public class NioTcpServer extends AbstractTcpServer implements SelectorListener
     // the server socket for accepting clients
     private ServerSocketChannel serverChannel = null;
 
-    private IdleChecker idleChecker;
+    private volatile IdleChecker idleChecker;
+
+    /** The configuration of the new sessions, read from the session configuration when binding */
+    private volatile TcpSessionConfigTemplate sessionConfigTemplate;
+
+    /** The maximum number of connections accepted for one accept readiness event */
+    private volatile int maxAcceptsPerEvent = DEFAULT_MAX_ACCEPTS_PER_EVENT;
+
+    /** The number of server sockets bound with SO_REUSEPORT, 0 for a single acceptor */
+    private int reusePortAcceptors;
+
+    /** The acceptors of the bound server sockets, when they are bound with SO_REUSEPORT */
+    private final List<Acceptor> acceptors = new ArrayList<>();
 
     /**
      * Create a TCP server with new selector pool of default size and a {@link IoHandlerExecutor} of default type (
@@ -168,6 +195,9 @@ public class NioTcpServer extends AbstractTcpServer implements SelectorListener
 
     /**
      * {@inheritDoc}
+     * 
+     * The session configuration is read when binding : its changes are applied to the new sessions after the next
+     * bind.
      */
     @Override
     public synchronized void bind(SocketAddress localAddress) {
@@ -178,23 +208,57 @@ public class NioTcpServer extends AbstractTcpServer implements SelectorListener
             throw new IllegalStateException("address " + address + " already bound");
         }
 
+        int acceptorCount = reusePortAcceptors;
+
+        if ((acceptorCount > 0) && (SO_REUSEPORT == null)) {
+            LOG.warn("SO_REUSEPORT is not supported by this JDK, using a single acceptor");
+            acceptorCount = 0;
+        }
+
+        // each acceptor serves the sessions it accepts : they must not share a loop
+        SelectorLoop[] acceptorLoops = getAcceptorLoops(acceptorCount);
+
         LOG.info("binding address {}", localAddress);
         address = localAddress;
 
         try {
-            serverChannel = ServerSocketChannel.open();
-            serverChannel.socket().setReuseAddress(isReuseAddress());
-            serverChannel.socket().bind(address);
-            serverChannel.configureBlocking(false);
+            serverChannel = openServerChannel(address, acceptorCount > 0);
+
+            if ((acceptorCount > 0) && !serverChannel.supportedOptions().contains(SO_REUSEPORT)) {
+                LOG.warn("SO_REUSEPORT is not supported on this platform, using a single acceptor");
+                acceptorCount = 0;
+            }
+
+            if (acceptorCount > 0) {
+                acceptors.add(new Acceptor(serverChannel, acceptorLoops[0]));
+
+                // the next sockets are bound to the same port, even if the first one got an ephemeral port
+                SocketAddress boundAddress = serverChannel.socket().getLocalSocketAddress();
+
+                for (int i = 1; i < acceptorCount; i++) {
+                    acceptors.add(new Acceptor(openServerChannel(boundAddress, true), acceptorLoops[i]));
+                }
+            }
         } catch (IOException e) {
-            throw new MinaRuntimeException("can't bind address" + address, e);
+            closeServerChannels();
+            address = null;
+            throw new MinaRuntimeException("can't bind address" + localAddress, e);
         }
 
-        acceptSelectorLoop.register(true, false, false, false, this, serverChannel, null);
-
+        // the sessions may be created as soon as the server sockets are registered
+        sessionConfigTemplate = new TcpSessionConfigTemplate(getSessionConfig(),
+                TcpSessionConfigTemplate.SocketDefaults.ofAcceptedSocket(getServerChannels()));
         idleChecker = new IndexedIdleChecker();
         idleChecker.start();
 
+        if (acceptors.isEmpty()) {
+            acceptSelectorLoop.register(true, false, false, false, this, serverChannel, null);
+        } else {
+            for (Acceptor acceptor : acceptors) {
+                acceptor.selectorLoop.register(true, false, false, false, acceptor, acceptor.channel, null);
+            }
+        }
+
         // it's the first address bound, let's fire the event
         fireServiceActivated();
     }
@@ -216,20 +280,220 @@ public class NioTcpServer extends AbstractTcpServer implements SelectorListener
         if (this.address == null) {
             throw new IllegalStateException("server not bound");
         }
-        try {
-            serverChannel.socket().close();
-            serverChannel.close();
-        } catch (IOException e) {
-            throw new MinaRuntimeException("can't unbind server", e);
-        }
+        // all the server sockets are closed, even if one of them can't be
+        IOException closeFailure = null;
 
-        acceptSelectorLoop.unregister(this, serverChannel);
+        if (acceptors.isEmpty()) {
+            try {
+                serverChannel.socket().close();
+                serverChannel.close();
+            } catch (IOException e) {
+                closeFailure = e;
+            }
+
+            acceptSelectorLoop.unregister(this, serverChannel);
+        } else {
+            for (Acceptor acceptor : acceptors) {
+                try {
+                    acceptor.channel.close();
+                } catch (IOException e) {
+                    if (closeFailure == null) {
+                        closeFailure = e;
+                    } else {
+                        closeFailure.addSuppressed(e);
+                    }
+                }
+
+                acceptor.selectorLoop.unregister(acceptor, acceptor.channel);
+            }
+
+            acceptors.clear();
+        }
 
         this.address = null;
         this.fireServiceInactivated();
 
         // will stop the acceptor processor if we are the last service
         idleChecker.destroy();
+
+        if (closeFailure != null) {
+            throw new MinaRuntimeException("can't unbind server", closeFailure);
+        }
+    }
+
+    /**
+     * Open a server socket and bind it.
+     */
+    private ServerSocketChannel openServerChannel(SocketAddress localAddress, boolean reusePort) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+
+        try {
+            channel.socket().setReuseAddress(isReuseAddress());
+
+            if (reusePort && channel.supportedOptions().contains(SO_REUSEPORT)) {
+                channel.setOption(SO_REUSEPORT, true);
+            }
+
+            Integer backlog = getSessionConfig().getBacklog();
+            channel.socket().bind(localAddress, backlog == null ? 0 : backlog);
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        return channel;
+    }
+
+    /**
+     * Get a distinct loop of the read/write pool for each acceptor. The loops of the pools we know are taken by index,
+     * the other pools must give a new loop at each call.
+     * 
+     * @param acceptorCount the number of acceptors
+     * @return the loops of the acceptors
+     */
+    private SelectorLoop[] getAcceptorLoops(int acceptorCount) {
+        SelectorLoop[] loops = new SelectorLoop[acceptorCount];
+        int maxCount;
+
+        if (readWriteSelectorPool instanceof FixedSelectorLoopPool) {
+            maxCount = ((FixedSelectorLoopPool) readWriteSelectorPool).getSize();
+        } else if (readWriteSelectorPool instanceof ElasticSelectorLoopPool) {
+            maxCount = ((ElasticSelectorLoopPool) readWriteSelectorPool).getMaxSize();
+        } else {
+            maxCount = Integer.MAX_VALUE;
+        }
+
+        if (acceptorCount > maxCount) {
+            throw new IllegalStateException("reusePortAcceptors: " + acceptorCount + " (expected: at most the "
+                    + maxCount + " loops of the pool)");
+        }
+
+        Set<SelectorLoop> distinctLoops = Collections.newSetFromMap(new IdentityHashMap<SelectorLoop, Boolean>());
+
+        for (int i = 0; i < acceptorCount; i++) {
+            if (readWriteSelectorPool instanceof FixedSelectorLoopPool) {
+                loops[i] = ((FixedSelectorLoopPool) readWriteSelectorPool).getSelectorLoop(i);
+            } else if (readWriteSelectorPool instanceof ElasticSelectorLoopPool) {
+                loops[i] = ((ElasticSelectorLoopPool) readWriteSelectorPool).getSelectorLoop(i);
+            } else {
+                loops[i] = readWriteSelectorPool.getSelectorLoop();
+            }
+
+            if (!distinctLoops.add(loops[i])) {
+                throw new IllegalStateException("the selector loop pool can't give a distinct loop to each of the "
+                        + acceptorCount + " acceptors");
+            }
+        }
+
+        return loops;
+    }
+
+    /**
+     * @return the loops serving the server sockets bound with SO_REUSEPORT, empty when a single socket is bound
+     */
+    /* No qualifier */synchronized List<SelectorLoop> getAcceptorSelectorLoops() {
+        List<SelectorLoop> loops = new ArrayList<>(acceptors.size());
+
+        for (Acceptor acceptor : acceptors) {
+            loops.add(acceptor.selectorLoop);
+        }
+
+        return loops;
+    }
+
+    /**
+     * @return the bound server sockets
+     */
+    private List<ServerSocketChannel> getServerChannels() {
+        if (acceptors.isEmpty()) {
+            return Collections.singletonList(serverChannel);
+        }
+
+        List<ServerSocketChannel> channels = new ArrayList<>(acceptors.size());
+
+        for (Acceptor acceptor : acceptors) {
+            channels.add(acceptor.channel);
+        }
+
+        return channels;
+    }
+
+    /**
+     * Close the server sockets opened by a failed bind
+     */
+    private void closeServerChannels() {
+        List<ServerSocketChannel> channels = new ArrayList<>();
+
+        if (serverChannel != null) {
+            channels.add(serverChannel);
+        }
+
+        for (Acceptor acceptor : acceptors) {
+            if (acceptor.channel != serverChannel) {
+                channels.add(acceptor.channel);
+            }
+        }
+
+        for (ServerSocketChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("can't close the server socket", e);
+            }
+        }
+
+        acceptors.clear();
+        serverChannel = null;
+    }
+
+    /**
+     * Look for the SO_REUSEPORT option, added to the JDK in Java 9
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> findReusePortOption() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Tells if the JDK allows to bind several server sockets on the same port with SO_REUSEPORT. The O/S must support
+     * it too (Linux 3.9 and later, BSD).
+     * 
+     * @return <code>true</code> if the JDK knows the SO_REUSEPORT option
+     */
+    public static boolean isReusePortSupported() {
+        return SO_REUSEPORT != null;
+    }
+
+    /**
+     * Bind several server sockets on the same port with SO_REUSEPORT, each one being served by a selector loop of the
+     * read/write pool. The O/S spreads the new connections on the sockets, and each loop serves the sessions it
+     * accepted : there is no hand off between the loops. Each acceptor gets its own loop : the number of acceptors
+     * can't exceed the size of a {@link FixedSelectorLoopPool}, or the maximum size of an
+     * {@link ElasticSelectorLoopPool}, and another pool must give a distinct loop at each call.<br>
+     * 
+     * When SO_REUSEPORT is not supported, a single server socket is bound, served by the accept selector loop. Used by
+     * the next call to {@link #bind(SocketAddress)}.
+     * 
+     * @param reusePortAcceptors the number of server sockets, 0 for a single server socket without SO_REUSEPORT
+     */
+    public synchronized void setReusePortAcceptors(int reusePortAcceptors) {
+        if (reusePortAcceptors < 0) {
+            throw new IllegalArgumentException("reusePortAcceptors: " + reusePortAcceptors + " (expected: 0+)");
+        }
+
+        this.reusePortAcceptors = reusePortAcceptors;
+    }
+
+    /**
+     * @return the number of server sockets bound with SO_REUSEPORT, 0 for a single server socket
+     */
+    public synchronized int getReusePortAcceptors() {
+        return reusePortAcceptors;
     }
 
     /**
@@ -255,13 +519,10 @@ public class NioTcpServer extends AbstractTcpServer implements SelectorListener
         if (accept) {
             LOG.debug("acceptable new client");
 
-            // accepted connection
-            try {
-                LOG.debug("new client accepted");
-                createSession(getServerSocketChannel().accept());
+            ServerSocketChannel channel = getServerSocketChannel();
 
-            } catch (final IOException e) {
-                LOG.error("error while accepting new client", e);
+            if (channel != null) {
+                acceptConnections(channel, acceptSelectorLoop, this, null);
             }
         }
 
@@ -270,74 +531,202 @@ public class NioTcpServer extends AbstractTcpServer implements SelectorListener
         }
     }
 
-    private synchronized void createSession(SocketChannel clientSocket) throws IOException {
-        LOG.debug("create session");
-        SocketChannel socketChannel = clientSocket;
-        TcpSessionConfig config = getSessionConfig();
-        SelectorLoop readWriteSelectorLoop = readWriteSelectorPool.getSelectorLoop();
-        final NioTcpSession session = new NioTcpSession(this, socketChannel, readWriteSelectorLoop, idleChecker);
+    /**
+     * Accept the pending connections until the backlog is drained, or the budget is used : the remaining connections
+     * will be accepted at the next loop iteration, as the key is still ready. The admission control is checked before
+     * each connection : when the server is overloaded, the accepting is paused, or the connection is reset.
+     * 
+     * @param channel the ready server socket
+     * @param acceptLoop the loop accepting the connections of the server socket
+     * @param listener the listener of the server socket events
+     * @param selectorLoop the loop serving the new sessions, <code>null</code> for taking one from the pool
+     */
+    private void acceptConnections(ServerSocketChannel channel, SelectorLoop acceptLoop, SelectorListener listener,
+            SelectorLoop selectorLoop) {
+        int budget = maxAcceptsPerEvent;
+
+        for (int i = 0; i < budget; i++) {
+            if (!isAdmissionOpen()) {
+                AdmissionController controller = getAdmissionController();
+
+                if ((controller != null) && (controller.getMode() == AdmissionController.Mode.REJECT)) {
+                    if (!rejectConnection(channel, controller)) {
+                        return;
+                    }
+
+                    continue;
+                }
+
+                if (controller != null) {
+                    pauseAccept(channel, acceptLoop, listener, controller.getCheckIntervalMillis());
+                    return;
+                }
+            }
 
-        socketChannel.configureBlocking(false);
+            SocketChannel clientSocket;
 
-        // apply idle configuration
-        session.getConfig().setIdleTimeInMillis(IdleStatus.READ_IDLE, config.getIdleTimeInMillis(IdleStatus.READ_IDLE));
-        session.getConfig().setIdleTimeInMillis(IdleStatus.WRITE_IDLE,
-                config.getIdleTimeInMillis(IdleStatus.WRITE_IDLE));
+            try {
+                clientSocket = channel.accept();
+            } catch (final IOException e) {
+                // probably out of file descriptors, retry at the next event
+                LOG.error("error while accepting new client", e);
+                return;
+            }
 
-        // apply the default service socket configuration
-        Boolean keepAlive = config.isKeepAlive();
+            if (clientSocket == null) {
+                // no more pending connection
+                return;
+            }
 
-        if (keepAlive != null) {
-            session.getConfig().setKeepAlive(keepAlive);
-        }
+            LOG.debug("new client accepted");
 
-        Boolean oobInline = config.isOobInline();
+            try {
+                createSession(clientSocket, selectorLoop);
+            } catch (final IOException e) {
+                LOG.error("error while creating the session of a new client", e);
 
-        if (oobInline != null) {
-            session.getConfig().setOobInline(oobInline);
+                try {
+                    clientSocket.close();
+                } catch (final IOException ioe) {
+                    LOG.debug("can't close the new client socket", ioe);
+                }
+            }
         }
+    }
 
-        Boolean reuseAddress = config.isReuseAddress();
+    /**
+     * Accept a pending connection and reset it immediately, so that the client fails fast instead of waiting in the
+     * backlog.
+     * 
+     * @return <code>false</code> if there was no pending connection
+     */
+    private boolean rejectConnection(ServerSocketChannel channel, AdmissionController controller) {
+        SocketChannel clientSocket;
 
-        if (reuseAddress != null) {
-            session.getConfig().setReuseAddress(reuseAddress);
+        try {
+            clientSocket = channel.accept();
+        } catch (final IOException e) {
+            LOG.error("error while accepting new client", e);
+            return false;
         }
 
-        Boolean tcpNoDelay = config.isTcpNoDelay();
-
-        if (tcpNoDelay != null) {
-            session.getConfig().setTcpNoDelay(tcpNoDelay);
+        if (clientSocket == null) {
+            return false;
         }
 
-        Integer receiveBufferSize = config.getReadBufferSize();
+        controller.connectionRejected();
+        LOG.debug("new client rejected, the server is overloaded");
+
+        try {
+            // a reset rather than a graceful close, for not keeping the socket in TIME_WAIT
+            clientSocket.socket().setSoLinger(true, 0);
+        } catch (final IOException e) {
+            LOG.debug("can't disable the linger of a rejected client socket", e);
+        }
 
-        if (receiveBufferSize != null) {
-            session.getConfig().setReadBufferSize(receiveBufferSize);
+        try {
+            clientSocket.close();
+        } catch (final IOException e) {
+            LOG.debug("can't close a rejected client socket", e);
         }
 
-        Integer sendBufferSize = config.getSendBufferSize();
+        return true;
+    }
+
+    /**
+     * Stop accepting the connections of a server socket, until the admission control allows it again : the pending
+     * connections wait in the backlog. The load is checked periodically by the accepting loop.
+     */
+    private void pauseAccept(final ServerSocketChannel channel, final SelectorLoop acceptLoop,
+            final SelectorListener listener, final long checkIntervalMillis) {
+        LOG.debug("pausing the accepting of new clients, the server is overloaded");
 
-        if (sendBufferSize != null) {
-            session.getConfig().setSendBufferSize(sendBufferSize);
+        try {
+            acceptLoop.modifyRegistration(false, false, false, listener, channel, false);
+        } catch (final CancelledKeyException e) {
+            // the server socket was closed meanwhile
+            return;
         }
 
-        Integer trafficClass = config.getTrafficClass();
+        acceptLoop.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!channel.isOpen()) {
+                    // unbound while paused
+                    return;
+                }
+
+                if (!isAdmissionOpen()) {
+                    AdmissionController controller = getAdmissionController();
+                    long interval = controller != null ? controller.getCheckIntervalMillis() : checkIntervalMillis;
+                    acceptLoop.schedule(this, interval, TimeUnit.MILLISECONDS);
+                    return;
+                }
+
+                LOG.debug("resuming the accepting of new clients");
+
+                try {
+                    acceptLoop.modifyRegistration(true, false, false, listener, channel, false);
+                } catch (final CancelledKeyException e) {
+                    // the server socket was closed meanwhile
+                }
+            }
+        }, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
 
-        if (trafficClass != null) {
-            session.getConfig().setTrafficClass(trafficClass);
+    /**
+     * {@inheritDoc} Only the utilisation of the pools we know can be read.
+     */
+    @Override
+    protected double getLoopUtilisation() {
+        if (readWriteSelectorPool instanceof FixedSelectorLoopPool) {
+            return ((FixedSelectorLoopPool) readWriteSelectorPool).getRecentUtilisation();
         }
 
-        Integer soLinger = config.getSoLinger();
-
-        if (soLinger != null) {
-            session.getConfig().setSoLinger(soLinger);
+        if (readWriteSelectorPool instanceof ElasticSelectorLoopPool) {
+            return ((ElasticSelectorLoopPool) readWriteSelectorPool).getRecentUtilisation();
         }
 
-        // Set the secured flag if the service is to be used over SSL/TLS
-        if (config.isSecured()) {
-            session.initSecure(config.getSslContext());
+        return 0d;
+    }
+
+    /**
+     * Sets the maximum number of connections accepted each time the server socket is ready, before giving the accept
+     * selector loop to the other channels. A higher value accepts the connection bursts faster.
+     * 
+     * @param maxAcceptsPerEvent the number of connections, 1 for accepting only one connection per event
+     */
+    public void setMaxAcceptsPerEvent(int maxAcceptsPerEvent) {
+        if (maxAcceptsPerEvent <= 0) {
+            throw new IllegalArgumentException("maxAcceptsPerEvent: " + maxAcceptsPerEvent + " (expected: 1+)");
         }
 
+        this.maxAcceptsPerEvent = maxAcceptsPerEvent;
+    }
+
+    /**
+     * @return the maximum number of connections accepted each time the server socket is ready
+     */
+    public int getMaxAcceptsPerEvent() {
+        return maxAcceptsPerEvent;
+    }
+
+    /**
+     * Create the session of an accepted connection. Called by the accepting selector loops, several loops may create
+     * sessions at the same time.
+     */
+    private void createSession(SocketChannel clientSocket, SelectorLoop selectorLoop) throws IOException {
+        LOG.debug("create session");
+        SocketChannel socketChannel = clientSocket;
+        SelectorLoop readWriteSelectorLoop = selectorLoop != null ? selectorLoop : readWriteSelectorPool
+                .getSelectorLoop();
+        final NioTcpSession session = new NioTcpSession(this, socketChannel, readWriteSelectorLoop, idleChecker);
+
+        socketChannel.configureBlocking(false);
+
+        // apply the service configuration, only the non default socket options are set
+        sessionConfigTemplate.apply(session);
+
         // add the session to the queue for being added to the selector
         readWriteSelectorLoop.register(false, false, true, false, session, socketChannel, new RegistrationCallback() {
 
@@ -352,4 +741,34 @@ public class NioTcpServer extends AbstractTcpServer implements SelectorListener
         idleChecker.sessionWritten(session, System.currentTimeMillis());
     }
 
-}
\ No newline at end of file
+    /**
+     * A server socket bound with SO_REUSEPORT, and the selector loop accepting its connections and serving the
+     * accepted sessions.
+     */
+    private class Acceptor implements SelectorListener {
+        /** The server socket */
+        private final ServerSocketChannel channel;
+
+        /** The loop accepting the connections, and serving the sessions */
+        private final SelectorLoop selectorLoop;
+
+        private Acceptor(ServerSocketChannel channel, SelectorLoop selectorLoop) {
+            this.channel = channel;
+            this.selectorLoop = selectorLoop;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void ready(boolean accept, boolean connect, boolean read, ByteBuffer readBuffer, boolean write) {
+            if (accept) {
+                acceptConnections(channel, selectorLoop, this, selectorLoop);
+            }
+
+            if (read || write) {
+                throw new IllegalStateException("should not receive read or write events");
+            }
+        }
+    }
+}
@@ -23,15 +23,25 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.mina.api.IoFuture;
 import org.apache.mina.api.IoService;
 import org.apache.mina.service.idlechecker.IdleChecker;
+import org.apache.mina.session.DefaultWriteRequest;
 import org.apache.mina.session.WriteRequest;
 import org.apache.mina.transport.ConnectFuture;
 import org.apache.mina.transport.tcp.ProxyTcpSessionConfig;
 import org.apache.mina.transport.tcp.TcpSessionConfig;
+import org.apache.mina.util.AbstractIoFuture;
+import org.apache.mina.util.DirectBufferArena;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,8 +56,14 @@ public class NioTcpSession extends AbstractNioSession implements SelectorListene
 
     private static final Logger LOG = LoggerFactory.getLogger(NioTcpSession.class);
 
-    /** the selector loop in charge of generating read/write events for this session */
-    private final SelectorLoop selectorLoop;
+    /**
+     * The direct buffers used for copying the heap buffers before writing them, one per writing thread : a buffer is
+     * only used during a write attempt, so all the sessions written by a thread can share it.
+     */
+    private static final ThreadLocal<ByteBuffer> STAGING_BUFFER = new ThreadLocal<ByteBuffer>();
+
+    /** the selector loop in charge of generating read/write events for this session, changed by a migration */
+    private volatile SelectorLoop selectorLoop;
 
     /** the socket configuration */
     private final TcpSessionConfig configuration;
@@ -58,19 +74,43 @@ public class NioTcpSession extends AbstractNioSession implements SelectorListene
     /** The associated selectionKey */
     private SelectionKey selectionKey;
 
-    /** The Direct Buffer used to send data */
-    private ByteBuffer sendBuffer;
+    /** Predicts the size of the next read, created on the first read as it depends on the loop read buffer */
+    private ReadSizePredictor readSizePredictor;
+
+    /** Writes the queued messages of a corked session at the end of the loop iteration, created when first needed */
+    private Runnable flushTask;
+
+    /** The messages written by the other threads, handed to the selector loop when it's the single writer */
+    private final Queue<WriteRequest> handedOffWrites = new ConcurrentLinkedQueue<WriteRequest>();
+
+    /** Tells if the selector loop has been asked to take the handed off messages */
+    private final AtomicBoolean handOffPending = new AtomicBoolean();
 
-    /** The size of the buffer configured in the socket to send data */
-    private int sendBufferSize;
+    /** the future of the migration in progress, set while the channel is registered on no loop */
+    private final AtomicReference<MigrationFuture> migration = new AtomicReference<MigrationFuture>();
+
+    /** Tells if the selector loop is queuing the handed off messages. Used by the selector loop only */
+    private boolean takingHandedOffWrites;
+
+    /** Tells if the reads are suspended */
+    private volatile boolean readSuspended;
+
+    /** Tells if the writes are suspended */
+    private volatile boolean writeSuspended;
+
+    /** Takes the handed off messages in the selector loop */
+    private final Runnable handOffTask = new Runnable() {
+        @Override
+        public void run() {
+            takeHandedOffWrites();
+        }
+    };
 
     /* No qualifier */NioTcpSession(final IoService service, final SocketChannel channel,
             final SelectorLoop selectorLoop, final IdleChecker idleChecker) {
         super(service, channel, idleChecker);
         this.selectorLoop = selectorLoop;
         this.configuration = new ProxyTcpSessionConfig(channel.socket());
-        sendBufferSize = configuration.getSendBufferSize();
-        sendBuffer = ByteBuffer.allocateDirect(sendBufferSize);
     }
 
     void setConnectFuture(ConnectFuture connectFuture) {
@@ -122,21 +162,34 @@ public class NioTcpSession extends AbstractNioSession implements SelectorListene
     }
 
     /**
-     * {@inheritDoc}
+     * {@inheritDoc} The channel is not read anymore until {@link #resumeRead()} is called : the received bytes wait in
+     * the socket buffer, and the TCP flow control slows the peer down once it's full.
      */
     @Override
     public void suspendRead() {
-        // TODO
-        throw new RuntimeException("Not implemented");
+        readSuspended = true;
+        suspensionChanged();
     }
 
     /**
-     * {@inheritDoc}
+     * {@inheritDoc} The written messages are queued until {@link #resumeWrite()} is called, and a graceful close
+     * waits for them.
      */
     @Override
     public void suspendWrite() {
-        // TODO
-        throw new RuntimeException("Not implemented");
+        writeSuspended = true;
+        suspensionChanged();
+    }
+
+    /**
+     * Update the channel interest once the reads or the writes are suspended or resumed. A session which is not yet
+     * connected, or already closed, gets its interest when registered.
+     */
+    private void suspensionChanged() {
+        // a migrating session gets its interest once registered on the new loop
+        if (!isCreated() && channel.isOpen() && (migration.get() == null)) {
+            updateInterest(selectorLoop, true);
+        }
     }
 
     /**
@@ -146,7 +199,7 @@ public class NioTcpSession extends AbstractNioSession implements SelectorListene
     protected int writeDirect(Object message) {
         try {
             // Check that we can write into the channel
-            if (!isRegisteredForWrite()) {
+            if (!isRegisteredForWrite() && !writeSuspended) {
                 // We don't have pending writes
                 return ((SocketChannel) channel).write((ByteBuffer) message);
             } else {
@@ -167,14 +220,26 @@ public class NioTcpSession extends AbstractNioSession implements SelectorListene
     protected ByteBuffer convertToDirectBuffer(WriteRequest writeRequest, boolean createNew) {
         ByteBuffer message = (ByteBuffer) writeRequest.getMessage();
 
-        if (!message.isDirect()) {
+        // a partially written staging buffer must be copied too, as the next write will reuse it
+        if (!message.isDirect() || (createNew && (message == STAGING_BUFFER.get()))) {
             int remaining = message.remaining();
-
-            if ((remaining > sendBufferSize) || createNew) {
-                ByteBuffer directBuffer = ByteBuffer.allocateDirect(remaining);
-                directBuffer.put(message);
-                directBuffer.flip();
-                writeRequest.setMessage(directBuffer);
+            ByteBuffer sendBuffer = createNew ? null : stagingBuffer(remaining);
+
+            if (sendBuffer == null) {
+                // the buffer is given back to the loop arena once written
+                DirectBufferArena arena = selectorLoop.getDirectBufferArena();
+                ByteBuffer directBuffer = arena.acquire(remaining);
+
+                if (directBuffer == null) {
+                    directBuffer = ByteBuffer.allocateDirect(remaining);
+                    directBuffer.put(message);
+                    directBuffer.flip();
+                    writeRequest.setMessage(directBuffer);
+                } else {
+                    directBuffer.put(message);
+                    directBuffer.flip();
+                    ((DefaultWriteRequest) writeRequest).setPooledMessage(directBuffer, arena);
+                }
 
                 return directBuffer;
             } else {
@@ -187,25 +252,50 @@ public class NioTcpSession extends AbstractNioSession implements SelectorListene
             }
         }
 
+        retainReceivedBuffer(writeRequest, message);
+
         return message;
     }
 
+    /**
+     * Get the staging buffer of the current thread, as big as the socket send buffer.
+     * 
+     * @param size the number of bytes to stage
+     * @return the staging buffer, <code>null</code> if the bytes don't fit in the socket send buffer
+     */
+    private ByteBuffer stagingBuffer(int size) {
+        ByteBuffer stagingBuffer = STAGING_BUFFER.get();
+
+        if ((stagingBuffer == null) || (stagingBuffer.capacity() < size)) {
+            int sendBufferSize = configuration.getSendBufferSize();
+
+            if (size > sendBufferSize) {
+                return null;
+            }
+
+            stagingBuffer = ByteBuffer.allocateDirect(sendBufferSize);
+            STAGING_BUFFER.set(stagingBuffer);
+        }
+
+        return stagingBuffer;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void resumeRead() {
-        // TODO
-        throw new RuntimeException("Not implemented");
+        readSuspended = false;
+        suspensionChanged();
     }
 
     /**
-     * {@inheritDoc}
+     * {@inheritDoc} The queued messages are written again.
      */
     @Override
     public void resumeWrite() {
-        // TODO
-        throw new RuntimeException("Not implemented");
+        writeSuspended = false;
+        suspensionChanged();
     }
 
     /**
@@ -213,8 +303,7 @@ public class NioTcpSession extends AbstractNioSession implements SelectorListene
      */
     @Override
     public boolean isReadSuspended() {
-        // TODO
-        return false;
+        return readSuspended;
     }
 
     /**
@@ -222,8 +311,7 @@ public class NioTcpSession extends AbstractNioSession implements SelectorListene
      */
     @Override
     public boolean isWriteSuspended() {
-        // TODO
-        throw new RuntimeException("Not implemented");
+        return writeSuspended;
     }
 
     /**
@@ -258,13 +346,36 @@ public class NioTcpSession extends AbstractNioSession implements SelectorListene
      */
     @Override
     protected void channelClose() {
+        // a migrating channel is registered on no loop, closing it cancels the new loop registration
+        MigrationFuture pendingMigration = migration.getAndSet(null);
+
         try {
-            selectorLoop.unregister(this, channel);
+            if (pendingMigration == null) {
+                selectorLoop.unregister(this, channel);
+            }
+
             channel.close();
         } catch (final IOException e) {
             LOG.error("Exception while closing the channel : ", e);
             processException(e);
         }
+
+        if (pendingMigration != null) {
+            setNotRegisteredForWrite();
+            pendingMigration.complete(false);
+        }
+
+        // the loop may be writing the head of the queue : the buffers are given back by the loop thread
+        if (selectorLoop.inLoop()) {
+            discardWriteQueue();
+        } else {
+            selectorLoop.runInLoop(new Runnable() {
+                @Override
+                public void run() {
+                    discardWriteQueue();
+                }
+            });
+        }
     }
 
     /**
@@ -272,8 +383,200 @@ public class NioTcpSession extends AbstractNioSession implements SelectorListene
      */
     @Override
     public void flushWriteQueue() {
-        // register for write
-        selectorLoop.modifyRegistration(false, !isReadSuspended(), true, this, channel, true);
+        try {
+            // register for write, unless the writes are suspended
+            updateInterest(selectorLoop, true);
+        } catch (CancelledKeyException e) {
+            if (channel.isOpen()) {
+                throw e;
+            }
+
+            // closed meanwhile : the queued messages are discarded by the close
+            LOG.debug("session {} closed before being registered for write", this);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean isCorked() {
+        return configuration.isCorked() || takingHandedOffWrites;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean isSingleWriter() {
+        return configuration.isSingleWriter();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected SelectorLoop getEventSelectorLoop() {
+        return selectorLoop;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected DirectBufferArena getReceiveBufferArena() {
+        return selectorLoop.getDirectBufferArena();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int getWritePriorityWeight() {
+        return configuration.getWritePriorityWeight();
+    }
+
+    /**
+     * {@inheritDoc} In single writer mode, the messages written by another thread than the selector loop are handed to
+     * the loop.
+     */
+    @Override
+    public WriteRequest enqueueWriteRequest(WriteRequest writeRequest) {
+        if (configuration.isSingleWriter() && !selectorLoop.inLoop()) {
+            if (!isSecured() && (writeRequest.getMessage() instanceof ByteBuffer)) {
+                // the copy is done by the writer, not by the loop
+                convertToDirectBuffer(writeRequest, true);
+            }
+
+            // counted as queued bytes until the loop moves them to the write queue, which counts them again
+            incrementQueuedWriteBytes(remainingBytes(writeRequest.getMessage()));
+            handedOffWrites.offer(writeRequest);
+
+            // one task for all the messages handed before the loop takes them
+            if (!handOffPending.get() && handOffPending.compareAndSet(false, true)) {
+                selectorLoop.runInLoop(handOffTask);
+            }
+
+            return writeRequest;
+        }
+
+        return super.enqueueWriteRequest(writeRequest);
+    }
+
+    /**
+     * Queue the messages handed off by the other threads, in the order they were handed. They are written together at
+     * the end of the loop iteration, like the messages of a corked session.
+     */
+    private void takeHandedOffWrites() {
+        // reset first : a message handed after this point will be taken by a new task
+        handOffPending.set(false);
+
+        WriteRequest writeRequest;
+
+        if (!channel.isOpen()) {
+            // closed meanwhile, the messages are discarded like the queued ones
+            while ((writeRequest = handedOffWrites.poll()) != null) {
+                decrementQueuedWriteBytes(remainingBytes(writeRequest.getMessage()));
+                ((DefaultWriteRequest) writeRequest).releaseMessage();
+            }
+
+            return;
+        }
+
+        takingHandedOffWrites = true;
+
+        try {
+            while ((writeRequest = handedOffWrites.poll()) != null) {
+                // the encryption may change the message : discount what was counted at hand off time
+                long handedOffBytes = remainingBytes(writeRequest.getMessage());
+
+                // counted by the write queue before being discounted here, the session is never seen writable by
+                // mistake
+                try {
+                    super.enqueueWriteRequest(writeRequest);
+                } finally {
+                    decrementQueuedWriteBytes(handedOffBytes);
+                }
+            }
+        } finally {
+            takingHandedOffWrites = false;
+        }
+    }
+
+    /**
+     * {@inheritDoc} The messages of a corked session are written at the end of the loop iteration, so that all the
+     * messages written during the iteration are written together.
+     */
+    @Override
+    protected void scheduleFlush() {
+        Runnable task = flushTask;
+
+        if (task == null) {
+            task = new Runnable() {
+                @Override
+                public void run() {
+                    writeQueuedMessages();
+                }
+            };
+
+            flushTask = task;
+        }
+
+        selectorLoop.runAtEndOfIteration(task);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() {
+        if (selectorLoop.inLoop()) {
+            if (isRegisteredForWrite()) {
+                // don't wait for the end of the iteration
+                writeQueuedMessages();
+            } else {
+                super.flush();
+            }
+        } else if (configuration.isCorked()) {
+            // the write registration is held until the loop writes the queued messages : only the loop can flush them
+            selectorLoop.runInLoop(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        } else {
+            super.flush();
+        }
+    }
+
+    /**
+     * Write the queued messages now, and register for write events if the socket can't take them all. Must be called
+     * by the selector loop, with the write registration flag taken.
+     */
+    private void writeQueuedMessages() {
+        // the flag is released once the queue is drained : nothing to do if an explicit flush already wrote them
+        if (!channel.isOpen() || !isRegisteredForWrite()) {
+            return;
+        }
+
+        try {
+            processWrite(selectorLoop);
+        } catch (CancelledKeyException e) {
+            if (channel.isOpen()) {
+                throw e;
+            }
+
+            // closed by another thread meanwhile
+            LOG.debug("session {} closed while writing its queued messages", this);
+
+            return;
+        }
+
+        if (isRegisteredForWrite() && !getWriteQueue().isEmpty()) {
+            // the socket is full
+            flushWriteQueue();
+        }
     }
 
     /**
@@ -285,16 +588,40 @@ public class NioTcpSession extends AbstractNioSession implements SelectorListene
         try {
             LOG.debug("readable session : {}", this);
 
-            // Read everything we can up to the buffer size
-            final int readCount = ((SocketChannel) channel).read(readBuffer);
+            if (readSizePredictor == null) {
+                readSizePredictor = new ReadSizePredictor(readBuffer.capacity());
+            }
+
+            // Keep reading until the socket is drained or the read budget is used, so that a bulk sender does not pay
+            // for a select per read, without starving the other sessions of the loop
+            final int maxReads = configuration.getMaxReadsPerEvent();
+            int bytesLeft = configuration.getMaxBytesPerReadEvent();
+            boolean read = false;
 
-            LOG.debug("read {} bytes", readCount);
+            for (int reads = 0; (reads < maxReads) && (bytesLeft > 0) && channel.isOpen() && !readSuspended; reads++) {
+                final int window = Math.min(readSizePredictor.nextReadSize(), bytesLeft);
+                readBuffer.clear();
+                readBuffer.limit(window);
+
+                final int readCount = ((SocketChannel) channel).read(readBuffer);
+
+                LOG.debug("read {} bytes", readCount);
+
+                if (readCount < 0) {
+                    // session closed by the remote peer
+                    LOG.debug("session closed by the remote peer");
+                    close(true);
+                    break;
+                }
+
+                if (readCount == 0) {
+                    break;
+                }
+
+                read = true;
+                bytesLeft -= readCount;
+                readSizePredictor.record(readCount, window);
 
-            if (readCount < 0) {
-                // session closed by the remote peer
-                LOG.debug("session closed by the remote peer");
-                close(true);
-            } else if (readCount > 0) {
                 // we have read some data
                 // limit at the current position & rewind buffer back to start &
                 // push to the chain
@@ -320,12 +647,22 @@ public class NioTcpSession extends AbstractNioSession implements SelectorListene
                     readBuffer.clear();
                 }
 
+                if (readCount < window) {
+                    // the socket is drained, no need to try another read
+                    break;
+                }
+            }
+
+            if (read) {
                 // Update the session idle status
                 idleChecker.sessionRead(this, System.currentTimeMillis());
             }
         } catch (final IOException e) {
             LOG.error("Exception while reading : ", e);
             processException(e);
+        } finally {
+            // the buffer is shared by all the sessions of the loop, give it back in its initial state
+            readBuffer.clear();
         }
     }
 
@@ -346,19 +683,24 @@ public class NioTcpSession extends AbstractNioSession implements SelectorListene
 
                 if (!isConnected) {
                     LOG.error("unable to connect session {}", this);
+                } else if (selectorLoop.inLoop()) {
+                    // the connection was handled by our own loop : just switch the interest from connect to read
+                    selectorLoop.modifyRegistration(false, !readSuspended, false, this, channel, false);
+                    setConnected();
                 } else {
                     // cancel current registration for connection
                     selectionKey.cancel();
                     selectionKey = null;
 
                     // Register for reading
-                    selectorLoop.register(false, false, true, false, this, channel, new RegistrationCallback() {
-
-                        @Override
-                        public void done(SelectionKey selectionKey) {
-                            setConnected();
-                        }
-                    });
+                    selectorLoop.register(false, false, !readSuspended, false, this, channel,
+                            new RegistrationCallback() {
+
+                                @Override
+                                public void done(SelectionKey selectionKey) {
+                                    setConnected();
+                                }
+                            });
                 }
             } catch (IOException e) {
                 LOG.debug("Connection error, we cancel the future", e);
@@ -383,4 +725,112 @@ public class NioTcpSession extends AbstractNioSession implements SelectorListene
     void setSelectionKey(SelectionKey key) {
         this.selectionKey = key;
     }
+
+    /**
+     * @return the selector loop in charge of this session
+     */
+    public SelectorLoop getSelectorLoop() {
+        return selectorLoop;
+    }
+
+    /**
+     * Move this session to another selector loop, for unloading a busy loop. The channel is unregistered from the
+     * current loop selector and registered on the new loop one. The migration is done by the current loop thread,
+     * after its pending events, and only if the session is idle : no pending write.
+     * 
+     * @param target the new selector loop of this session
+     * @return a future completed with <code>true</code> when the session is registered on the new loop, or with
+     *         <code>false</code> if it was not idle or closed
+     */
+    public IoFuture<Boolean> migrate(final SelectorLoop target) {
+        final MigrationFuture future = new MigrationFuture();
+        final SelectorLoop source = selectorLoop;
+
+        if (target == source) {
+            future.complete(false);
+            return future;
+        }
+
+        // never migrate in the middle of an event processing : the old loop could keep reading the channel
+        source.schedule(new Runnable() {
+            @Override
+            public void run() {
+                doMigrate(source, target, future);
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+
+        return future;
+    }
+
+    /**
+     * Move the session from a loop to another. Must be called by the source loop thread. The session keeps its loop
+     * and its key until the channel is registered on the target loop : the suspensions changed meanwhile are applied
+     * then.
+     */
+    private void doMigrate(SelectorLoop source, final SelectorLoop target, final MigrationFuture future) {
+        // the messages handed off to the source loop must be written by it
+        if ((selectorLoop != source) || !channel.isOpen() || !getWriteQueue().isEmpty() || handOffPending.get()) {
+            future.complete(false);
+            return;
+        }
+
+        // while we own the write registration, the writers only push their messages in the write queue
+        if (!tryRegisterForWrite()) {
+            future.complete(false);
+            return;
+        }
+
+        migration.set(future);
+        source.unregister(this, channel);
+
+        // a close from now on completes the future, and the registration fails on the closed channel
+        if (!channel.isOpen()) {
+            if (migration.compareAndSet(future, null)) {
+                setNotRegisteredForWrite();
+                future.complete(false);
+            }
+
+            return;
+        }
+
+        target.register(false, false, !isReadSuspended(), false, this, channel, new RegistrationCallback() {
+            @Override
+            public void done(SelectionKey selectionKey) {
+                // switch the key and the loop together
+                setSelectionKey(selectionKey);
+                selectorLoop = target;
+
+                if (!migration.compareAndSet(future, null)) {
+                    // closed meanwhile : the future is already completed
+                    return;
+                }
+
+                setNotRegisteredForWrite();
+
+                // the reads or the writes may have been suspended or resumed during the migration
+                updateInterest(target, false);
+
+                // some messages may have been queued during the migration
+                if (!getWriteQueue().isEmpty() && tryRegisterForWrite()) {
+                    flushWriteQueue();
+                }
+
+                future.complete(true);
+            }
+        });
+    }
+
+    /**
+     * The future of a session migration
+     */
+    private static class MigrationFuture extends AbstractIoFuture<Boolean> {
+        @Override
+        protected boolean cancelOwner(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        void complete(boolean migrated) {
+            setResult(migrated);
+        }
+    }
 }
@@ -96,6 +96,10 @@ public class NioUdpClient extends AbstractUdpClient {
         session.getConfig().setIdleTimeInMillis(IdleStatus.WRITE_IDLE,
                 config.getIdleTimeInMillis(IdleStatus.WRITE_IDLE));
 
+        // apply the write queue watermarks
+        session.getConfig().setWriteQueueWatermarks(config.getWriteQueueLowWatermark(),
+                config.getWriteQueueHighWatermark());
+
         // Manage the Idle status
         idleChecker.sessionRead(session, System.currentTimeMillis());
         idleChecker.sessionWritten(session, System.currentTimeMillis());
@@ -277,6 +277,10 @@ public class NioUdpServer extends AbstractUdpServer implements SelectorListener
         session.getConfig().setIdleTimeInMillis(IdleStatus.WRITE_IDLE,
                 config.getIdleTimeInMillis(IdleStatus.WRITE_IDLE));
 
+        // apply the write queue watermarks
+        session.getConfig().setWriteQueueWatermarks(config.getWriteQueueLowWatermark(),
+                config.getWriteQueueHighWatermark());
+
         // apply the default service socket configuration
 
         Boolean reuseAddress = config.isReuseAddress();
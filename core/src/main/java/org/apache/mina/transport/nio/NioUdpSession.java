@@ -28,6 +28,7 @@ import org.apache.mina.api.IoService;
 import org.apache.mina.service.idlechecker.IdleChecker;
 import org.apache.mina.session.WriteRequest;
 import org.apache.mina.transport.udp.UdpSessionConfig;
+import org.apache.mina.util.DirectBufferArena;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -98,6 +99,23 @@ public class NioUdpSession extends AbstractNioSession implements SelectorListene
         processSessionClosed();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected SelectorLoop getEventSelectorLoop() {
+        return selectorLoop;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected DirectBufferArena getReceiveBufferArena() {
+        // the server sessions have no loop of their own
+        return selectorLoop == null ? null : selectorLoop.getDirectBufferArena();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -244,7 +262,13 @@ public class NioUdpSession extends AbstractNioSession implements SelectorListene
     @Override
     protected ByteBuffer convertToDirectBuffer(WriteRequest writeRequest, boolean createNew) {
         // Here, we don't create a new DirectBuffer. We let the underlying layer do the job for us
-        return (ByteBuffer) writeRequest.getMessage();
+        ByteBuffer message = (ByteBuffer) writeRequest.getMessage();
+
+        if (message.isDirect()) {
+            retainReceivedBuffer(writeRequest, message);
+        }
+
+        return message;
     }
 
     /**
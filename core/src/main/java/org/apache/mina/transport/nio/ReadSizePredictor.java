@@ -0,0 +1,99 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.transport.nio;
+
+/**
+ * Predicts how many bytes the next read of a session will return, from an exponentially weighted moving average of
+ * the previous reads. The prediction grows as soon as a read fills the whole window (more data is certainly waiting in
+ * the socket), and shrinks slowly when the reads are smaller, so that a single small read does not penalize a bulk
+ * session.<br>
+ *
+ * A read returning less than the predicted window tells the socket is drained, so the session can stop reading without
+ * paying for a last read returning nothing.<br>
+ *
+ * Not thread safe : a predictor is used by the selector loop thread of its session.
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+final class ReadSizePredictor {
+    /** The smallest window we read with */
+    static final int MINIMUM = 64;
+
+    /** The window used for the first read of a session */
+    static final int INITIAL = 2048;
+
+    /** The largest window we read with */
+    private final int maximum;
+
+    /** The moving average of the bytes read */
+    private int average;
+
+    /** The window for the next read, a power of 2 between MINIMUM and maximum */
+    private int nextReadSize;
+
+    /**
+     * Creates a predictor.
+     *
+     * @param maximum the largest read window, usually the selector loop read buffer capacity
+     */
+    ReadSizePredictor(int maximum) {
+        this.maximum = Math.max(maximum, MINIMUM);
+        average = INITIAL;
+        nextReadSize = clamp(INITIAL);
+    }
+
+    /**
+     * @return the number of bytes we expect the next read to return
+     */
+    int nextReadSize() {
+        return nextReadSize;
+    }
+
+    /**
+     * Update the prediction with the result of a read.
+     *
+     * @param bytesRead the number of bytes read
+     * @param window the number of bytes we tried to read
+     */
+    void record(int bytesRead, int window) {
+        if (bytesRead >= window) {
+            // the window was too small : grow fast
+            average = Math.max(average, window << 1);
+        } else {
+            // moving average with a 1/4 weight for the last read
+            average = (3 * average + bytesRead) >> 2;
+        }
+
+        nextReadSize = clamp(average);
+    }
+
+    private int clamp(int size) {
+        if (size <= MINIMUM) {
+            return MINIMUM;
+        }
+
+        if (size >= maximum) {
+            return maximum;
+        }
+
+        // round up to the next power of 2
+        return Math.min(maximum, Integer.highestOneBit(size - 1) << 1);
+    }
+}
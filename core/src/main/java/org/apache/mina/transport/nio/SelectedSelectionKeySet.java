@@ -0,0 +1,224 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.transport.nio;
+
+import java.lang.reflect.Field;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A flat array of {@link SelectionKey}, to be used in place of the HashSet the JDK {@link Selector} uses for storing
+ * the selected keys. The selector only calls {@link #add(SelectionKey)}, and the {@link NioSelectorLoop} walks the
+ * array and resets it : no hashing, no iterator and no garbage per selected key.<br>
+ *
+ * The set is installed by reflection in the JDK selector implementation, which may be refused by the JVM (security
+ * manager, non opened <code>sun.nio.ch</code> module...). In this case the selector is left untouched.
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+final class SelectedSelectionKeySet extends AbstractSet<SelectionKey> {
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger(SelectedSelectionKeySet.class);
+
+    /** The initial number of keys we can store before growing the array */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The JDK selector implementation class, where the sets are stored */
+    private static final String SELECTOR_IMPL_CLASS = "sun.nio.ch.SelectorImpl";
+
+    /** The selected keys */
+    private SelectionKey[] keys = new SelectionKey[INITIAL_CAPACITY];
+
+    /** The number of selected keys */
+    private int size;
+
+    /** The selector using this set */
+    private final Selector selector;
+
+    /** The selector internal field holding the selected keys */
+    private final Field selectedKeysField;
+
+    /** The selector internal field holding the selected keys returned to the users */
+    private final Field publicSelectedKeysField;
+
+    /** The selector own selected keys set, restored by {@link #uninstall()} */
+    private final Object originalSelectedKeys;
+
+    /** The selector own public selected keys set, restored by {@link #uninstall()} */
+    private final Object originalPublicSelectedKeys;
+
+    private SelectedSelectionKeySet(Selector selector, Field selectedKeysField, Field publicSelectedKeysField)
+            throws IllegalAccessException {
+        this.selector = selector;
+        this.selectedKeysField = selectedKeysField;
+        this.publicSelectedKeysField = publicSelectedKeysField;
+        originalSelectedKeys = selectedKeysField.get(selector);
+        originalPublicSelectedKeys = publicSelectedKeysField.get(selector);
+    }
+
+    /**
+     * Try to replace the selected keys set of a selector by an array based one. Must be called by the thread selecting
+     * on this selector, between two selections.
+     *
+     * @param selector the selector to modify
+     * @return the installed set, or <code>null</code> if the JDK does not allow it
+     */
+    static SelectedSelectionKeySet install(Selector selector) {
+        try {
+            Class<?> selectorImplClass = Class.forName(SELECTOR_IMPL_CLASS, false, ClassLoader.getSystemClassLoader());
+
+            if (!selectorImplClass.isAssignableFrom(selector.getClass())) {
+                LOG.debug("unknown selector implementation {}, keeping the selected key set", selector.getClass());
+                return null;
+            }
+
+            Field selectedKeysField = selectorImplClass.getDeclaredField("selectedKeys");
+            Field publicSelectedKeysField = selectorImplClass.getDeclaredField("publicSelectedKeys");
+            selectedKeysField.setAccessible(true);
+            publicSelectedKeysField.setAccessible(true);
+
+            SelectedSelectionKeySet keySet = new SelectedSelectionKeySet(selector, selectedKeysField,
+                    publicSelectedKeysField);
+            selectedKeysField.set(selector, keySet);
+            publicSelectedKeysField.set(selector, keySet);
+
+            return keySet;
+        } catch (Exception e) {
+            // includes the runtime exceptions thrown by the JVM when the sun.nio.ch package is not opened to us
+            LOG.debug("cannot install an array based selected key set, keeping the default one", e);
+            return null;
+        }
+    }
+
+    /**
+     * Give back its own selected keys sets to the selector. Must be called by the thread selecting on this selector,
+     * between two selections.
+     */
+    void uninstall() {
+        reset();
+
+        try {
+            selectedKeysField.set(selector, originalSelectedKeys);
+            publicSelectedKeysField.set(selector, originalPublicSelectedKeys);
+        } catch (IllegalAccessException e) {
+            // we were allowed to install the set, it should not happen
+            LOG.error("cannot restore the selected key set", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean add(SelectionKey key) {
+        if (key == null) {
+            return false;
+        }
+
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+        }
+
+        keys[size++] = key;
+
+        return true;
+    }
+
+    /**
+     * Gets the key at a given position, and release the slot
+     *
+     * @param index the key position, lower than {@link #size()}
+     * @return the selected key
+     */
+    SelectionKey take(int index) {
+        SelectionKey key = keys[index];
+        keys[index] = null;
+
+        return key;
+    }
+
+    /**
+     * Forget all the selected keys
+     */
+    void reset() {
+        Arrays.fill(keys, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Not supported : a key cancelled while it is in the array is skipped by the loop, as it's not valid anymore
+     */
+    @Override
+    public boolean remove(Object o) {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(Object o) {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<SelectionKey> iterator() {
+        return new Iterator<SelectionKey>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public SelectionKey next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return keys[index++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -19,6 +19,10 @@
 package org.apache.mina.transport.nio;
 
 import java.nio.channels.SelectableChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.util.DirectBufferArena;
+import org.apache.mina.util.TimingWheel;
 
 /**
  * @author <a href="http://mina.apache.org">Apache MINA Project</a>
@@ -49,9 +53,53 @@ public interface SelectorLoop {
     void wakeup();
 
     /**
-     * Run a given runnable in the loop.
+     * Run a given runnable in the loop. If we are already in the loop thread, the task is run immediately. Otherwise
+     * the task is queued, without waiting for the loop to make some room.
      * 
      * @param task the task to be run in the main working loop.
      */
     void runInLoop(Runnable task);
-}
\ No newline at end of file
+
+    /**
+     * Tells if the current thread is the one running this loop. In this case the registrations and the tasks can be
+     * processed immediately, without any queuing nor selector wakeup.
+     * 
+     * @return <code>true</code> if we are in the loop thread
+     */
+    boolean inLoop();
+
+    /**
+     * Run a given task at the end of the current loop iteration, after the ready channels and the pending tasks were
+     * processed. Used for grouping the work done for several events, like the writes of a corked session. From another
+     * thread, the task is handed to the loop like with {@link #runInLoop(Runnable)}.
+     * 
+     * @param task the task to be run at the end of the iteration
+     */
+    void runAtEndOfIteration(Runnable task);
+
+    /**
+     * Run a given task in the loop after a delay. The task is run by the loop thread, so it can manipulate the sessions
+     * of this loop without any synchronization.
+     * 
+     * @param task the task to be run
+     * @param delay the delay before running the task
+     * @param unit the delay unit
+     * @return the handle for cancelling the task
+     */
+    TimingWheel.Timeout schedule(Runnable task, long delay, TimeUnit unit);
+
+    /**
+     * Gets a snapshot of the loop activity. The counters are maintained by the loop thread without any lock, so this
+     * can be called at any time from any thread.
+     * 
+     * @return the loop statistics
+     */
+    SelectorLoopStats getStats();
+
+    /**
+     * Gets the pool of direct buffers of this loop, used for copying the heap buffers written to its sessions.
+     * 
+     * @return the direct buffer arena
+     */
+    DirectBufferArena getDirectBufferArena();
+}
@@ -0,0 +1,248 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.transport.nio;
+
+/**
+ * A snapshot of the activity of one {@link SelectorLoop}, or of all the loops of a pool. The time and event counters
+ * are cumulated since the loops were started : two snapshots taken at different times give the activity during the
+ * interval, see {@link #since(SelectorLoopStats)}. The queue depths and the registered channel count are the values
+ * at the time of the snapshot.<br>
+ *
+ * A loop utilisation close to 1 means its thread has no idle time left : the latency of all its sessions will grow.
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public final class SelectorLoopStats {
+    /** The number of loops these stats are about */
+    private final int loopCount;
+
+    /** The number of loop iterations */
+    private final long iterationCount;
+
+    /** The time spent waiting for events, spinning included */
+    private final long selectTimeNanos;
+
+    /** The time spent processing the ready keys */
+    private final long ioTimeNanos;
+
+    /** The time spent registering channels */
+    private final long registrationTimeNanos;
+
+    /** The time spent running the tasks */
+    private final long taskTimeNanos;
+
+    /** The number of ready keys processed */
+    private final long readyKeyCount;
+
+    /** The number of selector wakeups */
+    private final long wakeupCount;
+
+    /** The number of selector rebuilds */
+    private final long selectorRebuildCount;
+
+    /** The number of registrations waiting for the loop */
+    private final int registrationQueueDepth;
+
+    /** The number of tasks waiting for the loop */
+    private final int taskQueueDepth;
+
+    /** The number of channels registered on the selectors */
+    private final int registeredChannelCount;
+
+    SelectorLoopStats(int loopCount, long iterationCount, long selectTimeNanos, long ioTimeNanos,
+            long registrationTimeNanos, long taskTimeNanos, long readyKeyCount, long wakeupCount,
+            long selectorRebuildCount, int registrationQueueDepth, int taskQueueDepth, int registeredChannelCount) {
+        this.loopCount = loopCount;
+        this.iterationCount = iterationCount;
+        this.selectTimeNanos = selectTimeNanos;
+        this.ioTimeNanos = ioTimeNanos;
+        this.registrationTimeNanos = registrationTimeNanos;
+        this.taskTimeNanos = taskTimeNanos;
+        this.readyKeyCount = readyKeyCount;
+        this.wakeupCount = wakeupCount;
+        this.selectorRebuildCount = selectorRebuildCount;
+        this.registrationQueueDepth = registrationQueueDepth;
+        this.taskQueueDepth = taskQueueDepth;
+        this.registeredChannelCount = registeredChannelCount;
+    }
+
+    /**
+     * Sums the stats of several loops.
+     *
+     * @param other the stats of the other loops
+     * @return the stats of all the loops
+     */
+    SelectorLoopStats plus(SelectorLoopStats other) {
+        return new SelectorLoopStats(loopCount + other.loopCount, iterationCount + other.iterationCount,
+                selectTimeNanos + other.selectTimeNanos, ioTimeNanos + other.ioTimeNanos, registrationTimeNanos
+                        + other.registrationTimeNanos, taskTimeNanos + other.taskTimeNanos, readyKeyCount
+                        + other.readyKeyCount, wakeupCount + other.wakeupCount, selectorRebuildCount
+                        + other.selectorRebuildCount, registrationQueueDepth + other.registrationQueueDepth,
+                taskQueueDepth + other.taskQueueDepth, registeredChannelCount + other.registeredChannelCount);
+    }
+
+    /**
+     * Computes the activity of the loops between a previous snapshot and this one. The queue depths and the registered
+     * channel count are the ones of this snapshot.
+     *
+     * @param previous a previous snapshot of the same loops
+     * @return the activity during the interval
+     */
+    public SelectorLoopStats since(SelectorLoopStats previous) {
+        return new SelectorLoopStats(loopCount, iterationCount - previous.iterationCount, selectTimeNanos
+                - previous.selectTimeNanos, ioTimeNanos - previous.ioTimeNanos, registrationTimeNanos
+                - previous.registrationTimeNanos, taskTimeNanos - previous.taskTimeNanos, readyKeyCount
+                - previous.readyKeyCount, wakeupCount - previous.wakeupCount, selectorRebuildCount
+                - previous.selectorRebuildCount, registrationQueueDepth, taskQueueDepth, registeredChannelCount);
+    }
+
+    /**
+     * @return the number of loops these stats are about
+     */
+    public int getLoopCount() {
+        return loopCount;
+    }
+
+    /**
+     * @return the number of loop iterations
+     */
+    public long getIterationCount() {
+        return iterationCount;
+    }
+
+    /**
+     * @return the time spent waiting for events in nanoseconds, spinning included
+     */
+    public long getSelectTimeNanos() {
+        return selectTimeNanos;
+    }
+
+    /**
+     * @return the time spent processing the I/O events in nanoseconds
+     */
+    public long getIoTimeNanos() {
+        return ioTimeNanos;
+    }
+
+    /**
+     * @return the time spent registering channels in nanoseconds
+     */
+    public long getRegistrationTimeNanos() {
+        return registrationTimeNanos;
+    }
+
+    /**
+     * @return the time spent running tasks in nanoseconds
+     */
+    public long getTaskTimeNanos() {
+        return taskTimeNanos;
+    }
+
+    /**
+     * @return the time spent doing something else than waiting for events, in nanoseconds
+     */
+    public long getBusyTimeNanos() {
+        return ioTimeNanos + registrationTimeNanos + taskTimeNanos;
+    }
+
+    /**
+     * @return the part of the time the loops were busy, between 0 and 1
+     */
+    public double getUtilisation() {
+        long busy = getBusyTimeNanos();
+        long total = busy + selectTimeNanos;
+
+        return total == 0 ? 0d : (double) busy / total;
+    }
+
+    /**
+     * @return the number of ready keys processed
+     */
+    public long getReadyKeyCount() {
+        return readyKeyCount;
+    }
+
+    /**
+     * @return the average number of ready keys per loop iteration
+     */
+    public double getReadyKeysPerIteration() {
+        return iterationCount == 0 ? 0d : (double) readyKeyCount / iterationCount;
+    }
+
+    /**
+     * @return the number of selector wakeups requested by other threads
+     */
+    public long getWakeupCount() {
+        return wakeupCount;
+    }
+
+    /**
+     * @return the number of selector rebuilds
+     */
+    public long getSelectorRebuildCount() {
+        return selectorRebuildCount;
+    }
+
+    /**
+     * @return the number of registrations waiting for the loops
+     */
+    public int getRegistrationQueueDepth() {
+        return registrationQueueDepth;
+    }
+
+    /**
+     * @return the number of tasks waiting for the loops
+     */
+    public int getTaskQueueDepth() {
+        return taskQueueDepth;
+    }
+
+    /**
+     * @return the number of channels registered on the loops
+     */
+    public int getRegisteredChannelCount() {
+        return registeredChannelCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("SelectorLoopStats[loops=").append(loopCount);
+        sb.append(", iterations=").append(iterationCount);
+        sb.append(", utilisation=").append(String.format("%.3f", getUtilisation()));
+        sb.append(", selectTime=").append(selectTimeNanos / 1000).append("us");
+        sb.append(", ioTime=").append(ioTimeNanos / 1000).append("us");
+        sb.append(", registrationTime=").append(registrationTimeNanos / 1000).append("us");
+        sb.append(", taskTime=").append(taskTimeNanos / 1000).append("us");
+        sb.append(", readyKeysPerIteration=").append(String.format("%.2f", getReadyKeysPerIteration()));
+        sb.append(", wakeups=").append(wakeupCount);
+        sb.append(", rebuilds=").append(selectorRebuildCount);
+        sb.append(", registrationQueue=").append(registrationQueueDepth);
+        sb.append(", taskQueue=").append(taskQueueDepth);
+        sb.append(", channels=").append(registeredChannelCount);
+        sb.append(']');
+
+        return sb.toString();
+    }
+}
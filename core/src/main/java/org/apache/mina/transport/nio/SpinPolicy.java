@@ -0,0 +1,206 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.transport.nio;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells a {@link NioSelectorLoop} how long it should poll its selector with <code>selectNow()</code> before blocking
+ * in <code>select()</code>. Spinning trades CPU for latency : an event arriving while the loop spins is processed
+ * without paying for the thread wake up.<br>
+ *
+ * The spin is bounded either by a number of <code>selectNow()</code> calls, or by a duration. Between two polls the
+ * loop can do nothing, yield its CPU or call <code>Thread.onSpinWait()</code> (when running on Java 9 or later).
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public final class SpinPolicy {
+    /**
+     * What the loop does between two <code>selectNow()</code> calls
+     */
+    public enum IdleStrategy {
+        /** Poll again immediately */
+        BUSY,
+        /** Call Thread.yield() */
+        YIELD,
+        /** Call Thread.onSpinWait(), or poll again immediately if the JVM does not provide it */
+        SPIN_WAIT
+    }
+
+    /** The default policy : no spin, the loop blocks in select() immediately */
+    public static final SpinPolicy NONE = new SpinPolicy(0, 0L, IdleStrategy.BUSY);
+
+    /** Thread.onSpinWait(), added in Java 9 */
+    private static final MethodHandle ON_SPIN_WAIT;
+
+    static {
+        MethodHandle onSpinWait = null;
+
+        try {
+            onSpinWait = MethodHandles.publicLookup().findStatic(Thread.class, "onSpinWait",
+                    MethodType.methodType(void.class));
+        } catch (Exception e) {
+            // Java 8 or older
+        }
+
+        ON_SPIN_WAIT = onSpinWait;
+    }
+
+    /** The maximum number of selectNow() calls, 0 if the spin is bounded by a duration */
+    private final int iterations;
+
+    /** The maximum spin duration in nanoseconds, 0 if the spin is bounded by a number of iterations */
+    private final long durationNanos;
+
+    /** What we do between two polls */
+    private final IdleStrategy idleStrategy;
+
+    private SpinPolicy(int iterations, long durationNanos, IdleStrategy idleStrategy) {
+        this.iterations = iterations;
+        this.durationNanos = durationNanos;
+        this.idleStrategy = idleStrategy;
+    }
+
+    /**
+     * Creates a policy calling <code>selectNow()</code> up to a given number of times before blocking.
+     *
+     * @param iterations the maximum number of <code>selectNow()</code> calls
+     * @param idleStrategy what to do between two calls
+     * @return the spin policy
+     */
+    public static SpinPolicy iterations(int iterations, IdleStrategy idleStrategy) {
+        if (iterations < 0) {
+            throw new IllegalArgumentException("iterations: " + iterations + " (expected: 0+)");
+        }
+
+        if (idleStrategy == null) {
+            throw new IllegalArgumentException("Parameter >idleStrategy< must not be null!");
+        }
+
+        return new SpinPolicy(iterations, 0L, idleStrategy);
+    }
+
+    /**
+     * Creates a policy calling <code>selectNow()</code> during a given time before blocking.
+     *
+     * @param duration the maximum spin duration
+     * @param unit the duration unit
+     * @param idleStrategy what to do between two calls
+     * @return the spin policy
+     */
+    public static SpinPolicy duration(long duration, TimeUnit unit, IdleStrategy idleStrategy) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("duration: " + duration + " (expected: 0+)");
+        }
+
+        if (idleStrategy == null) {
+            throw new IllegalArgumentException("Parameter >idleStrategy< must not be null!");
+        }
+
+        return new SpinPolicy(0, unit.toNanos(duration), idleStrategy);
+    }
+
+    /**
+     * @return <code>true</code> if the loop should spin before blocking
+     */
+    public boolean isEnabled() {
+        return (iterations > 0) || (durationNanos > 0L);
+    }
+
+    /**
+     * Tells if the loop can poll once more.
+     *
+     * @param iteration the number of polls already done
+     * @param startNanos the System.nanoTime() value when the spin started
+     * @return <code>true</code> if the loop should call selectNow() again
+     */
+    boolean canSpin(int iteration, long startNanos) {
+        if (iterations > 0) {
+            return iteration < iterations;
+        }
+
+        return (System.nanoTime() - startNanos) < durationNanos;
+    }
+
+    /**
+     * Called by the loop between two polls
+     */
+    void idle() {
+        switch (idleStrategy) {
+        case YIELD:
+            Thread.yield();
+            break;
+
+        case SPIN_WAIT:
+            if (ON_SPIN_WAIT != null) {
+                try {
+                    ON_SPIN_WAIT.invokeExact();
+                } catch (Throwable t) {
+                    // onSpinWait() is a hint, it does not throw
+                }
+            }
+
+            break;
+
+        default:
+            break;
+        }
+    }
+
+    /**
+     * @return the maximum number of selectNow() calls, 0 if the spin is bounded by a duration
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return the maximum spin duration in nanoseconds, 0 if the spin is bounded by a number of iterations
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return what the loop does between two polls
+     */
+    public IdleStrategy getIdleStrategy() {
+        return idleStrategy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        if (!isEnabled()) {
+            return "SpinPolicy[none]";
+        }
+
+        if (iterations > 0) {
+            return "SpinPolicy[" + iterations + " iterations, " + idleStrategy + "]";
+        }
+
+        return "SpinPolicy[" + TimeUnit.NANOSECONDS.toMicros(durationNanos) + "us, " + idleStrategy + "]";
+    }
+}
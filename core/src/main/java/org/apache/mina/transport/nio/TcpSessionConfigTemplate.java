@@ -0,0 +1,305 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.transport.nio;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.mina.api.IdleStatus;
+import org.apache.mina.transport.tcp.TcpSessionConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The configuration a TCP service applies to its new sessions, read once from the service {@link TcpSessionConfig}.
+ * Each socket option is a system call : the options already having the configured value on the new sockets are not
+ * kept, so that only the useful system calls are done for each new session. The sockets opened by a client and the
+ * sockets accepted by a server don't start with the same options, an accepted socket inherits some of them from the
+ * server socket : the options of the new sockets are read from a socket of the same kind, see {@link SocketDefaults}.
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+/* No qualifier */final class TcpSessionConfigTemplate {
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger(TcpSessionConfigTemplate.class);
+
+    /** The maximum time to wait for the connection probing the options of the accepted sockets */
+    private static final int PROBE_TIMEOUT_IN_MILLIS = 1000;
+
+    private final long readIdleTime;
+
+    private final long writeIdleTime;
+
+    private final int maxReadsPerEvent;
+
+    private final int maxBytesPerReadEvent;
+
+    private final int writeQueueLowWatermark;
+
+    private final int writeQueueHighWatermark;
+
+    private final boolean corked;
+
+    private final boolean singleWriter;
+
+    private final int writePriorityWeight;
+
+    private final boolean pooledReceiveBuffers;
+
+    // the socket options, null when they don't need to be set
+    private final Boolean keepAlive;
+
+    private final Boolean oobInline;
+
+    private final Boolean reuseAddress;
+
+    private final Boolean tcpNoDelay;
+
+    private final Integer receiveBufferSize;
+
+    private final Integer sendBufferSize;
+
+    private final Integer trafficClass;
+
+    private final Integer soLinger;
+
+    /** The SSL context, <code>null</code> if the sessions are not secured */
+    private final SSLContext sslContext;
+
+    /**
+     * Reads the service configuration, and keep the socket options which need to be set.
+     *
+     * @param config the service session configuration
+     * @param defaults the options of the new sockets, <code>null</code> if all the configured options must be set
+     */
+    TcpSessionConfigTemplate(TcpSessionConfig config, SocketDefaults defaults) {
+        readIdleTime = config.getIdleTimeInMillis(IdleStatus.READ_IDLE);
+        writeIdleTime = config.getIdleTimeInMillis(IdleStatus.WRITE_IDLE);
+        maxReadsPerEvent = config.getMaxReadsPerEvent();
+        maxBytesPerReadEvent = config.getMaxBytesPerReadEvent();
+        writeQueueLowWatermark = config.getWriteQueueLowWatermark();
+        writeQueueHighWatermark = config.getWriteQueueHighWatermark();
+        corked = config.isCorked();
+        singleWriter = config.isSingleWriter();
+        writePriorityWeight = config.getWritePriorityWeight();
+        pooledReceiveBuffers = config.isPooledReceiveBuffers();
+
+        if (defaults == null) {
+            keepAlive = config.isKeepAlive();
+            oobInline = config.isOobInline();
+            reuseAddress = config.isReuseAddress();
+            tcpNoDelay = config.isTcpNoDelay();
+            receiveBufferSize = config.getReadBufferSize();
+            sendBufferSize = config.getSendBufferSize();
+            trafficClass = config.getTrafficClass();
+            soLinger = config.getSoLinger();
+        } else {
+            keepAlive = nonDefault(config.isKeepAlive(), defaults.keepAlive);
+            oobInline = nonDefault(config.isOobInline(), defaults.oobInline);
+            reuseAddress = nonDefault(config.isReuseAddress(), defaults.reuseAddress);
+            tcpNoDelay = nonDefault(config.isTcpNoDelay(), defaults.tcpNoDelay);
+            receiveBufferSize = nonDefault(config.getReadBufferSize(), defaults.receiveBufferSize);
+            sendBufferSize = nonDefault(config.getSendBufferSize(), defaults.sendBufferSize);
+            trafficClass = nonDefault(config.getTrafficClass(), defaults.trafficClass);
+
+            // a linger time of 0 or less disables SO_LINGER
+            Integer linger = config.getSoLinger();
+            soLinger = nonDefault((linger != null) && (linger <= 0) ? Integer.valueOf(-1) : linger, defaults.soLinger);
+        }
+
+        sslContext = config.isSecured() ? config.getSslContext() : null;
+    }
+
+    private static <T> T nonDefault(T value, T defaultValue) {
+        return ((value == null) || value.equals(defaultValue)) ? null : value;
+    }
+
+    /**
+     * Configure a new session.
+     *
+     * @param session the session
+     */
+    void apply(NioTcpSession session) {
+        TcpSessionConfig sessionConfig = session.getConfig();
+
+        // apply idle configuration
+        sessionConfig.setIdleTimeInMillis(IdleStatus.READ_IDLE, readIdleTime);
+        sessionConfig.setIdleTimeInMillis(IdleStatus.WRITE_IDLE, writeIdleTime);
+
+        // apply the read budget
+        sessionConfig.setMaxReadsPerEvent(maxReadsPerEvent);
+        sessionConfig.setMaxBytesPerReadEvent(maxBytesPerReadEvent);
+
+        // apply the write queue watermarks
+        sessionConfig.setWriteQueueWatermarks(writeQueueLowWatermark, writeQueueHighWatermark);
+        sessionConfig.setCorked(corked);
+        sessionConfig.setSingleWriter(singleWriter);
+        sessionConfig.setWritePriorityWeight(writePriorityWeight);
+        sessionConfig.setPooledReceiveBuffers(pooledReceiveBuffers);
+
+        // apply the socket options
+        if (keepAlive != null) {
+            sessionConfig.setKeepAlive(keepAlive);
+        }
+
+        if (oobInline != null) {
+            sessionConfig.setOobInline(oobInline);
+        }
+
+        if (reuseAddress != null) {
+            sessionConfig.setReuseAddress(reuseAddress);
+        }
+
+        if (tcpNoDelay != null) {
+            sessionConfig.setTcpNoDelay(tcpNoDelay);
+        }
+
+        if (receiveBufferSize != null) {
+            sessionConfig.setReadBufferSize(receiveBufferSize);
+        }
+
+        if (sendBufferSize != null) {
+            sessionConfig.setSendBufferSize(sendBufferSize);
+        }
+
+        if (trafficClass != null) {
+            sessionConfig.setTrafficClass(trafficClass);
+        }
+
+        if (soLinger != null) {
+            sessionConfig.setSoLinger(soLinger);
+        }
+
+        // Set the secured flag if the service is to be used over SSL/TLS
+        if (sslContext != null) {
+            session.initSecure(sslContext);
+        }
+    }
+
+    /**
+     * The options a new socket has before any configuration
+     */
+    /* No qualifier */static final class SocketDefaults {
+        private final Boolean keepAlive;
+
+        private final Boolean oobInline;
+
+        private final Boolean reuseAddress;
+
+        private final Boolean tcpNoDelay;
+
+        private final Integer receiveBufferSize;
+
+        private final Integer sendBufferSize;
+
+        private final Integer trafficClass;
+
+        private final Integer soLinger;
+
+        private SocketDefaults(Socket socket) throws IOException {
+            keepAlive = socket.getKeepAlive();
+            oobInline = socket.getOOBInline();
+            reuseAddress = socket.getReuseAddress();
+            tcpNoDelay = socket.getTcpNoDelay();
+            receiveBufferSize = socket.getReceiveBufferSize();
+            sendBufferSize = socket.getSendBufferSize();
+            trafficClass = socket.getTrafficClass();
+            soLinger = socket.getSoLinger();
+        }
+
+        /**
+         * Read the options of a socket opened by a client
+         *
+         * @return the options, <code>null</code> if they can't be read
+         */
+        static SocketDefaults ofClientSocket() {
+            return ClientSocketDefaults.DEFAULTS;
+        }
+
+        /**
+         * Read the options of a socket accepted by some bound server sockets, by connecting to them. The server
+         * sockets must not be registered yet, so that the probing connection is not seen by the service.
+         *
+         * @param serverChannels the server sockets bound to the same address
+         * @return the options, <code>null</code> if they can't be read
+         */
+        static SocketDefaults ofAcceptedSocket(List<ServerSocketChannel> serverChannels) {
+            InetSocketAddress boundAddress = (InetSocketAddress) serverChannels.get(0).socket()
+                    .getLocalSocketAddress();
+            InetAddress host = boundAddress.getAddress();
+
+            if (host.isAnyLocalAddress()) {
+                host = InetAddress.getLoopbackAddress();
+            }
+
+            try (Selector selector = Selector.open(); SocketChannel client = SocketChannel.open()) {
+                // the connection may be given to any of the sockets sharing the port
+                for (ServerSocketChannel serverChannel : serverChannels) {
+                    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+                }
+
+                client.socket().connect(new InetSocketAddress(host, boundAddress.getPort()), PROBE_TIMEOUT_IN_MILLIS);
+
+                if (selector.select(PROBE_TIMEOUT_IN_MILLIS) > 0) {
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        try (SocketChannel accepted = ((ServerSocketChannel) key.channel()).accept()) {
+                            if (accepted != null) {
+                                return new SocketDefaults(accepted.socket());
+                            }
+                        }
+                    }
+                }
+
+                LOG.warn("The connection probing the accepted socket options was not accepted, "
+                        + "all the configured options will be set");
+            } catch (IOException e) {
+                LOG.warn("Can't read the accepted socket options, all the configured options will be set", e);
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * The options of a client socket, only read when a client is used
+     */
+    private static final class ClientSocketDefaults {
+        private static final SocketDefaults DEFAULTS = probe();
+
+        private static SocketDefaults probe() {
+            try (SocketChannel channel = SocketChannel.open()) {
+                return new SocketDefaults(channel.socket());
+            } catch (IOException e) {
+                LOG.warn("Can't read the default socket options, all the configured options will be set", e);
+
+                return null;
+            }
+        }
+    }
+}
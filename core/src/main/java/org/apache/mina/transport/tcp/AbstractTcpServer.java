@@ -20,6 +20,7 @@
 package org.apache.mina.transport.tcp;
 
 import org.apache.mina.service.executor.IoHandlerExecutor;
+import org.apache.mina.service.executor.OrderedHandlerExecutor;
 import org.apache.mina.service.server.AbstractIoServer;
 
 /**
@@ -28,6 +29,8 @@ import org.apache.mina.service.server.AbstractIoServer;
  * @author <a href="http://mina.apache.org">Apache MINA Project</a>
  */
 public abstract class AbstractTcpServer extends AbstractIoServer {
+    /** The admission control of the new connections, <code>null</code> for accepting all of them */
+    private volatile AdmissionController admissionController;
 
     /**
      * Create an new AbsractTcpServer instance
@@ -68,4 +71,56 @@ public abstract class AbstractTcpServer extends AbstractIoServer {
     public void setSessionConfig(TcpSessionConfig config) {
         this.config = config;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return the admission control of the new connections, <code>null</code> if all the connections are accepted
+     */
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * Set the admission control of the new connections, for not accepting more connections when the server is
+     * overloaded.
+     * 
+     * @param admissionController the admission control, <code>null</code> for accepting all the connections
+     */
+    public void setAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    /**
+     * Tells if a new connection can be accepted, updating the admission control with the current load.
+     * 
+     * @return <code>true</code> if there is no admission control, or if the server is not overloaded
+     */
+    protected boolean isAdmissionOpen() {
+        AdmissionController controller = admissionController;
+
+        if (controller == null) {
+            return true;
+        }
+
+        return controller.update(getManagedSessions().size(), getExecutorQueueDepth(), getLoopUtilisation());
+    }
+
+    /**
+     * @return the number of events waiting for the {@link IoHandlerExecutor}, 0 if it can't be known
+     */
+    protected int getExecutorQueueDepth() {
+        IoHandlerExecutor executor = getIoHandlerExecutor();
+
+        if (executor instanceof OrderedHandlerExecutor) {
+            return ((OrderedHandlerExecutor) executor).getQueueDepth();
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return the recent utilisation of the I/O threads, between 0 and 1. Returns 0 if it can't be known.
+     */
+    protected double getLoopUtilisation() {
+        return 0d;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.transport.tcp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides if a TCP server accepts new connections, depending on its load : accepting more connections when the server
+ * is saturated only makes the latency worse for all the sessions. The load is given by three metrics, each one with a
+ * threshold for closing the admission and a lower one for opening it again, so that the admission does not flap :
+ * <ul>
+ * <li>the number of managed sessions</li>
+ * <li>the number of events waiting in the {@link org.apache.mina.service.executor.IoHandlerExecutor} queues</li>
+ * <li>the recent utilisation of the selector loops</li>
+ * </ul>
+ * When the admission is closed, the server either stops accepting ({@link Mode#PAUSE_ACCEPT}) : the new connections
+ * wait in the backlog, or accepts and closes them immediately ({@link Mode#REJECT}) : the clients get a fast failure
+ * and can try another server.
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class AdmissionController {
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger(AdmissionController.class);
+
+    /** What the server does with the new connections when the admission is closed */
+    public enum Mode {
+        /** Stop accepting, the new connections wait in the backlog */
+        PAUSE_ACCEPT,
+        /** Accept and reset the new connections */
+        REJECT
+    }
+
+    /** The default period of the load checks while the accepting is paused */
+    public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 100L;
+
+    /** The session count closing the admission */
+    private int maxSessions = Integer.MAX_VALUE;
+
+    /** The session count opening the admission again */
+    private int resumeSessions = Integer.MAX_VALUE;
+
+    /** The executor queue depth closing the admission */
+    private int maxExecutorQueueDepth = Integer.MAX_VALUE;
+
+    /** The executor queue depth opening the admission again */
+    private int resumeExecutorQueueDepth = Integer.MAX_VALUE;
+
+    /** The loop utilisation closing the admission, more than 1 for never closing it */
+    private double maxLoopUtilisation = Double.MAX_VALUE;
+
+    /** The loop utilisation opening the admission again */
+    private double resumeLoopUtilisation = Double.MAX_VALUE;
+
+    /** What the server does when the admission is closed */
+    private volatile Mode mode = Mode.PAUSE_ACCEPT;
+
+    /** The period of the load checks while the accepting is paused */
+    private volatile long checkIntervalMillis = DEFAULT_CHECK_INTERVAL_MILLIS;
+
+    /** Tells if the admission is closed */
+    private volatile boolean overloaded;
+
+    /** The number of times the admission was closed */
+    private final AtomicLong overloadCount = new AtomicLong();
+
+    /** The number of connections accepted and closed because of the overload */
+    private final AtomicLong rejectedConnectionCount = new AtomicLong();
+
+    /**
+     * Update the admission state from the current load of the server. The admission is closed as soon as one of the
+     * metrics reaches its threshold, and opened again when all the metrics are at or under their resume threshold.
+     *
+     * @param sessionCount the number of managed sessions
+     * @param executorQueueDepth the number of events waiting for the handler executor
+     * @param loopUtilisation the recent utilisation of the selector loops, between 0 and 1
+     * @return <code>true</code> if new connections can be accepted
+     */
+    public synchronized boolean update(int sessionCount, int executorQueueDepth, double loopUtilisation) {
+        if (!overloaded) {
+            if ((sessionCount >= maxSessions) || (executorQueueDepth >= maxExecutorQueueDepth)
+                    || (loopUtilisation >= maxLoopUtilisation)) {
+                overloaded = true;
+                overloadCount.incrementAndGet();
+                LOG.warn("Server overloaded ({} sessions, {} queued events, loop utilisation {}), closing the admission",
+                        new Object[] { sessionCount, executorQueueDepth, loopUtilisation });
+            }
+        } else if ((sessionCount <= resumeSessions) && (executorQueueDepth <= resumeExecutorQueueDepth)
+                && (loopUtilisation <= resumeLoopUtilisation)) {
+            overloaded = false;
+            LOG.info("Server load back to normal ({} sessions, {} queued events, loop utilisation {}), "
+                    + "opening the admission", new Object[] { sessionCount, executorQueueDepth, loopUtilisation });
+        }
+
+        return !overloaded;
+    }
+
+    /**
+     * @return <code>true</code> if the admission is closed
+     */
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    /**
+     * Sets the number of sessions closing the admission, and the number opening it again.
+     *
+     * @param maxSessions the session count closing the admission
+     * @param resumeSessions the session count opening the admission again, lower than maxSessions
+     */
+    public synchronized void setSessionThresholds(int maxSessions, int resumeSessions) {
+        if (maxSessions <= 0) {
+            throw new IllegalArgumentException("maxSessions: " + maxSessions + " (expected: 1+)");
+        }
+
+        if ((resumeSessions < 0) || (resumeSessions >= maxSessions)) {
+            throw new IllegalArgumentException("resumeSessions: " + resumeSessions + " (expected: 0 to "
+                    + (maxSessions - 1) + ")");
+        }
+
+        this.maxSessions = maxSessions;
+        this.resumeSessions = resumeSessions;
+    }
+
+    /**
+     * Sets the number of events waiting in the handler executor closing the admission, and the number opening it
+     * again.
+     *
+     * @param maxExecutorQueueDepth the queue depth closing the admission
+     * @param resumeExecutorQueueDepth the queue depth opening the admission again, lower than maxExecutorQueueDepth
+     */
+    public synchronized void setExecutorQueueThresholds(int maxExecutorQueueDepth, int resumeExecutorQueueDepth) {
+        if (maxExecutorQueueDepth <= 0) {
+            throw new IllegalArgumentException("maxExecutorQueueDepth: " + maxExecutorQueueDepth + " (expected: 1+)");
+        }
+
+        if ((resumeExecutorQueueDepth < 0) || (resumeExecutorQueueDepth >= maxExecutorQueueDepth)) {
+            throw new IllegalArgumentException("resumeExecutorQueueDepth: " + resumeExecutorQueueDepth
+                    + " (expected: 0 to " + (maxExecutorQueueDepth - 1) + ")");
+        }
+
+        this.maxExecutorQueueDepth = maxExecutorQueueDepth;
+        this.resumeExecutorQueueDepth = resumeExecutorQueueDepth;
+    }
+
+    /**
+     * Sets the selector loop utilisation closing the admission, and the one opening it again.
+     *
+     * @param maxLoopUtilisation the utilisation closing the admission, between 0 and 1
+     * @param resumeLoopUtilisation the utilisation opening the admission again, lower than maxLoopUtilisation
+     */
+    public synchronized void setLoopUtilisationThresholds(double maxLoopUtilisation, double resumeLoopUtilisation) {
+        if ((maxLoopUtilisation <= 0d) || (maxLoopUtilisation > 1d)) {
+            throw new IllegalArgumentException("maxLoopUtilisation: " + maxLoopUtilisation + " (expected: ]0, 1])");
+        }
+
+        if ((resumeLoopUtilisation < 0d) || (resumeLoopUtilisation >= maxLoopUtilisation)) {
+            throw new IllegalArgumentException("resumeLoopUtilisation: " + resumeLoopUtilisation + " (expected: [0, "
+                    + maxLoopUtilisation + "[)");
+        }
+
+        this.maxLoopUtilisation = maxLoopUtilisation;
+        this.resumeLoopUtilisation = resumeLoopUtilisation;
+    }
+
+    /**
+     * @return what the server does with the new connections when the admission is closed
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @param mode what the server does with the new connections when the admission is closed
+     */
+    public void setMode(Mode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Parameter >mode< must not be null!");
+        }
+
+        this.mode = mode;
+    }
+
+    /**
+     * @return the period of the load checks while the accepting is paused, in milliseconds
+     */
+    public long getCheckIntervalMillis() {
+        return checkIntervalMillis;
+    }
+
+    /**
+     * @param checkIntervalMillis the period of the load checks while the accepting is paused, in milliseconds
+     */
+    public void setCheckIntervalMillis(long checkIntervalMillis) {
+        if (checkIntervalMillis <= 0) {
+            throw new IllegalArgumentException("checkIntervalMillis: " + checkIntervalMillis + " (expected: 1+)");
+        }
+
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    /**
+     * Called by the server when it resets a connection because the admission is closed.
+     */
+    public void connectionRejected() {
+        rejectedConnectionCount.incrementAndGet();
+    }
+
+    /**
+     * @return the number of times the admission was closed
+     */
+    public long getOverloadCount() {
+        return overloadCount.get();
+    }
+
+    /**
+     * @return the number of connections accepted and reset because the admission was closed
+     */
+    public long getRejectedConnectionCount() {
+        return rejectedConnectionCount.get();
+    }
+}
@@ -48,6 +48,24 @@ public class DefaultTcpSessionConfig extends AbstractIoSessionConfig implements
     /** The SO_LINGER socket option */
     private Integer soLinger;
 
+    /** The maximum number of reads for one read event */
+    private int maxReadsPerEvent = DEFAULT_MAX_READS_PER_EVENT;
+
+    /** The maximum number of bytes read for one read event */
+    private int maxBytesPerReadEvent = DEFAULT_MAX_BYTES_PER_READ_EVENT;
+
+    /** The server socket backlog, <code>null</code> for the default */
+    private Integer backlog;
+
+    /** Tells if the writes are queued until the next flush */
+    private boolean corked;
+
+    /** Tells if only the selector loop writes to the channel */
+    private boolean singleWriter;
+
+    /** The number of urgent messages written in a row while normal messages wait, 0 for a strict priority */
+    private int writePriorityWeight;
+
     /**
      * {@inheritDoc}
      */
@@ -139,4 +157,116 @@ public class DefaultTcpSessionConfig extends AbstractIoSessionConfig implements
     public boolean isSecured() {
         return sslContext != null;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxReadsPerEvent() {
+        return maxReadsPerEvent;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxReadsPerEvent(int maxReadsPerEvent) {
+        if (maxReadsPerEvent <= 0) {
+            throw new IllegalArgumentException("maxReadsPerEvent: " + maxReadsPerEvent + " (expected: 1+)");
+        }
+
+        this.maxReadsPerEvent = maxReadsPerEvent;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxBytesPerReadEvent() {
+        return maxBytesPerReadEvent;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxBytesPerReadEvent(int maxBytesPerReadEvent) {
+        if (maxBytesPerReadEvent <= 0) {
+            throw new IllegalArgumentException("maxBytesPerReadEvent: " + maxBytesPerReadEvent + " (expected: 1+)");
+        }
+
+        this.maxBytesPerReadEvent = maxBytesPerReadEvent;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setBacklog(int backlog) {
+        if (backlog < 0) {
+            throw new IllegalArgumentException("backlog: " + backlog + " (expected: 0+)");
+        }
+
+        this.backlog = backlog;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCorked() {
+        return corked;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setCorked(boolean corked) {
+        this.corked = corked;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isSingleWriter() {
+        return singleWriter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSingleWriter(boolean singleWriter) {
+        this.singleWriter = singleWriter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getWritePriorityWeight() {
+        return writePriorityWeight;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setWritePriorityWeight(int writePriorityWeight) {
+        if (writePriorityWeight < 0) {
+            throw new IllegalArgumentException("writePriorityWeight: " + writePriorityWeight + " (expected: 0+)");
+        }
+
+        this.writePriorityWeight = writePriorityWeight;
+    }
 }
@@ -48,6 +48,33 @@ public class ProxyTcpSessionConfig implements TcpSessionConfig {
 
     private long idleTimeWrite = -1;
 
+    /** The maximum number of reads for one read event */
+    private int maxReadsPerEvent = DEFAULT_MAX_READS_PER_EVENT;
+
+    /** The maximum number of bytes read for one read event */
+    private int maxBytesPerReadEvent = DEFAULT_MAX_BYTES_PER_READ_EVENT;
+
+    /** The server socket backlog, <code>null</code> for the default */
+    private Integer backlog;
+
+    /** Tells if the writes are queued until the next flush */
+    private boolean corked;
+
+    /** Tells if only the selector loop writes to the channel */
+    private boolean singleWriter;
+
+    /** The number of urgent messages written in a row while normal messages wait, 0 for a strict priority */
+    private int writePriorityWeight;
+
+    /** The number of queued bytes above which the session is not writable */
+    private int writeQueueHighWatermark = DEFAULT_WRITE_QUEUE_HIGH_WATERMARK;
+
+    /** The number of queued bytes under which the session is writable again */
+    private int writeQueueLowWatermark = DEFAULT_WRITE_QUEUE_LOW_WATERMARK;
+
+    /** Tells if the received buffers given to the handler executor are pooled */
+    private boolean pooledReceiveBuffers;
+
     /**
      * {@inheritDoc}
      */
@@ -333,4 +360,166 @@ public class ProxyTcpSessionConfig implements TcpSessionConfig {
             throw new ConfigurationException(e);
         }
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxReadsPerEvent() {
+        return maxReadsPerEvent;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxReadsPerEvent(int maxReadsPerEvent) {
+        if (maxReadsPerEvent <= 0) {
+            throw new IllegalArgumentException("maxReadsPerEvent: " + maxReadsPerEvent + " (expected: 1+)");
+        }
+
+        this.maxReadsPerEvent = maxReadsPerEvent;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxBytesPerReadEvent() {
+        return maxBytesPerReadEvent;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxBytesPerReadEvent(int maxBytesPerReadEvent) {
+        if (maxBytesPerReadEvent <= 0) {
+            throw new IllegalArgumentException("maxBytesPerReadEvent: " + maxBytesPerReadEvent + " (expected: 1+)");
+        }
+
+        this.maxBytesPerReadEvent = maxBytesPerReadEvent;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setBacklog(int backlog) {
+        if (backlog < 0) {
+            throw new IllegalArgumentException("backlog: " + backlog + " (expected: 0+)");
+        }
+
+        this.backlog = backlog;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getWriteQueueHighWatermark() {
+        return writeQueueHighWatermark;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getWriteQueueLowWatermark() {
+        return writeQueueLowWatermark;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setWriteQueueWatermarks(int lowWatermark, int highWatermark) {
+        if (lowWatermark < 0) {
+            throw new IllegalArgumentException("lowWatermark: " + lowWatermark + " (expected: 0+)");
+        }
+
+        if (highWatermark < lowWatermark) {
+            throw new IllegalArgumentException("highWatermark: " + highWatermark + " (expected: " + lowWatermark
+                    + "+)");
+        }
+
+        this.writeQueueLowWatermark = lowWatermark;
+        this.writeQueueHighWatermark = highWatermark;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCorked() {
+        return corked;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setCorked(boolean corked) {
+        this.corked = corked;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isSingleWriter() {
+        return singleWriter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSingleWriter(boolean singleWriter) {
+        this.singleWriter = singleWriter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getWritePriorityWeight() {
+        return writePriorityWeight;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setWritePriorityWeight(int writePriorityWeight) {
+        if (writePriorityWeight < 0) {
+            throw new IllegalArgumentException("writePriorityWeight: " + writePriorityWeight + " (expected: 0+)");
+        }
+
+        this.writePriorityWeight = writePriorityWeight;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isPooledReceiveBuffers() {
+        return pooledReceiveBuffers;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setPooledReceiveBuffers(boolean pooledReceiveBuffers) {
+        this.pooledReceiveBuffers = pooledReceiveBuffers;
+    }
 }
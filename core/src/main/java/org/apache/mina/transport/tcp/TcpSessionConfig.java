@@ -18,6 +18,7 @@
  */
 package org.apache.mina.transport.tcp;
 
+import java.net.ServerSocket;
 import java.net.Socket;
 
 import javax.net.ssl.SSLContext;
@@ -30,6 +31,12 @@ import org.apache.mina.api.IoSessionConfig;
  * @author <a href="http://mina.apache.org">Apache MINA Project</a>
  */
 public interface TcpSessionConfig extends IoSessionConfig {
+    /** The default maximum number of reads done for one read readiness event */
+    int DEFAULT_MAX_READS_PER_EVENT = 16;
+
+    /** The default maximum number of bytes read for one read readiness event */
+    int DEFAULT_MAX_BYTES_PER_READ_EVENT = 1024 * 1024;
+
     /**
      * @see Socket#getTcpNoDelay()
      */
@@ -99,4 +106,94 @@ public interface TcpSessionConfig extends IoSessionConfig {
      * @return The {@link SSLContext} instance stored in the configuration.
      */
     void setSslContext(SSLContext sslContext);
+
+    /**
+     * @return the maximum number of reads done on the socket when it's readable, before giving the selector loop to
+     *         the other sessions
+     */
+    int getMaxReadsPerEvent();
+
+    /**
+     * Sets the maximum number of reads done on the socket when it's readable. The session keeps reading until the
+     * socket is drained, or this budget is used.
+     * 
+     * @param maxReadsPerEvent the number of reads, 1 for reading only once per event
+     */
+    void setMaxReadsPerEvent(int maxReadsPerEvent);
+
+    /**
+     * @return the maximum number of bytes read on the socket when it's readable, before giving the selector loop to
+     *         the other sessions
+     */
+    int getMaxBytesPerReadEvent();
+
+    /**
+     * Sets the maximum number of bytes read on the socket when it's readable, so that one bulk sender can't starve the
+     * other sessions of its selector loop.
+     * 
+     * @param maxBytesPerReadEvent the number of bytes
+     */
+    void setMaxBytesPerReadEvent(int maxBytesPerReadEvent);
+
+    /**
+     * @see ServerSocket#bind(java.net.SocketAddress, int)
+     * return <code>null</code> if the default system value is used
+     */
+    Integer getBacklog();
+
+    /**
+     * Sets the maximum number of connections queued by the O/S until the server accepts them. Only used by the
+     * servers, when binding : the connections arriving when the queue is full are refused, or their SYN dropped.
+     * 
+     * @param backlog the queue length, 0 for using the JDK default (50)
+     * @see ServerSocket#bind(java.net.SocketAddress, int)
+     */
+    void setBacklog(int backlog);
+
+    /**
+     * @return <code>true</code> if the writes are only queued, until the session is flushed
+     */
+    boolean isCorked();
+
+    /**
+     * Sets the corked mode. The messages written to a corked session are only queued : they are written when the
+     * session is flushed, or at the latest at the end of the current selector loop iteration, all together in one
+     * gathering write. This saves system calls and TCP segments when a handler writes several messages for one
+     * request.
+     * 
+     * @see org.apache.mina.api.IoSession#flush()
+     * @param corked <code>true</code> for queuing the writes until the next flush
+     */
+    void setCorked(boolean corked);
+
+    /**
+     * @return <code>true</code> if only the selector loop of the session writes to its channel
+     */
+    boolean isSingleWriter();
+
+    /**
+     * Sets the single writer mode. The messages written by the other threads than the session selector loop are handed
+     * to the loop, which writes them in the order they were handed, the ones handed during a loop iteration together :
+     * the writer threads don't contend with the loop for the write queue and the channel. Must be set before the
+     * session is written.
+     * 
+     * @param singleWriter <code>true</code> for writing the messages in the session selector loop only
+     */
+    void setSingleWriter(boolean singleWriter);
+
+    /**
+     * @return the number of urgent messages written in a row while normal messages are waiting, 0 for a strict priority
+     */
+    int getWritePriorityWeight();
+
+    /**
+     * Sets how the queued messages of the different priorities are shared. With a strict priority (0), the queued normal
+     * messages are only written when no urgent message is queued. With a weight, one queued normal message is written
+     * after the given number of urgent messages written in a row : a flow of urgent messages can't stall the normal
+     * ones.
+     * 
+     * @see org.apache.mina.api.WritePriority
+     * @param writePriorityWeight the number of urgent messages written in a row, 0 for a strict priority
+     */
+    void setWritePriorityWeight(int writePriorityWeight);
 }
@@ -0,0 +1,348 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.util;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct buffers, used instead of {@link ByteBuffer#allocateDirect(int)} for the short lived buffers : a
+ * direct allocation is slow, and the direct memory is only given back when the buffer is garbage collected.<br/>
+ * 
+ * The buffers are sized by power of two, from {@link #MIN_CHUNK_SIZE} to the maximum chunk size. Each size class cuts
+ * its buffers in slabs of {@link #SLAB_SIZE} bytes, allocated when no buffer of the class is free, as long as the
+ * arena is under its maximum size. The slabs are never freed : the arena keeps the memory of its peak usage.<br/>
+ * 
+ * The buffers can be acquired and released by any thread. The acquired and released buffers are counted : a number
+ * of outstanding buffers growing with no bound means that some buffers are not released. The arena knows the buffers
+ * it gave : a buffer which does not come from the arena, or which is released twice, is rejected instead of being
+ * given to two users.<br/>
+ * 
+ * A buffer shared by several users is retained by each new user with {@link #retain(ByteBuffer)}, and goes back to
+ * the arena after the last release.
+ * 
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class DirectBufferArena {
+    /** The size of the smallest buffers */
+    public static final int MIN_CHUNK_SIZE = 1024;
+
+    /** The size of the memory blocks cut in buffers */
+    public static final int SLAB_SIZE = 1024 * 1024;
+
+    /** The default size of the biggest buffers */
+    public static final int DEFAULT_MAX_CHUNK_SIZE = 256 * 1024;
+
+    /** The default maximum memory of an arena */
+    public static final long DEFAULT_MAX_ARENA_BYTES = 32L * 1024 * 1024;
+
+    /** The size classes, smallest first */
+    private final SizeClass[] sizeClasses;
+
+    /** The maximum memory of the arena */
+    private final long maxArenaBytes;
+
+    /** The memory allocated in slabs so far */
+    private final AtomicLong arenaBytes = new AtomicLong();
+
+    /** The number of buffers taken from the arena */
+    private final AtomicLong acquiredCount = new AtomicLong();
+
+    /** The number of buffers given back to the arena */
+    private final AtomicLong releasedCount = new AtomicLong();
+
+    /** The number of requests the arena could not serve, because of the size or the arena being full */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Creates an arena with the default sizes.
+     */
+    public DirectBufferArena() {
+        this(DEFAULT_MAX_CHUNK_SIZE, DEFAULT_MAX_ARENA_BYTES);
+    }
+
+    /**
+     * Creates an arena.
+     * 
+     * @param maxChunkSize the size of the biggest buffers, a power of two between {@link #MIN_CHUNK_SIZE} and
+     *        {@link #SLAB_SIZE}
+     * @param maxArenaBytes the maximum memory of the arena
+     */
+    public DirectBufferArena(int maxChunkSize, long maxArenaBytes) {
+        if ((maxChunkSize < MIN_CHUNK_SIZE) || (maxChunkSize > SLAB_SIZE) || (Integer.bitCount(maxChunkSize) != 1)) {
+            throw new IllegalArgumentException("maxChunkSize: " + maxChunkSize + " (expected: power of 2 between "
+                    + MIN_CHUNK_SIZE + " and " + SLAB_SIZE + ")");
+        }
+
+        if (maxArenaBytes < 0) {
+            throw new IllegalArgumentException("maxArenaBytes: " + maxArenaBytes + " (expected: 0+)");
+        }
+
+        int classCount = Integer.numberOfTrailingZeros(maxChunkSize)
+                - Integer.numberOfTrailingZeros(MIN_CHUNK_SIZE) + 1;
+        sizeClasses = new SizeClass[classCount];
+
+        for (int i = 0; i < classCount; i++) {
+            sizeClasses[i] = new SizeClass(MIN_CHUNK_SIZE << i);
+        }
+
+        this.maxArenaBytes = maxArenaBytes;
+    }
+
+    /**
+     * Takes a buffer from the arena. The buffer position is 0, and its limit is the requested size.
+     * 
+     * @param size the number of bytes needed
+     * @return the buffer, <code>null</code> if the size is bigger than the biggest buffers, or if the arena is full
+     */
+    public ByteBuffer acquire(int size) {
+        SizeClass sizeClass = sizeClass(size);
+        ByteBuffer buffer = (sizeClass == null) ? null : sizeClass.acquire();
+
+        if (buffer == null) {
+            missCount.incrementAndGet();
+
+            return null;
+        }
+
+        acquiredCount.incrementAndGet();
+        buffer.limit(size);
+
+        return buffer;
+    }
+
+    /**
+     * Adds a user to a buffer in use : the buffer goes back to the arena when all its users released it.
+     * 
+     * @param buffer the buffer
+     * @return <code>false</code> if the buffer is not in use : not acquired from this arena, or already released
+     */
+    public boolean retain(ByteBuffer buffer) {
+        SizeClass sizeClass = sizeClass(buffer.capacity());
+
+        return (sizeClass != null) && (sizeClass.chunkSize == buffer.capacity()) && sizeClass.retain(buffer);
+    }
+
+    /**
+     * Gives back a buffer taken from this arena. The buffer must not be used anymore by the caller. A retained buffer
+     * goes back to the arena on its last release.
+     * 
+     * @param buffer the buffer returned by {@link #acquire(int)}
+     */
+    public void release(ByteBuffer buffer) {
+        SizeClass sizeClass = sizeClass(buffer.capacity());
+
+        if ((sizeClass == null) || (sizeClass.chunkSize != buffer.capacity())) {
+            throw new IllegalArgumentException("The buffer " + buffer + " does not come from this arena");
+        }
+
+        if (sizeClass.release(buffer)) {
+            releasedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the size class of the buffers able to contain the given size, <code>null</code> if it's too big
+     */
+    private SizeClass sizeClass(int size) {
+        if (size <= MIN_CHUNK_SIZE) {
+            return sizeClasses[0];
+        }
+
+        int index = 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_CHUNK_SIZE);
+
+        return index < sizeClasses.length ? sizeClasses[index] : null;
+    }
+
+    /**
+     * Reserve the memory of a new slab
+     * 
+     * @return <code>true</code> if the arena is not full
+     */
+    private boolean reserveSlab() {
+        for (;;) {
+            long current = arenaBytes.get();
+
+            if (current + SLAB_SIZE > maxArenaBytes) {
+                return false;
+            }
+
+            if (arenaBytes.compareAndSet(current, current + SLAB_SIZE)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the size of the biggest buffers
+     */
+    public int getMaxChunkSize() {
+        return sizeClasses[sizeClasses.length - 1].chunkSize;
+    }
+
+    /**
+     * @return the memory allocated by the arena
+     */
+    public long getArenaBytes() {
+        return arenaBytes.get();
+    }
+
+    /**
+     * @return the number of buffers taken from the arena
+     */
+    public long getAcquiredCount() {
+        return acquiredCount.get();
+    }
+
+    /**
+     * @return the number of buffers given back to the arena
+     */
+    public long getReleasedCount() {
+        return releasedCount.get();
+    }
+
+    /**
+     * @return the number of buffers in use : a count growing with no bound means that some buffers are leaked
+     */
+    public long getOutstandingCount() {
+        return acquiredCount.get() - releasedCount.get();
+    }
+
+    /**
+     * @return the number of requests the arena could not serve, because of the size or the arena being full
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * The free buffers of a given size
+     */
+    private final class SizeClass {
+        /** The size of the buffers */
+        private final int chunkSize;
+
+        /** The free buffers, used as a stack so that the recently used memory is reused first. Guarded by this */
+        private ByteBuffer[] free = new ByteBuffer[0];
+
+        /** The number of free buffers. Guarded by this */
+        private int freeCount;
+
+        /**
+         * The number of users of the buffers in use, compared by identity as a buffer equality depends on its content.
+         * Guarded by this
+         */
+        private final Map<ByteBuffer, Integer> acquired = new IdentityHashMap<ByteBuffer, Integer>();
+
+        private SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        private synchronized ByteBuffer acquire() {
+            if ((freeCount == 0) && !allocateSlab()) {
+                return null;
+            }
+
+            ByteBuffer buffer = free[--freeCount];
+            free[freeCount] = null;
+            acquired.put(buffer, 1);
+
+            return buffer;
+        }
+
+        /**
+         * @return <code>false</code> if the buffer is not in use
+         */
+        private synchronized boolean retain(ByteBuffer buffer) {
+            Integer users = acquired.get(buffer);
+
+            if (users == null) {
+                return false;
+            }
+
+            acquired.put(buffer, users + 1);
+
+            return true;
+        }
+
+        /**
+         * @return <code>true</code> if the buffer went back to the free buffers, <code>false</code> if it is still
+         *         retained by other users
+         * @throws IllegalArgumentException if the buffer is not in use
+         */
+        private synchronized boolean release(ByteBuffer buffer) {
+            Integer users = acquired.get(buffer);
+
+            if (users == null) {
+                throw new IllegalArgumentException("The buffer " + buffer
+                        + " does not come from this arena, or was already released");
+            }
+
+            if (users > 1) {
+                acquired.put(buffer, users - 1);
+
+                return false;
+            }
+
+            acquired.remove(buffer);
+            buffer.clear();
+
+            if (freeCount == free.length) {
+                ByteBuffer[] grown = new ByteBuffer[Math.max(free.length * 2, SLAB_SIZE / chunkSize)];
+                System.arraycopy(free, 0, grown, 0, freeCount);
+                free = grown;
+            }
+
+            free[freeCount++] = buffer;
+
+            return true;
+        }
+
+        /**
+         * Cut a new slab in free buffers
+         * 
+         * @return <code>false</code> if the arena is full
+         */
+        private boolean allocateSlab() {
+            if (!reserveSlab()) {
+                return false;
+            }
+
+            ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+            int chunks = SLAB_SIZE / chunkSize;
+
+            if (free.length < freeCount + chunks) {
+                ByteBuffer[] grown = new ByteBuffer[Math.max(free.length * 2, freeCount + chunks)];
+                System.arraycopy(free, 0, grown, 0, freeCount);
+                free = grown;
+            }
+
+            for (int i = 0; i < chunks; i++) {
+                slab.limit((i + 1) * chunkSize);
+                slab.position(i * chunkSize);
+                free[freeCount++] = slab.slice();
+            }
+
+            return true;
+        }
+    }
+}
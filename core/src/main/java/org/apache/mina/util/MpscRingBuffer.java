@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.mina.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free, multi-producer/single-consumer queue backed by a ring of pre-allocated slots.<br>
+ *
+ * Any thread can call {@link #offer(Object)}, but only one thread (the consumer) is allowed to call {@link #poll()}.
+ * Each slot carries a sequence number telling if it is free for the producers or filled for the consumer, so that
+ * no node is allocated when an element is enqueued :
+ *
+ * <pre>
+ *   head (consumer)         tail (producers)
+ *     |                       |
+ *     v                       v
+ * +---+---+---+---+---+---+---+---+
+ * | E | E | E | E | E |   |   |   |
+ * +---+---+---+---+---+---+---+---+
+ * </pre>
+ *
+ * The capacity is rounded up to the next power of two.
+ *
+ * @param <E> the type of the queued elements
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class MpscRingBuffer<E> {
+    /** The slots */
+    private final AtomicReferenceArray<E> buffer;
+
+    /** The sequence of each slot, tells if the slot is ready to be written or to be read */
+    private final AtomicLongArray sequences;
+
+    /** The mask used to compute a slot index from a sequence */
+    private final int mask;
+
+    /** The next sequence to be claimed by a producer */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** The next sequence to be read by the consumer. Only written by the consumer thread */
+    private volatile long head;
+
+    /**
+     * Creates a new ring buffer.
+     *
+     * @param capacity the maximum number of elements, rounded up to the next power of two
+     */
+    public MpscRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity: " + capacity + " (expected: 1+)");
+        }
+
+        if (capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity: " + capacity + " (expected: less than 2^30)");
+        }
+
+        int size = 1;
+
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        mask = size - 1;
+        buffer = new AtomicReferenceArray<E>(size);
+        sequences = new AtomicLongArray(size);
+
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Inserts an element at the tail of the ring. Can be called by any thread.
+     *
+     * @param element the element to insert, can't be <code>null</code>
+     * @return <code>true</code> if the element was inserted, <code>false</code> if the ring is full
+     */
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new IllegalArgumentException("Parameter >element< must not be null!");
+        }
+
+        for (;;) {
+            long current = tail.get();
+            int index = (int) (current & mask);
+            long delta = sequences.get(index) - current;
+
+            if (delta == 0) {
+                // the slot is free, try to claim it
+                if (tail.compareAndSet(current, current + 1)) {
+                    buffer.lazySet(index, element);
+                    // publish the slot to the consumer
+                    sequences.lazySet(index, current + 1);
+
+                    return true;
+                }
+            } else if (delta < 0) {
+                // the consumer has not yet freed this slot : we are full
+                return false;
+            }
+
+            // another producer claimed the slot, try again with the new tail
+        }
+    }
+
+    /**
+     * Removes the element at the head of the ring. Must only be called by the consumer thread.
+     *
+     * @return the head element, or <code>null</code> if the ring is empty
+     */
+    public E poll() {
+        long current = head;
+        int index = (int) (current & mask);
+
+        if (sequences.get(index) != current + 1) {
+            // empty, or the producer has claimed the slot but not yet published it
+            return null;
+        }
+
+        E element = buffer.get(index);
+        buffer.lazySet(index, null);
+        // free the slot for the producers, one lap later
+        sequences.lazySet(index, current + mask + 1);
+        head = current + 1;
+
+        return element;
+    }
+
+    /**
+     * Tells if the ring contains no published element. Accurate when called by the consumer thread.
+     *
+     * @return <code>true</code> if there is nothing to poll
+     */
+    public boolean isEmpty() {
+        long current = head;
+
+        return sequences.get((int) (current & mask)) != current + 1;
+    }
+
+    /**
+     * Gets an estimation of the number of elements in the ring. The value is exact when no producer is running.
+     *
+     * @return the number of queued elements
+     */
+    public int size() {
+        long size = tail.get() - head;
+
+        if (size < 0) {
+            return 0;
+        }
+
+        return (int) Math.min(size, mask + 1);
+    }
+
+    /**
+     * @return the maximum number of elements this ring can hold
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.mina.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timing wheel : the timeouts are stored in a circular array of buckets, one bucket per tick, so that adding
+ * and cancelling a timeout are O(1) operations. A timeout further than one turn of the wheel stays in its bucket for
+ * as many rounds as needed.<br>
+ *
+ * The wheel has no thread : its owner (typically a selector loop) calls {@link #expire(long)} when the next tick is
+ * due, see {@link #nanosToNextExpiration(long)}. The wheel itself is not thread safe and must only be used by its owner
+ * thread, except {@link Timeout#cancel()} which can be called from any thread. A timeout cancelled by the owner thread
+ * is removed immediately, a timeout cancelled by another thread is queued and removed by the next call of the owner
+ * thread.<br>
+ *
+ * The timeouts are fired with the precision of a tick, never before their deadline.
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class TimingWheel {
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheel.class);
+
+    /** The default tick duration */
+    public static final long DEFAULT_TICK_MILLIS = 10;
+
+    /** The default number of buckets */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /** The buckets heads */
+    private final Timeout[] heads;
+
+    /** The buckets tails */
+    private final Timeout[] tails;
+
+    /** wheel size - 1, for computing the bucket index of a tick */
+    private final int mask;
+
+    /** The tick duration in nanoseconds */
+    private final long tickNanos;
+
+    /** The System.nanoTime() value of the tick 0 */
+    private final long startNanos;
+
+    /** The last processed tick */
+    private long currentTick;
+
+    /** The number of timeouts in the wheel */
+    private int size;
+
+    /** The thread using the wheel, the last one which added or expired some timeouts */
+    private volatile Thread owner;
+
+    /** Tells if the expired timeouts are being processed : the cancelled timeouts can't be unlinked meanwhile */
+    private boolean expiring;
+
+    /** The timeouts cancelled by another thread than the owner, or during the expiration, to be removed */
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates a timing wheel with the default tick duration and size
+     */
+    public TimingWheel() {
+        this(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Creates a timing wheel.
+     *
+     * @param tickDuration the duration of a tick, the precision of the timeouts
+     * @param unit the tick duration unit
+     * @param wheelSize the number of buckets, rounded up to a power of 2
+     */
+    public TimingWheel(long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration: " + tickDuration + " (expected: 1+)");
+        }
+
+        if ((wheelSize <= 0) || (wheelSize > (1 << 30))) {
+            throw new IllegalArgumentException("wheelSize: " + wheelSize + " (expected: 1 to 2^30)");
+        }
+
+        int buckets = Integer.highestOneBit(wheelSize);
+
+        if (buckets < wheelSize) {
+            buckets <<= 1;
+        }
+
+        heads = new Timeout[buckets];
+        tails = new Timeout[buckets];
+        mask = buckets - 1;
+        tickNanos = unit.toNanos(tickDuration);
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Creates a timeout, to be added later with {@link #add(Timeout)}. This allows a foreign thread to get the timeout
+     * handle (and maybe cancel it) before the owner thread adds it to the wheel.
+     *
+     * @param task the task to run when the timeout expires
+     * @param delay the delay before running the task
+     * @param unit the delay unit
+     * @return the timeout
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        if (task == null) {
+            throw new IllegalArgumentException("Parameter >task< must not be null!");
+        }
+
+        return new Timeout(this, task, System.nanoTime() + unit.toNanos(Math.max(delay, 0L)));
+    }
+
+    /**
+     * Creates a timeout and adds it to the wheel.
+     *
+     * @param task the task to run when the timeout expires
+     * @param delay the delay before running the task
+     * @param unit the delay unit
+     * @return the timeout
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = newTimeout(task, delay, unit);
+        add(timeout);
+
+        return timeout;
+    }
+
+    /**
+     * Adds a timeout created by {@link #newTimeout(Runnable, long, TimeUnit)} in the wheel.
+     *
+     * @param timeout the timeout to add
+     */
+    public void add(Timeout timeout) {
+        if (timeout.wheel != this) {
+            throw new IllegalArgumentException("The timeout was created by another wheel");
+        }
+
+        updateOwner();
+
+        if (timeout.state != Timeout.PENDING) {
+            // cancelled before being added
+            return;
+        }
+
+        // the first tick whose time is after the deadline, and at least the next one
+        long tick = Math.max(((timeout.deadline - startNanos) + tickNanos - 1) / tickNanos, currentTick + 1);
+
+        timeout.remainingRounds = (tick - currentTick - 1) / heads.length;
+        timeout.bucket = (int) (tick & mask);
+
+        Timeout tail = tails[timeout.bucket];
+
+        if (tail == null) {
+            heads[timeout.bucket] = timeout;
+        } else {
+            tail.next = timeout;
+            timeout.prev = tail;
+        }
+
+        tails[timeout.bucket] = timeout;
+        size++;
+    }
+
+    /**
+     * Run the tasks of the expired timeouts.
+     *
+     * @param now the current System.nanoTime() value
+     * @return the number of tasks run
+     */
+    public int expire(long now) {
+        updateOwner();
+        removeCancelledTimeouts();
+
+        int expired;
+
+        // the tasks may cancel some timeouts of the bucket being processed : they are removed afterward
+        expiring = true;
+
+        try {
+            expired = expireTicks((now - startNanos) / tickNanos);
+        } finally {
+            expiring = false;
+        }
+
+        removeCancelledTimeouts();
+
+        return expired;
+    }
+
+    /**
+     * Process the buckets until a tick
+     *
+     * @param lastTick the last tick to process
+     * @return the number of tasks run
+     */
+    private int expireTicks(long lastTick) {
+        int expired = 0;
+
+        while (currentTick < lastTick) {
+            currentTick++;
+
+            int bucket = (int) (currentTick & mask);
+            Timeout timeout = heads[bucket];
+
+            // the tasks may add timeouts in this bucket for the next turn, they must not be processed now
+            Timeout last = tails[bucket];
+
+            while (timeout != null) {
+                Timeout next = (timeout == last) ? null : timeout.next;
+
+                if (timeout.state != Timeout.PENDING) {
+                    remove(timeout);
+                } else if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+
+                    if (timeout.expire()) {
+                        expired++;
+
+                        try {
+                            timeout.task.run();
+                        } catch (Exception e) {
+                            LOG.error("Exception while running a timeout task", e);
+                        }
+                    }
+                } else {
+                    timeout.remainingRounds--;
+                }
+
+                timeout = next;
+            }
+
+            if (size == 0) {
+                // nothing left : jump to the last tick
+                currentTick = lastTick;
+            }
+        }
+
+        return expired;
+    }
+
+    /**
+     * Computes the time before the next tick having something to expire.
+     *
+     * @param now the current System.nanoTime() value
+     * @return the number of nanoseconds to wait, 0 if some timeouts already expired, -1 if the wheel is empty
+     */
+    public long nanosToNextExpiration(long now) {
+        removeCancelledTimeouts();
+
+        if (size == 0) {
+            return -1L;
+        }
+
+        // look for the first non empty bucket : even if its timeouts are for a later round, we must wake up for
+        // decrementing their remaining rounds
+        long tick = currentTick + 1;
+
+        for (int i = 0; i < heads.length; i++, tick++) {
+            if (heads[(int) (tick & mask)] != null) {
+                break;
+            }
+        }
+
+        return Math.max(0L, (startNanos + tick * tickNanos) - now);
+    }
+
+    /**
+     * @return the number of timeouts in the wheel, the cancelled ones are not counted
+     */
+    public int size() {
+        removeCancelledTimeouts();
+
+        return size;
+    }
+
+    /**
+     * Remember the thread using the wheel, the only one which can unlink a cancelled timeout immediately
+     */
+    private void updateOwner() {
+        Thread current = Thread.currentThread();
+
+        if (owner != current) {
+            owner = current;
+        }
+    }
+
+    /**
+     * Called when a timeout is cancelled : it's unlinked if we are in the owner thread, queued otherwise
+     */
+    private void cancelled(Timeout timeout) {
+        if ((owner == Thread.currentThread()) && !expiring) {
+            if (timeout.bucket != -1) {
+                remove(timeout);
+            }
+        } else {
+            cancelledTimeouts.add(timeout);
+        }
+    }
+
+    /**
+     * Unlink the timeouts cancelled by another thread, or during the expiration
+     */
+    private void removeCancelledTimeouts() {
+        Timeout timeout;
+
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            // a timeout may be cancelled before being added, or be removed by the expiration meanwhile
+            if (timeout.bucket != -1) {
+                remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * Unlink a timeout from its bucket
+     */
+    private void remove(Timeout timeout) {
+        if (timeout.prev == null) {
+            heads[timeout.bucket] = timeout.next;
+        } else {
+            timeout.prev.next = timeout.next;
+        }
+
+        if (timeout.next == null) {
+            tails[timeout.bucket] = timeout.prev;
+        } else {
+            timeout.next.prev = timeout.prev;
+        }
+
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        size--;
+    }
+
+    /**
+     * A task scheduled in a {@link TimingWheel}
+     */
+    public static final class Timeout {
+        /** The timeout is waiting for its deadline */
+        private static final int PENDING = 0;
+
+        /** The timeout was cancelled */
+        private static final int CANCELLED = 1;
+
+        /** The task was run */
+        private static final int EXPIRED = 2;
+
+        /** The wheel owning this timeout */
+        private final TimingWheel wheel;
+
+        /** The task to run */
+        private final Runnable task;
+
+        /** The System.nanoTime() value after which the task must be run */
+        private final long deadline;
+
+        /** Updates the state, which may be changed by a foreign thread when cancelling */
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER = AtomicIntegerFieldUpdater
+                .newUpdater(Timeout.class, "state");
+
+        /** The state, may be changed by a foreign thread when cancelling */
+        private volatile int state = PENDING;
+
+        /** The number of wheel turns before the timeout expires */
+        private long remainingRounds;
+
+        /** The bucket holding this timeout, -1 if it's not in the wheel */
+        private int bucket = -1;
+
+        /** The previous timeout in the bucket */
+        private Timeout prev;
+
+        /** The next timeout in the bucket */
+        private Timeout next;
+
+        private Timeout(TimingWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the timeout : the task won't be run if it was not already. Can be called from any thread, the timeout
+         * is removed from the wheel immediately when called by the wheel owner thread, at the next call of the owner
+         * thread otherwise.
+         *
+         * @return <code>true</code> if the timeout was cancelled, <code>false</code> if the task was already run
+         */
+        public boolean cancel() {
+            if (STATE_UPDATER.compareAndSet(this, PENDING, CANCELLED)) {
+                wheel.cancelled(this);
+
+                return true;
+            }
+
+            return state == CANCELLED;
+        }
+
+        /**
+         * Mark the timeout as expired, unless it was cancelled meanwhile
+         *
+         * @return <code>true</code> if the task must be run
+         */
+        private boolean expire() {
+            return STATE_UPDATER.compareAndSet(this, PENDING, EXPIRED);
+        }
+
+        /**
+         * @return <code>true</code> if the timeout was cancelled
+         */
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        /**
+         * @return <code>true</code> if the task was run
+         */
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.filter.codec;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.api.AbstractIoHandler;
+import org.apache.mina.api.IoSession;
+import org.apache.mina.codec.IoBuffer;
+import org.apache.mina.codec.delimited.ByteBufferEncoder;
+import org.apache.mina.codec.delimited.IoBufferDecoder;
+import org.apache.mina.codec.delimited.SizePrefixedDecoder;
+import org.apache.mina.codec.delimited.SizePrefixedEncoder;
+import org.apache.mina.codec.delimited.ints.RawInt32;
+import org.apache.mina.transport.nio.NioTcpServer;
+import org.junit.Test;
+
+/**
+ * Tests the cumulative mode of {@link ProtocolCodecFilter} : the messages are decoded whatever the way the stream is
+ * split in reads.
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class CumulativeProtocolCodecFilterTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int WAIT_TIME = 5000;
+
+    private final SizePrefixedEncoder<String> encoder = new SizePrefixedEncoder<String>(
+            new RawInt32(ByteOrder.BIG_ENDIAN).getEncoder(), new StringEncoder());
+
+    @Test
+    public void messagesAreDecodedWhateverTheReads() throws Exception {
+        final BlockingQueue<String> received = new LinkedBlockingQueue<String>();
+
+        NioTcpServer server = new NioTcpServer();
+        server.setFilters(ProtocolCodecFilter.newCumulativeInstance(encoder, new SizePrefixedDecoder<String>(
+                new RawInt32(ByteOrder.BIG_ENDIAN).getDecoder(), new StringDecoder())));
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void messageReceived(IoSession session, Object message) {
+                received.add((String) message);
+            }
+        });
+        server.bind(0);
+
+        int port = server.getServerSocketChannel().socket().getLocalPort();
+        Socket client = new Socket("127.0.0.1", port);
+
+        try {
+            OutputStream out = client.getOutputStream();
+
+            // a message sent byte per byte
+            for (byte b : encode("first")) {
+                out.write(b);
+                out.flush();
+                Thread.sleep(2);
+            }
+
+            assertEquals("first", received.poll(WAIT_TIME, TimeUnit.MILLISECONDS));
+
+            // several messages in the same write, the last one being incomplete
+            byte[] next = concat(encode("second"), encode("third"), encode("fourth"));
+            out.write(next, 0, next.length - 3);
+            out.flush();
+
+            assertEquals("second", received.poll(WAIT_TIME, TimeUnit.MILLISECONDS));
+            assertEquals("third", received.poll(WAIT_TIME, TimeUnit.MILLISECONDS));
+
+            Thread.sleep(50);
+            out.write(next, next.length - 3, 3);
+            out.flush();
+
+            assertEquals("fourth", received.poll(WAIT_TIME, TimeUnit.MILLISECONDS));
+
+            // a message larger than the read buffer
+            char[] chars = new char[200000];
+            Arrays.fill(chars, 'x');
+            String large = new String(chars);
+            out.write(concat(encode(large), encode("last")));
+            out.flush();
+
+            assertEquals(large, received.poll(WAIT_TIME, TimeUnit.MILLISECONDS));
+            assertEquals("last", received.poll(WAIT_TIME, TimeUnit.MILLISECONDS));
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
+    private byte[] encode(String message) {
+        ByteBuffer buffer = encoder.encode(message, null);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+
+        for (byte[] array : arrays) {
+            buffer.put(array);
+        }
+
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static class StringEncoder extends ByteBufferEncoder<String> {
+        @Override
+        public int getEncodedSize(String message) {
+            return message.getBytes(UTF8).length;
+        }
+
+        @Override
+        public void writeTo(String message, ByteBuffer buffer) {
+            buffer.put(message.getBytes(UTF8));
+        }
+    }
+
+    private static class StringDecoder extends IoBufferDecoder<String> {
+        @Override
+        public String decode(IoBuffer input) {
+            byte[] bytes = new byte[input.remaining()];
+            input.get(bytes);
+
+            return new String(bytes, UTF8);
+        }
+    }
+}
@@ -128,6 +128,7 @@ public class HandlerCallerTest {
         verify(session).getService();
         verify(service).getIoHandler();
         verify(handler).messageReceived(session, msg);
+        verify(event).release();
 
         verifyNoMoreInteractions(session, event, handler);
     }
@@ -153,4 +154,23 @@ public class HandlerCallerTest {
         verifyNoMoreInteractions(session, event, handler);
     }
 
+    @Test
+    public void call_writability_changed() {
+        // prepare
+        WritabilityChangedEvent event = mock(WritabilityChangedEvent.class);
+        when(event.isWritable()).thenReturn(false);
+        when(event.getSession()).thenReturn(session);
+
+        // run
+        caller.visit(event);
+
+        // verify
+        verify(event).getSession();
+        verify(event).isWritable();
+        verify(session).getService();
+        verify(service).getIoHandler();
+        verify(handler).writabilityChanged(session, false);
+
+        verifyNoMoreInteractions(session, event, handler);
+    }
 }
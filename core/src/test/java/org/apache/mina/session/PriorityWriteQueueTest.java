@@ -0,0 +1,104 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.apache.mina.api.WritePriority;
+import org.junit.Test;
+
+/**
+ * Tests class {@link PriorityWriteQueue}
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class PriorityWriteQueueTest {
+
+    private static WriteRequest request(String message, WritePriority priority) {
+        WriteRequest writeRequest = new DefaultWriteRequest(message);
+        writeRequest.setPriority(priority);
+
+        return writeRequest;
+    }
+
+    @Test
+    public void requestsAreAddedToTheLaneOfTheirPriority() {
+        PriorityWriteQueue queue = new PriorityWriteQueue();
+        WriteRequest normal = request("normal", WritePriority.NORMAL);
+        WriteRequest urgent = request("urgent", WritePriority.URGENT);
+
+        assertTrue(queue.isEmpty());
+        queue.add(normal);
+        queue.add(urgent);
+
+        assertEquals(2, queue.size());
+        assertFalse(queue.isEmpty());
+        assertSame(urgent, queue.getLane(WritePriority.URGENT.ordinal()).peek());
+        assertSame(normal, queue.getLane(WritePriority.NORMAL.ordinal()).peek());
+    }
+
+    @Test
+    public void urgentRequestsComeFirst() {
+        PriorityWriteQueue queue = new PriorityWriteQueue();
+        WriteRequest normal1 = request("normal1", WritePriority.NORMAL);
+        WriteRequest normal2 = request("normal2", WritePriority.NORMAL);
+        WriteRequest urgent1 = request("urgent1", WritePriority.URGENT);
+        WriteRequest urgent2 = request("urgent2", WritePriority.URGENT);
+
+        queue.add(normal1);
+        queue.add(urgent1);
+        queue.add(normal2);
+        queue.add(urgent2);
+
+        Iterator<WriteRequest> iterator = queue.iterator();
+        assertSame(urgent1, iterator.next());
+        assertSame(urgent2, iterator.next());
+        assertSame(normal1, iterator.next());
+        assertSame(normal2, iterator.next());
+        assertFalse(iterator.hasNext());
+
+        assertSame(urgent1, queue.peek());
+        assertSame(urgent1, queue.poll());
+        assertSame(urgent2, queue.poll());
+        assertSame(normal1, queue.poll());
+        assertSame(normal2, queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void iteratorSkipsEmptyLanes() {
+        PriorityWriteQueue queue = new PriorityWriteQueue();
+        WriteRequest normal = request("normal", WritePriority.NORMAL);
+        queue.add(normal);
+
+        Iterator<WriteRequest> iterator = queue.iterator();
+        assertTrue(iterator.hasNext());
+        assertSame(normal, iterator.next());
+        assertFalse(iterator.hasNext());
+        assertFalse(new PriorityWriteQueue().iterator().hasNext());
+    }
+}
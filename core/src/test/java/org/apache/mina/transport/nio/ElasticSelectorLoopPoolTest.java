@@ -0,0 +1,86 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.transport.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ElasticSelectorLoopPool}
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class ElasticSelectorLoopPoolTest {
+
+    private static final SelectorListener NOOP_LISTENER = new SelectorListener() {
+        @Override
+        public void ready(boolean accept, boolean connect, boolean read, ByteBuffer readBuffer, boolean write) {
+        }
+    };
+
+    private static void registerPipe(SelectorLoop loop) throws IOException {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        loop.register(false, false, true, false, NOOP_LISTENER, pipe.source(), null);
+    }
+
+    @Test
+    public void loopsAreCreatedAndStartedOnDemand() throws IOException {
+        ElasticSelectorLoopPool pool = new ElasticSelectorLoopPool("test", 4);
+        assertEquals(0, pool.getSize());
+
+        SelectorLoop loop = pool.getSelectorLoop();
+        assertEquals(1, pool.getSize());
+        assertEquals(0, pool.getRunningLoopCount());
+
+        registerPipe(loop);
+        assertEquals(1, pool.getRunningLoopCount());
+
+        // not loaded : the same loop is given again
+        assertSame(loop, pool.getSelectorLoop());
+        assertEquals(1, pool.getSize());
+    }
+
+    @Test
+    public void poolGrowsUpToItsMaximumSize() throws IOException {
+        ElasticSelectorLoopPool pool = new ElasticSelectorLoopPool("test", 3);
+        pool.setMaxSessionsPerLoop(2);
+
+        for (int i = 0; i < 6; i++) {
+            registerPipe(pool.getSelectorLoop());
+        }
+
+        assertEquals(3, pool.getSize());
+        assertEquals(3, pool.getRunningLoopCount());
+
+        // all the loops are loaded : the least loaded one is given
+        for (int i = 0; i < 3; i++) {
+            registerPipe(pool.getSelectorLoop());
+        }
+
+        assertEquals(3, pool.getSize());
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.transport.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.api.AbstractIoHandler;
+import org.apache.mina.api.IoFuture;
+import org.apache.mina.api.IoSession;
+import org.apache.mina.transport.nio.LoadBalancedSelectorLoopPool.Strategy;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link LoadBalancedSelectorLoopPool} and the session migration between loops.
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class LoadBalancedSelectorLoopPoolTest {
+
+    private static final SelectorListener NOOP_LISTENER = new SelectorListener() {
+        @Override
+        public void ready(boolean accept, boolean connect, boolean read, ByteBuffer readBuffer, boolean write) {
+        }
+    };
+
+    private static void registerPipe(SelectorLoop loop) throws IOException {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        loop.register(false, false, true, false, NOOP_LISTENER, pipe.source(), null);
+    }
+
+    @Test
+    public void leastSessionsGivesTheEmptiestLoop() throws IOException {
+        LoadBalancedSelectorLoopPool pool = new LoadBalancedSelectorLoopPool("test", 3, Strategy.LEAST_SESSIONS);
+
+        for (int i = 0; i < 9; i++) {
+            registerPipe(pool.getSelectorLoop());
+        }
+
+        for (NioSelectorLoop loop : pool.pool) {
+            assertEquals(3, loop.getRegisteredChannelCount());
+        }
+    }
+
+    @Test
+    public void powerOfTwoChoicesGivesTheLighterOfTwoLoops() throws IOException {
+        LoadBalancedSelectorLoopPool pool = new LoadBalancedSelectorLoopPool("test", 2, Strategy.POWER_OF_TWO_CHOICES);
+
+        registerPipe(pool.pool[0]);
+        registerPipe(pool.pool[0]);
+
+        // with two loops, both are always compared
+        for (int i = 0; i < 10; i++) {
+            assertSame(pool.pool[1], pool.getSelectorLoop());
+        }
+    }
+
+    @Test
+    public void idleSessionIsMigratedToAnotherLoop() throws Exception {
+        final FixedSelectorLoopPool pool = new FixedSelectorLoopPool("Server", 2);
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), pool, null);
+        final CountDownLatch opened = new CountDownLatch(1);
+        final IoSession[] sessions = new IoSession[1];
+
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                sessions[0] = session;
+                opened.countDown();
+            }
+
+            @Override
+            public void messageReceived(IoSession session, Object message) {
+                ByteBuffer received = (ByteBuffer) message;
+                ByteBuffer echo = ByteBuffer.allocate(received.remaining());
+                echo.put(received);
+                echo.flip();
+                session.write(echo);
+            }
+        });
+        server.bind(0);
+
+        Socket client = new Socket("127.0.0.1", server.getServerSocketChannel().socket().getLocalPort());
+
+        try {
+            assertTrue(opened.await(5, TimeUnit.SECONDS));
+
+            NioTcpSession session = (NioTcpSession) sessions[0];
+            SelectorLoop source = session.getSelectorLoop();
+            SelectorLoop target = (source == pool.pool[0]) ? pool.pool[1] : pool.pool[0];
+
+            assertTrue(session.migrate(target).get(5, TimeUnit.SECONDS));
+            assertSame(target, session.getSelectorLoop());
+            assertNotSame(source, session.getSelectorLoop());
+
+            client.getOutputStream().write("ping".getBytes());
+            client.getOutputStream().flush();
+
+            byte[] buffer = new byte[4];
+            int read = 0;
+
+            while (read < 4) {
+                read += client.getInputStream().read(buffer, read, 4 - read);
+            }
+
+            assertEquals("ping", new String(buffer));
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void suspensionChangedDuringTheMigrationIsApplied() throws Exception {
+        final FixedSelectorLoopPool pool = new FixedSelectorLoopPool("Server", 2);
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), pool, null);
+        final CountDownLatch opened = new CountDownLatch(1);
+        final BlockingQueue<Object> received = new LinkedBlockingQueue<Object>();
+        final IoSession[] sessions = new IoSession[1];
+
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                sessions[0] = session;
+                opened.countDown();
+            }
+
+            @Override
+            public void messageReceived(IoSession session, Object message) {
+                received.add(message);
+            }
+        });
+        server.bind(0);
+
+        Socket client = new Socket("127.0.0.1", server.getServerSocketChannel().socket().getLocalPort());
+
+        try {
+            assertTrue(opened.await(5, TimeUnit.SECONDS));
+
+            NioTcpSession session = (NioTcpSession) sessions[0];
+            SelectorLoop source = session.getSelectorLoop();
+            SelectorLoop target = (source == pool.pool[0]) ? pool.pool[1] : pool.pool[0];
+
+            // the channel stays unregistered as long as the target loop is busy
+            CountDownLatch busy = blockLoop(target);
+            IoFuture<Boolean> migrated = session.migrate(target);
+            Thread.sleep(200);
+
+            assertSame(source, session.getSelectorLoop());
+            session.suspendRead();
+            busy.countDown();
+
+            assertTrue(migrated.get(5, TimeUnit.SECONDS));
+            assertSame(target, session.getSelectorLoop());
+
+            client.getOutputStream().write("ping".getBytes());
+            client.getOutputStream().flush();
+
+            assertEquals(null, received.poll(300, TimeUnit.MILLISECONDS));
+
+            session.resumeRead();
+
+            assertTrue(received.poll(5, TimeUnit.SECONDS) != null);
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void sessionClosedDuringTheMigrationIsNotMigrated() throws Exception {
+        final FixedSelectorLoopPool pool = new FixedSelectorLoopPool("Server", 2);
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), pool, null);
+        final CountDownLatch opened = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        final IoSession[] sessions = new IoSession[1];
+
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                sessions[0] = session;
+                opened.countDown();
+            }
+
+            @Override
+            public void sessionClosed(IoSession session) {
+                closed.countDown();
+            }
+        });
+        server.bind(0);
+
+        Socket client = new Socket("127.0.0.1", server.getServerSocketChannel().socket().getLocalPort());
+
+        try {
+            assertTrue(opened.await(5, TimeUnit.SECONDS));
+
+            NioTcpSession session = (NioTcpSession) sessions[0];
+            SelectorLoop source = session.getSelectorLoop();
+            SelectorLoop target = (source == pool.pool[0]) ? pool.pool[1] : pool.pool[0];
+
+            CountDownLatch busy = blockLoop(target);
+            IoFuture<Boolean> migrated = session.migrate(target);
+            Thread.sleep(200);
+
+            session.close(true);
+
+            assertFalse(migrated.get(5, TimeUnit.SECONDS));
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+            busy.countDown();
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
+    /**
+     * Keep a loop thread busy until the returned latch is counted down.
+     */
+    private static CountDownLatch blockLoop(SelectorLoop loop) {
+        final CountDownLatch busy = new CountDownLatch(1);
+
+        loop.runInLoop(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    busy.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        return busy;
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.transport.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.util.TimingWheel;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link NioSelectorLoop}
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class NioSelectorLoopTest {
+
+    @Test
+    public void tasksAreRunInTheLoop() throws InterruptedException {
+        final NioSelectorLoop loop = new NioSelectorLoop("test");
+        final CountDownLatch latch = new CountDownLatch(1);
+        final boolean[] inLoop = new boolean[1];
+
+        assertFalse(loop.inLoop());
+
+        loop.runInLoop(new Runnable() {
+            @Override
+            public void run() {
+                inLoop[0] = loop.inLoop();
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(inLoop[0]);
+    }
+
+    @Test
+    public void tasksSubmittedFromTheLoopAreRunImmediately() throws InterruptedException {
+        final NioSelectorLoop loop = new NioSelectorLoop("test");
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<String> events = new ArrayList<String>();
+
+        loop.runInLoop(new Runnable() {
+            @Override
+            public void run() {
+                events.add("outer-start");
+                loop.runInLoop(new Runnable() {
+                    @Override
+                    public void run() {
+                        events.add("inner");
+                    }
+                });
+                events.add("outer-end");
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("[outer-start, inner, outer-end]", events.toString());
+    }
+
+    @Test
+    public void tasksOverflowingTheQueueAreRunInOrder() throws InterruptedException {
+        final NioSelectorLoop loop = new NioSelectorLoop("test", -1, 4);
+        final CountDownLatch busy = new CountDownLatch(1);
+        final List<Integer> order = new ArrayList<Integer>();
+        final int taskCount = 100;
+        final CountDownLatch done = new CountDownLatch(taskCount);
+
+        loop.runInLoop(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    busy.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        // the worker is busy : the tasks don't fit in the ring buffer, and the producer must not wait
+        for (int i = 0; i < taskCount; i++) {
+            final int number = i;
+
+            loop.runInLoop(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(number);
+                    done.countDown();
+                }
+            });
+        }
+
+        busy.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < taskCount; i++) {
+            assertEquals(i, order.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void endOfIterationTasksFollowingAFailingOneAreRun() throws InterruptedException {
+        final NioSelectorLoop loop = new NioSelectorLoop("test");
+        final CountDownLatch done = new CountDownLatch(2);
+        final int[] runs = new int[1];
+
+        loop.runInLoop(new Runnable() {
+            @Override
+            public void run() {
+                loop.runAtEndOfIteration(new Runnable() {
+                    @Override
+                    public void run() {
+                        throw new IllegalStateException("failing task");
+                    }
+                });
+
+                for (int i = 0; i < 2; i++) {
+                    loop.runAtEndOfIteration(new Runnable() {
+                        @Override
+                        public void run() {
+                            runs[0]++;
+                            done.countDown();
+                        }
+                    });
+                }
+            }
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        // the tasks are run once
+        final CountDownLatch nextIteration = new CountDownLatch(1);
+
+        loop.runInLoop(new Runnable() {
+            @Override
+            public void run() {
+                nextIteration.countDown();
+            }
+        });
+
+        assertTrue(nextIteration.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(2, runs[0]);
+    }
+
+    @Test
+    public void readEventsAreDispatchedWithOptimizedSelectedKeys() throws IOException, InterruptedException {
+        NioSelectorLoop loop = new NioSelectorLoop("test");
+        loop.setOptimizeSelectedKeys(true);
+
+        final Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+
+        final CountDownLatch latch = new CountDownLatch(3);
+
+        loop.register(false, false, true, false, new SelectorListener() {
+            @Override
+            public void ready(boolean accept, boolean connect, boolean read, ByteBuffer readBuffer, boolean write) {
+                try {
+                    readBuffer.clear();
+
+                    int count = pipe.source().read(readBuffer);
+
+                    for (int i = 0; i < count; i++) {
+                        latch.countDown();
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }, pipe.source(), null);
+
+        for (int i = 0; i < 3; i++) {
+            pipe.sink().write(ByteBuffer.wrap(new byte[] { (byte) i }));
+            Thread.sleep(10);
+        }
+
+        // the JDK may refuse to replace the selected keys set, the events must be dispatched anyway
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void tasksAreRunWhileSpinning() throws InterruptedException {
+        NioSelectorLoop loop = new NioSelectorLoop("test");
+        loop.setSpinPolicy(SpinPolicy.duration(50, TimeUnit.MILLISECONDS, SpinPolicy.IdleStrategy.SPIN_WAIT));
+
+        for (int i = 0; i < 3; i++) {
+            final CountDownLatch latch = new CountDownLatch(1);
+
+            loop.runInLoop(new Runnable() {
+                @Override
+                public void run() {
+                    latch.countDown();
+                }
+            });
+
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+            // let the loop go back to a blocking select
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    public void channelsAreMovedToTheRebuiltSelector() throws IOException, InterruptedException {
+        NioSelectorLoop loop = new NioSelectorLoop("test");
+
+        final Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+
+        final CountDownLatch registered = new CountDownLatch(1);
+        final CountDownLatch received = new CountDownLatch(1);
+
+        loop.register(false, false, true, false, new SelectorListener() {
+            @Override
+            public void ready(boolean accept, boolean connect, boolean read, ByteBuffer readBuffer, boolean write) {
+                try {
+                    readBuffer.clear();
+
+                    if (pipe.source().read(readBuffer) > 0) {
+                        received.countDown();
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }, pipe.source(), new RegistrationCallback() {
+            @Override
+            public void done(SelectionKey selectionKey) {
+                registered.countDown();
+            }
+        });
+
+        assertTrue(registered.await(5, TimeUnit.SECONDS));
+
+        loop.rebuildSelector();
+
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while ((loop.getSelectorRebuildCount() == 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, loop.getSelectorRebuildCount());
+
+        pipe.sink().write(ByteBuffer.wrap(new byte[] { 1 }));
+
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void statsAreCollected() throws IOException, InterruptedException {
+        FixedSelectorLoopPool pool = new FixedSelectorLoopPool("test", 2);
+        SelectorLoop loop = pool.getSelectorLoop();
+
+        final Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        loop.register(false, false, true, false, new SelectorListener() {
+            @Override
+            public void ready(boolean accept, boolean connect, boolean read, ByteBuffer readBuffer, boolean write) {
+            }
+        }, pipe.source(), null);
+
+        loop.runInLoop(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        // let the loop finish its iteration
+        Thread.sleep(100);
+
+        SelectorLoopStats stats = loop.getStats();
+        assertEquals(1, stats.getLoopCount());
+        assertTrue(stats.getIterationCount() > 0);
+        assertTrue(stats.getTaskTimeNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(1, stats.getRegisteredChannelCount());
+        assertEquals(0, stats.getTaskQueueDepth());
+        assertTrue(stats.getUtilisation() > 0d);
+
+        SelectorLoopStats poolStats = pool.getStats();
+        assertEquals(2, poolStats.getLoopCount());
+        assertEquals(1, poolStats.getRegisteredChannelCount());
+        assertTrue(poolStats.getTaskTimeNanos() >= stats.getTaskTimeNanos());
+        assertEquals(0, poolStats.since(poolStats).getIterationCount());
+    }
+
+    @Test
+    public void scheduledTasksAreRunInTheLoop() throws InterruptedException {
+        final NioSelectorLoop loop = new NioSelectorLoop("test");
+        final CountDownLatch latch = new CountDownLatch(1);
+        final boolean[] inLoop = new boolean[1];
+        final boolean[] cancelledRun = new boolean[1];
+
+        TimingWheel.Timeout cancelled = loop.schedule(new Runnable() {
+            @Override
+            public void run() {
+                cancelledRun[0] = true;
+            }
+        }, 20, TimeUnit.MILLISECONDS);
+        cancelled.cancel();
+
+        long start = System.nanoTime();
+
+        loop.schedule(new Runnable() {
+            @Override
+            public void run() {
+                inLoop[0] = loop.inLoop();
+                latch.countDown();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(inLoop[0]);
+        assertFalse(cancelledRun[0]);
+    }
+
+    @Test
+    public void workerIsStartedOnDemandAndStoppedWhenIdle() throws IOException, InterruptedException {
+        final NioSelectorLoop loop = new NioSelectorLoop("test");
+        loop.setKeepAliveTime(50, TimeUnit.MILLISECONDS);
+        assertFalse(loop.isRunning());
+
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        SelectorListener listener = new SelectorListener() {
+            @Override
+            public void ready(boolean accept, boolean connect, boolean read, ByteBuffer readBuffer, boolean write) {
+            }
+        };
+
+        loop.register(false, false, true, false, listener, pipe.source(), null);
+        assertTrue(loop.isRunning());
+
+        // the loop keeps running while a channel is registered
+        Thread.sleep(200);
+        assertTrue(loop.isRunning());
+
+        loop.unregister(listener, pipe.source());
+
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (loop.isRunning() && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+
+        assertFalse(loop.isRunning());
+
+        // an idle loop holds no file descriptor
+        assertFalse(loop.isSelectorOpen());
+
+        // restarted by the next task
+        final CountDownLatch latch = new CountDownLatch(1);
+        final boolean[] inLoop = new boolean[1];
+
+        loop.runInLoop(new Runnable() {
+            @Override
+            public void run() {
+                inLoop[0] = loop.inLoop();
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(inLoop[0]);
+        assertTrue(loop.isSelectorOpen());
+
+        // the new selector delivers the events
+        final CountDownLatch ready = new CountDownLatch(1);
+        Pipe other = Pipe.open();
+        other.source().configureBlocking(false);
+
+        loop.register(false, false, true, false, new SelectorListener() {
+            @Override
+            public void ready(boolean accept, boolean connect, boolean read, ByteBuffer readBuffer, boolean write) {
+                ready.countDown();
+            }
+        }, other.source(), null);
+        other.sink().write(ByteBuffer.wrap(new byte[] { 1 }));
+
+        assertTrue(ready.await(5, TimeUnit.SECONDS));
+    }
+}
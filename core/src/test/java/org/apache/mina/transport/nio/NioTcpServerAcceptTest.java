@@ -0,0 +1,300 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.transport.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.api.AbstractIoHandler;
+import org.apache.mina.api.IoSession;
+import org.apache.mina.transport.tcp.AdmissionController;
+import org.junit.Test;
+
+/**
+ * Tests the connection accepting of {@link NioTcpServer}
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class NioTcpServerAcceptTest {
+
+    private static final int CLIENT_COUNT = 100;
+
+    @Test
+    public void pendingConnectionsAreAcceptedByBatches() throws Exception {
+        final NioSelectorLoop acceptLoop = new NioSelectorLoop("accept");
+        final NioTcpServer server = new NioTcpServer(acceptLoop, new FixedSelectorLoopPool("Server", 2), null);
+        final CountDownLatch openLatch = new CountDownLatch(CLIENT_COUNT);
+
+        server.getSessionConfig().setBacklog(2 * CLIENT_COUNT);
+        server.setMaxAcceptsPerEvent(8);
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                openLatch.countDown();
+            }
+        });
+        server.bind(0);
+
+        final int port = server.getServerSocketChannel().socket().getLocalPort();
+        final Socket[] clients = new Socket[CLIENT_COUNT];
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // keep the accept loop busy : the connections are queued in the backlog
+        acceptLoop.runInLoop(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        try {
+            for (int i = 0; i < CLIENT_COUNT; i++) {
+                clients[i] = new Socket("127.0.0.1", port);
+            }
+
+            assertEquals(CLIENT_COUNT, openLatch.getCount());
+            release.countDown();
+
+            assertTrue(openLatch.await(5, TimeUnit.SECONDS));
+        } finally {
+            for (Socket client : clients) {
+                if (client != null) {
+                    client.close();
+                }
+            }
+
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void reusePortAcceptorsServeTheirOwnSessions() throws Exception {
+        if (!NioTcpServer.isReusePortSupported()) {
+            return;
+        }
+
+        final NioSelectorLoop acceptLoop = new NioSelectorLoop("accept");
+        final NioTcpServer server = new NioTcpServer(acceptLoop, new FixedSelectorLoopPool("Server", 2), null);
+        final CountDownLatch openLatch = new CountDownLatch(CLIENT_COUNT);
+
+        server.setReusePortAcceptors(2);
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                openLatch.countDown();
+            }
+
+            @Override
+            public void messageReceived(IoSession session, Object message) {
+                ByteBuffer received = (ByteBuffer) message;
+                ByteBuffer echo = ByteBuffer.allocate(received.remaining());
+                echo.put(received);
+                echo.flip();
+                session.write(echo);
+            }
+        });
+        server.bind(0);
+
+        final int port = server.getServerSocketChannel().socket().getLocalPort();
+        final Socket[] clients = new Socket[CLIENT_COUNT];
+
+        try {
+            for (int i = 0; i < CLIENT_COUNT; i++) {
+                clients[i] = new Socket("127.0.0.1", port);
+            }
+
+            assertTrue(openLatch.await(5, TimeUnit.SECONDS));
+
+            for (int i = 0; i < CLIENT_COUNT; i++) {
+                clients[i].getOutputStream().write(i);
+                assertEquals(i, clients[i].getInputStream().read());
+            }
+
+            // the accept loop is not needed
+            assertFalse(acceptLoop.isRunning());
+        } finally {
+            for (Socket client : clients) {
+                if (client != null) {
+                    client.close();
+                }
+            }
+
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void reusePortAcceptorsAreOnDistinctLoopsWithTheDefaultPool() throws Exception {
+        if (!NioTcpServer.isReusePortSupported()) {
+            return;
+        }
+
+        final NioTcpServer server = new NioTcpServer();
+        server.setReusePortAcceptors(2);
+        server.bind(0);
+
+        try {
+            List<SelectorLoop> loops = server.getAcceptorSelectorLoops();
+
+            assertEquals(2, loops.size());
+            assertNotSame(loops.get(0), loops.get(1));
+        } finally {
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void bindFailsWhenThePoolCantGiveDistinctLoopsToTheAcceptors() throws Exception {
+        if (!NioTcpServer.isReusePortSupported()) {
+            return;
+        }
+
+        final NioSelectorLoop loop = new NioSelectorLoop("Server");
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new SelectorLoopPool() {
+            @Override
+            public SelectorLoop getSelectorLoop() {
+                return loop;
+            }
+        }, null);
+
+        server.setReusePortAcceptors(2);
+
+        try {
+            server.bind(0);
+            fail("the acceptors can't share a loop");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertNull(server.getBoundAddress());
+    }
+
+    @Test
+    public void acceptingIsPausedWhileTheServerIsOverloaded() throws Exception {
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new FixedSelectorLoopPool("Server",
+                2), null);
+        final AdmissionController admission = new AdmissionController();
+        final CountDownLatch twoOpened = new CountDownLatch(2);
+        final CountDownLatch threeOpened = new CountDownLatch(3);
+
+        admission.setSessionThresholds(2, 1);
+        admission.setCheckIntervalMillis(20);
+        server.setAdmissionController(admission);
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                twoOpened.countDown();
+                threeOpened.countDown();
+            }
+        });
+        server.bind(0);
+
+        final int port = server.getServerSocketChannel().socket().getLocalPort();
+        final Socket[] clients = new Socket[3];
+
+        try {
+            for (int i = 0; i < clients.length; i++) {
+                clients[i] = new Socket("127.0.0.1", port);
+            }
+
+            // the third connection waits in the backlog
+            assertTrue(twoOpened.await(5, TimeUnit.SECONDS));
+            assertFalse(threeOpened.await(200, TimeUnit.MILLISECONDS));
+            assertTrue(admission.isOverloaded());
+
+            // back under the resume threshold
+            clients[0].close();
+
+            assertTrue(threeOpened.await(5, TimeUnit.SECONDS));
+            assertTrue(admission.getOverloadCount() >= 1);
+            assertEquals(0, admission.getRejectedConnectionCount());
+        } finally {
+            for (Socket client : clients) {
+                if (client != null) {
+                    client.close();
+                }
+            }
+
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void connectionsAreResetWhileTheServerIsOverloaded() throws Exception {
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new FixedSelectorLoopPool("Server",
+                2), null);
+        final AdmissionController admission = new AdmissionController();
+        final CountDownLatch opened = new CountDownLatch(2);
+
+        admission.setSessionThresholds(2, 1);
+        admission.setMode(AdmissionController.Mode.REJECT);
+        server.setAdmissionController(admission);
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                opened.countDown();
+            }
+        });
+        server.bind(0);
+
+        final int port = server.getServerSocketChannel().socket().getLocalPort();
+        final Socket[] clients = new Socket[3];
+
+        try {
+            clients[0] = new Socket("127.0.0.1", port);
+            clients[1] = new Socket("127.0.0.1", port);
+            assertTrue(opened.await(5, TimeUnit.SECONDS));
+
+            clients[2] = new Socket("127.0.0.1", port);
+            clients[2].setSoTimeout(5000);
+
+            try {
+                assertEquals(-1, clients[2].getInputStream().read());
+            } catch (IOException e) {
+                // connection reset
+            }
+
+            assertEquals(1, admission.getRejectedConnectionCount());
+        } finally {
+            for (Socket client : clients) {
+                if (client != null) {
+                    client.close();
+                }
+            }
+
+            server.unbind();
+        }
+    }
+}
@@ -20,22 +20,28 @@
 package org.apache.mina.transport.nio;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.mina.api.AbstractIoHandler;
 import org.apache.mina.api.IdleStatus;
 import org.apache.mina.api.IoHandler;
 import org.apache.mina.api.IoSession;
+import org.apache.mina.service.executor.OrderedHandlerExecutor;
 import org.apache.mina.transport.nio.FixedSelectorLoopPool;
 import org.apache.mina.transport.nio.NioTcpServer;
 import org.apache.mina.transport.nio.SelectorLoopPool;
+import org.apache.mina.util.DirectBufferArena;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -179,6 +185,301 @@ public class NioTcpServerHandlerTest {
         server.unbind();
     }
 
+    @Test
+    public void receivedBuffersHandedToTheExecutorOnlyHoldTheReceivedBytes() throws IOException, InterruptedException {
+        final NioTcpServer server = new NioTcpServer(new FixedSelectorLoopPool("Server", 1),
+                new OrderedHandlerExecutor(1, 64));
+        final int[] sizes = new int[2];
+        final CountDownLatch received = new CountDownLatch(1);
+
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void messageReceived(IoSession session, Object message) {
+                sizes[0] = ((ByteBuffer) message).remaining();
+                sizes[1] = ((ByteBuffer) message).capacity();
+                received.countDown();
+            }
+        });
+        server.bind(0);
+
+        final int port = server.getServerSocketChannel().socket().getLocalPort();
+        final Socket client = new Socket("127.0.0.1", port);
+
+        try {
+            client.getOutputStream().write("test:0".getBytes());
+            client.getOutputStream().flush();
+
+            assertTrue(received.await(WAIT_TIME, TimeUnit.MILLISECONDS));
+
+            // the copy is not as big as the selector loop read buffer
+            assertEquals(6, sizes[0]);
+            assertEquals(6, sizes[1]);
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void pooledReceivedBuffersAreReleasedAfterTheHandler() throws IOException, InterruptedException {
+        SelectorLoopPool selectorLoopPool = new FixedSelectorLoopPool("Server", 1);
+        final NioTcpServer server = new NioTcpServer(selectorLoopPool, new OrderedHandlerExecutor(2, 64));
+        DirectBufferArena arena = selectorLoopPool.getSelectorLoop().getDirectBufferArena();
+        server.getSessionConfig().setPooledReceiveBuffers(true);
+        server.setIoHandler(new Handler());
+        server.bind(0);
+
+        final int port = server.getServerSocketChannel().socket().getLocalPort();
+
+        final Socket[] clients = new Socket[CLIENT_COUNT];
+
+        for (int i = 0; i < CLIENT_COUNT; i++) {
+            clients[i] = new Socket("127.0.0.1", port);
+        }
+
+        assertTrue(openLatch.await(WAIT_TIME, TimeUnit.MILLISECONDS));
+
+        for (int i = 0; i < CLIENT_COUNT; i++) {
+            clients[i].getOutputStream().write(("test:" + i).getBytes());
+            clients[i].getOutputStream().flush();
+        }
+
+        assertTrue(msgReadLatch.await(WAIT_TIME, TimeUnit.MILLISECONDS));
+
+        // the handler echoes the received bytes, read before the buffers are released
+        final byte[] buffer = new byte[1024];
+
+        for (int i = 0; i < CLIENT_COUNT; i++) {
+            final int bytes = clients[i].getInputStream().read(buffer);
+            final String text = new String(buffer, 0, bytes);
+            assertEquals("test:" + i, text);
+        }
+
+        // the buffers are given back when the handler returns
+        long deadline = System.currentTimeMillis() + WAIT_TIME;
+
+        while ((arena.getOutstandingCount() > 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(arena.getAcquiredCount() >= CLIENT_COUNT);
+        assertEquals(0, arena.getOutstandingCount());
+
+        for (int i = 0; i < CLIENT_COUNT; i++) {
+            clients[i].close();
+        }
+
+        assertTrue(closedLatch.await(WAIT_TIME, TimeUnit.MILLISECONDS));
+
+        server.unbind();
+    }
+
+    @Test
+    public void pooledReceivedBuffersWrittenBackAreReleasedOnceWritten() throws Exception {
+        final int clientCount = 4;
+        final int chunkSize = 1500;
+        final int bytesPerClient = 3000 * chunkSize;
+        SelectorLoopPool selectorLoopPool = new FixedSelectorLoopPool("Server", 1);
+        final NioTcpServer server = new NioTcpServer(selectorLoopPool, new OrderedHandlerExecutor(2, 1024));
+        DirectBufferArena arena = selectorLoopPool.getSelectorLoop().getDirectBufferArena();
+        server.getSessionConfig().setPooledReceiveBuffers(true);
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void messageReceived(IoSession session, Object message) {
+                // the pooled buffer is written back as is
+                session.write(message);
+            }
+        });
+        server.bind(0);
+
+        final int port = server.getServerSocketChannel().socket().getLocalPort();
+        final Socket[] clients = new Socket[clientCount];
+        final Thread[] writers = new Thread[clientCount];
+        final AtomicInteger errors = new AtomicInteger();
+
+        try {
+            for (int i = 0; i < clientCount; i++) {
+                final int index = i;
+                clients[i] = new Socket("127.0.0.1", port);
+                writers[i] = new Thread("writer-" + i) {
+                    @Override
+                    public void run() {
+                        try {
+                            byte[] chunk = new byte[chunkSize];
+                            int sent = 0;
+
+                            while (sent < bytesPerClient) {
+                                for (int j = 0; j < chunk.length; j++) {
+                                    chunk[j] = pattern(index, sent + j);
+                                }
+
+                                clients[index].getOutputStream().write(chunk);
+                                sent += chunk.length;
+                            }
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                };
+                writers[i].start();
+            }
+
+            // the echoes are read late, so that the written buffers wait in the write queues
+            Thread.sleep(200);
+
+            byte[] buffer = new byte[8192];
+
+            for (int i = 0; i < clientCount; i++) {
+                InputStream in = clients[i].getInputStream();
+                int received = 0;
+
+                while (received < bytesPerClient) {
+                    int read = in.read(buffer);
+                    assertTrue(read > 0);
+
+                    for (int j = 0; j < read; j++) {
+                        if (buffer[j] != pattern(i, received + j)) {
+                            fail("corrupted echo of client " + i + " at byte " + (received + j));
+                        }
+                    }
+
+                    received += read;
+                }
+            }
+
+            for (Thread writer : writers) {
+                writer.join();
+            }
+
+            assertEquals(0, errors.get());
+
+            // all the buffers go back to the arena once written
+            long deadline = System.currentTimeMillis() + WAIT_TIME;
+
+            while ((arena.getOutstandingCount() > 0) && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(10);
+            }
+
+            assertTrue(arena.getAcquiredCount() > 0);
+            assertEquals(0, arena.getOutstandingCount());
+        } finally {
+            for (Socket client : clients) {
+                if (client != null) {
+                    client.close();
+                }
+            }
+
+            server.unbind();
+        }
+    }
+
+    private static byte pattern(int client, int position) {
+        return (byte) (position * 7 + position / 251 + client);
+    }
+
+    @Test
+    public void suspendedReadsAreReceivedWhenResumed() throws IOException, InterruptedException {
+        final NioTcpServer server = new NioTcpServer(new FixedSelectorLoopPool("Server", 1), null);
+        final IoSession[] sessions = new IoSession[1];
+        final CountDownLatch opened = new CountDownLatch(1);
+        final CountDownLatch received = new CountDownLatch(1);
+
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                session.suspendRead();
+                sessions[0] = session;
+                opened.countDown();
+            }
+
+            @Override
+            public void messageReceived(IoSession session, Object message) {
+                received.countDown();
+            }
+        });
+        server.bind(0);
+
+        final int port = server.getServerSocketChannel().socket().getLocalPort();
+        final Socket client = new Socket("127.0.0.1", port);
+
+        try {
+            assertTrue(opened.await(WAIT_TIME, TimeUnit.MILLISECONDS));
+            assertTrue(sessions[0].isReadSuspended());
+
+            client.getOutputStream().write("test:0".getBytes());
+            client.getOutputStream().flush();
+
+            // the bytes wait in the socket buffer
+            assertFalse(received.await(300, TimeUnit.MILLISECONDS));
+            assertEquals(0, sessions[0].getReadBytes());
+
+            sessions[0].resumeRead();
+            assertFalse(sessions[0].isReadSuspended());
+
+            assertTrue(received.await(WAIT_TIME, TimeUnit.MILLISECONDS));
+            assertEquals(6, sessions[0].getReadBytes());
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void executorSuspendsTheReadsOfASessionWithTooManyPendingEvents() throws IOException, InterruptedException {
+        final int totalBytes = 1024 * 1024;
+        final OrderedHandlerExecutor executor = new OrderedHandlerExecutor(1, 1024, 8, 2);
+        final NioTcpServer server = new NioTcpServer(new FixedSelectorLoopPool("Server", 1), executor);
+        final AtomicInteger receivedBytes = new AtomicInteger();
+        final AtomicInteger maxQueueDepth = new AtomicInteger();
+        final AtomicBoolean suspended = new AtomicBoolean();
+        final CountDownLatch received = new CountDownLatch(1);
+
+        // a slow handler
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void messageReceived(IoSession session, Object message) {
+                if (session.isReadSuspended()) {
+                    suspended.set(true);
+                }
+
+                maxQueueDepth.set(Math.max(maxQueueDepth.get(), executor.getQueueDepth()));
+
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    // nothing to do
+                }
+
+                if (receivedBytes.addAndGet(((ByteBuffer) message).remaining()) == totalBytes) {
+                    received.countDown();
+                }
+            }
+        });
+        server.bind(0);
+
+        final int port = server.getServerSocketChannel().socket().getLocalPort();
+        final Socket client = new Socket("127.0.0.1", port);
+
+        try {
+            byte[] chunk = new byte[1024];
+
+            for (int i = 0; i < totalBytes / chunk.length; i++) {
+                client.getOutputStream().write(chunk);
+            }
+
+            client.getOutputStream().flush();
+
+            assertTrue(received.await(6 * WAIT_TIME, TimeUnit.MILLISECONDS));
+            assertTrue(suspended.get());
+
+            // the events of the session don't pile up in the executor
+            assertTrue("queue depth " + maxQueueDepth.get(), maxQueueDepth.get() <= 16);
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
     private class Handler extends AbstractIoHandler {
 
         @Override
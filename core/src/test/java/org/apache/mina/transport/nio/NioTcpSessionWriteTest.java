@@ -0,0 +1,845 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.transport.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.mina.api.AbstractIoFilter;
+import org.apache.mina.api.AbstractIoHandler;
+import org.apache.mina.api.IoSession;
+import org.apache.mina.api.WritePriority;
+import org.apache.mina.session.DefaultFileRegion;
+import org.apache.mina.session.FileRegion;
+import org.apache.mina.util.DirectBufferArena;
+import org.junit.Test;
+
+/**
+ * Tests the writing of the queued messages of a {@link NioTcpSession}
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class NioTcpSessionWriteTest {
+
+    private static final int MESSAGE_COUNT = 20000;
+
+    private static final int MESSAGE_SIZE = 100;
+
+    @Test
+    public void queuedMessagesAreWrittenInOrder() throws Exception {
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new FixedSelectorLoopPool("Server",
+                1), null);
+        final CountDownLatch sent = new CountDownLatch(MESSAGE_COUNT);
+
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                // the client does not read yet : most of the messages are queued
+                for (int i = 0; i < MESSAGE_COUNT; i++) {
+                    ByteBuffer message = ByteBuffer.allocate(MESSAGE_SIZE);
+                    message.putInt(i);
+                    message.position(MESSAGE_SIZE);
+                    message.flip();
+                    session.write(message);
+                }
+            }
+
+            @Override
+            public void messageSent(IoSession session, Object message) {
+                sent.countDown();
+            }
+        });
+        server.bind(0);
+
+        Socket client = new Socket("127.0.0.1", server.getServerSocketChannel().socket().getLocalPort());
+
+        try {
+            Thread.sleep(200);
+
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            byte[] message = new byte[MESSAGE_SIZE];
+
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                in.readFully(message);
+                assertEquals(i, ByteBuffer.wrap(message).getInt());
+            }
+
+            assertTrue(sent.await(5, TimeUnit.SECONDS));
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void queuedHeapBuffersAreCopiedInPooledBuffers() throws Exception {
+        final FixedSelectorLoopPool pool = new FixedSelectorLoopPool("Server", 1);
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), pool, null);
+        final int messageCount = 512;
+        final int messageSize = 16 * 1024;
+        final CountDownLatch sent = new CountDownLatch(messageCount);
+
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                // the client does not read yet : most of the messages are queued
+                for (int i = 0; i < messageCount; i++) {
+                    ByteBuffer message = ByteBuffer.allocate(messageSize);
+                    message.putInt(i);
+                    message.position(messageSize);
+                    message.flip();
+                    session.write(message);
+                }
+            }
+
+            @Override
+            public void messageSent(IoSession session, Object message) {
+                sent.countDown();
+            }
+        });
+        server.bind(0);
+
+        Socket client = new Socket("127.0.0.1", server.getServerSocketChannel().socket().getLocalPort());
+
+        try {
+            Thread.sleep(200);
+
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            byte[] message = new byte[messageSize];
+
+            for (int i = 0; i < messageCount; i++) {
+                in.readFully(message);
+                assertEquals(i, ByteBuffer.wrap(message).getInt());
+            }
+
+            assertTrue(sent.await(5, TimeUnit.SECONDS));
+
+            // all the queued messages were copied in the loop arena, and the buffers given back once written
+            DirectBufferArena arena = pool.pool[0].getDirectBufferArena();
+            assertTrue(arena.getAcquiredCount() > 0);
+            assertEquals(0, arena.getOutstandingCount());
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void partiallyWrittenMessagesDontShareTheStagingBuffer() throws Exception {
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new FixedSelectorLoopPool("Server",
+                1), null);
+        final int messageCount = 512;
+        final int messageSize = 16 * 1024;
+        final CountDownLatch sent = new CountDownLatch(2 * messageCount);
+
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                // heap buffers, staged by the loop thread for both the sessions
+                for (int i = 0; i < messageCount; i++) {
+                    byte[] message = new byte[messageSize];
+                    Arrays.fill(message, (byte) session.getId());
+                    session.write(ByteBuffer.wrap(message));
+                }
+            }
+
+            @Override
+            public void messageSent(IoSession session, Object message) {
+                sent.countDown();
+            }
+        });
+        server.bind(0);
+
+        int port = server.getServerSocketChannel().socket().getLocalPort();
+        Socket[] clients = { new Socket("127.0.0.1", port), new Socket("127.0.0.1", port) };
+
+        try {
+            Thread.sleep(200);
+
+            for (Socket client : clients) {
+                DataInputStream in = new DataInputStream(client.getInputStream());
+                byte[] received = new byte[messageSize];
+                byte pattern = in.readByte();
+                in.readFully(received, 1, messageSize - 1);
+                received[0] = pattern;
+
+                for (int i = 0; i < messageCount; i++) {
+                    if (i > 0) {
+                        in.readFully(received);
+                    }
+
+                    for (byte b : received) {
+                        assertEquals(pattern, b);
+                    }
+                }
+            }
+
+            assertTrue(sent.await(5, TimeUnit.SECONDS));
+        } finally {
+            for (Socket client : clients) {
+                client.close();
+            }
+
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void sessionIsNotWritableWhileItsWriteQueueIsAboveTheHighWatermark() throws Exception {
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new FixedSelectorLoopPool("Server",
+                1), null);
+        final int messageCount = 512;
+        final int messageSize = 16 * 1024;
+        final CountDownLatch unwritable = new CountDownLatch(1);
+        final CountDownLatch writable = new CountDownLatch(1);
+        final IoSession[] sessions = new IoSession[1];
+
+        server.getSessionConfig().setWriteQueueWatermarks(64 * 1024, 256 * 1024);
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                sessions[0] = session;
+
+                for (int i = 0; i < messageCount; i++) {
+                    session.write(ByteBuffer.allocate(messageSize));
+                }
+            }
+
+            @Override
+            public void writabilityChanged(IoSession session, boolean isWritable) {
+                if (isWritable) {
+                    writable.countDown();
+                } else {
+                    unwritable.countDown();
+                }
+            }
+        });
+        server.bind(0);
+
+        Socket client = new Socket("127.0.0.1", server.getServerSocketChannel().socket().getLocalPort());
+
+        try {
+            // the client does not read : the messages are queued
+            assertTrue(unwritable.await(5, TimeUnit.SECONDS));
+            assertFalse(sessions[0].isWritable());
+            assertEquals(1, writable.getCount());
+
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            in.readFully(new byte[messageCount * messageSize]);
+
+            assertTrue(writable.await(5, TimeUnit.SECONDS));
+            assertTrue(sessions[0].isWritable());
+            assertEquals(0, ((NioTcpSession) sessions[0]).getQueuedWriteBytes());
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void writabilityChangeRacingWithADrainIsDeliveredInOrder() throws Exception {
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new FixedSelectorLoopPool("Server",
+                1), null);
+        final int messageCount = 512;
+        final int messageSize = 16 * 1024;
+        final List<Boolean> events = Collections.synchronizedList(new ArrayList<Boolean>());
+        final AtomicBoolean drained = new AtomicBoolean();
+
+        server.getSessionConfig().setWriteQueueWatermarks(64 * 1024, 256 * 1024);
+        server.setFilters(new AbstractIoFilter() {
+            @Override
+            public void writabilityChanged(final IoSession session, boolean writable) {
+                if (writable || !drained.compareAndSet(false, true)) {
+                    return;
+                }
+
+                // the queue is drained by another thread while the session becoming unwritable is notified
+                Thread drainer = new Thread() {
+                    @Override
+                    public void run() {
+                        NioTcpSession nioSession = (NioTcpSession) session;
+                        nioSession.decrementQueuedWriteBytes(nioSession.getQueuedWriteBytes());
+                    }
+                };
+
+                drainer.start();
+
+                try {
+                    drainer.join(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                for (int i = 0; i < messageCount; i++) {
+                    session.write(ByteBuffer.allocate(messageSize));
+                }
+            }
+
+            @Override
+            public void writabilityChanged(IoSession session, boolean isWritable) {
+                events.add(isWritable);
+            }
+        });
+        server.bind(0);
+
+        Socket client = new Socket("127.0.0.1", server.getServerSocketChannel().socket().getLocalPort());
+
+        try {
+            // the client is late : the queue goes above the high watermark
+            Thread.sleep(200);
+
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            in.readFully(new byte[messageCount * messageSize]);
+
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while ((events.isEmpty() || !events.get(events.size() - 1)) && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(10);
+            }
+
+            assertTrue(drained.get());
+
+            // the events alternate, starting with the session becoming unwritable, and end with a writable session
+            synchronized (events) {
+                assertFalse(events.isEmpty());
+
+                for (int i = 0; i < events.size(); i++) {
+                    assertEquals((i % 2) == 1, events.get(i));
+                }
+
+                assertTrue(events.get(events.size() - 1));
+            }
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void suspendedWritesAreQueuedUntilResumed() throws Exception {
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new FixedSelectorLoopPool("Server",
+                1), null);
+        final IoSession[] sessions = new IoSession[1];
+        final CountDownLatch opened = new CountDownLatch(1);
+
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                session.suspendWrite();
+                session.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+                sessions[0] = session;
+                opened.countDown();
+            }
+        });
+        server.bind(0);
+
+        Socket client = new Socket("127.0.0.1", server.getServerSocketChannel().socket().getLocalPort());
+
+        try {
+            assertTrue(opened.await(5, TimeUnit.SECONDS));
+            assertTrue(sessions[0].isWriteSuspended());
+
+            // nothing is written while the writes are suspended
+            client.setSoTimeout(300);
+
+            try {
+                client.getInputStream().read();
+                fail("the message was written while the writes were suspended");
+            } catch (SocketTimeoutException e) {
+                // expected
+            }
+
+            assertEquals(0, sessions[0].getWrittenBytes());
+
+            sessions[0].resumeWrite();
+            assertFalse(sessions[0].isWriteSuspended());
+
+            client.setSoTimeout(5000);
+            byte[] received = new byte[3];
+            new DataInputStream(client.getInputStream()).readFully(received);
+            assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, received));
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void corkedSessionWritesAtTheEndOfTheIterationOrWhenFlushed() throws Exception {
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new FixedSelectorLoopPool("Server",
+                1), null);
+        final long[] writtenBeforeFlush = new long[2];
+        final long[] writtenAfterFlush = new long[1];
+
+        server.getSessionConfig().setCorked(true);
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void messageReceived(final IoSession session, Object message) {
+                for (int i = 0; i < 10; i++) {
+                    session.write(ByteBuffer.wrap(new byte[] { (byte) i }));
+                }
+
+                // queued until the end of the iteration
+                writtenBeforeFlush[0] = session.getWrittenBytes();
+
+                session.write(ByteBuffer.wrap(new byte[] { 10 }));
+                writtenBeforeFlush[1] = session.getWrittenBytes();
+                session.flush();
+                writtenAfterFlush[0] = session.getWrittenBytes();
+
+                // a write from another thread is handed to the loop
+                new Thread() {
+                    @Override
+                    public void run() {
+                        session.write(ByteBuffer.wrap(new byte[] { 11 }));
+                    }
+                }.start();
+            }
+        });
+        server.bind(0);
+
+        Socket client = new Socket("127.0.0.1", server.getServerSocketChannel().socket().getLocalPort());
+
+        try {
+            client.setSoTimeout(5000);
+            client.getOutputStream().write(1);
+
+            byte[] received = new byte[12];
+            new DataInputStream(client.getInputStream()).readFully(received);
+
+            for (int i = 0; i < received.length; i++) {
+                assertEquals(i, received[i]);
+            }
+
+            assertEquals(0, writtenBeforeFlush[0]);
+            assertEquals(0, writtenBeforeFlush[1]);
+            assertEquals(11, writtenAfterFlush[0]);
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void corkedSessionIsFlushedFromAnotherThread() throws Exception {
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new FixedSelectorLoopPool("Server",
+                1), null);
+        final CountDownLatch opened = new CountDownLatch(1);
+        final IoSession[] sessions = new IoSession[1];
+
+        server.getSessionConfig().setCorked(true);
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                sessions[0] = session;
+                opened.countDown();
+            }
+        });
+        server.bind(0);
+
+        Socket client = new Socket("127.0.0.1", server.getServerSocketChannel().socket().getLocalPort());
+
+        try {
+            assertTrue(opened.await(5, TimeUnit.SECONDS));
+            final NioTcpSession session = (NioTcpSession) sessions[0];
+
+            // the loop is busy while the messages are written and flushed
+            final CountDownLatch busy = new CountDownLatch(1);
+            session.getSelectorLoop().runInLoop(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        busy.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+
+            for (int i = 0; i < 3; i++) {
+                session.write(ByteBuffer.wrap(new byte[] { (byte) i }));
+            }
+
+            session.flush();
+            assertEquals(0, session.getWrittenBytes());
+
+            busy.countDown();
+
+            client.setSoTimeout(5000);
+            byte[] received = new byte[3];
+            new DataInputStream(client.getInputStream()).readFully(received);
+
+            for (int i = 0; i < received.length; i++) {
+                assertEquals(i, received[i]);
+            }
+
+            assertTrue(session.getWriteQueue().isEmpty());
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void singleWriterSessionIsOnlyWrittenByItsSelectorLoop() throws Exception {
+        final int writers = 4;
+        final int messagesPerWriter = 5000;
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new FixedSelectorLoopPool("Server",
+                1), null);
+        final CountDownLatch sent = new CountDownLatch(writers * messagesPerWriter);
+        final AtomicBoolean sentByAnotherThread = new AtomicBoolean();
+
+        server.getSessionConfig().setSingleWriter(true);
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(final IoSession session) {
+                for (int i = 0; i < writers; i++) {
+                    final int writer = i;
+
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            for (int j = 0; j < messagesPerWriter; j++) {
+                                ByteBuffer message = ByteBuffer.allocate(8);
+                                message.putInt(writer);
+                                message.putInt(j);
+                                message.flip();
+                                session.write(message);
+                            }
+                        }
+                    }.start();
+                }
+            }
+
+            @Override
+            public void messageSent(IoSession session, Object message) {
+                if (!((NioTcpSession) session).getSelectorLoop().inLoop()) {
+                    sentByAnotherThread.set(true);
+                }
+
+                sent.countDown();
+            }
+        });
+        server.bind(0);
+
+        Socket client = new Socket("127.0.0.1", server.getServerSocketChannel().socket().getLocalPort());
+
+        try {
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            int[] expected = new int[writers];
+
+            // the messages of each writer are received in the order they were written
+            for (int i = 0; i < writers * messagesPerWriter; i++) {
+                int writer = in.readInt();
+                assertEquals(expected[writer]++, in.readInt());
+            }
+
+            assertTrue(sent.await(5, TimeUnit.SECONDS));
+            assertFalse(sentByAnotherThread.get());
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void messagesHandedOffToTheSelectorLoopAreCountedAsQueued() throws Exception {
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new FixedSelectorLoopPool("Server",
+                1), null);
+        final int messageCount = 64;
+        final int messageSize = 1024;
+        final CountDownLatch opened = new CountDownLatch(1);
+        final IoSession[] sessions = new IoSession[1];
+
+        server.getSessionConfig().setSingleWriter(true);
+        server.getSessionConfig().setWriteQueueWatermarks(8 * 1024, 32 * 1024);
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                sessions[0] = session;
+                opened.countDown();
+            }
+        });
+        server.bind(0);
+
+        Socket client = new Socket("127.0.0.1", server.getServerSocketChannel().socket().getLocalPort());
+
+        try {
+            assertTrue(opened.await(5, TimeUnit.SECONDS));
+            final NioTcpSession session = (NioTcpSession) sessions[0];
+
+            // the messages stay handed off while the loop is busy
+            final CountDownLatch busy = new CountDownLatch(1);
+            session.getSelectorLoop().runInLoop(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        busy.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+
+            for (int i = 0; i < messageCount; i++) {
+                session.write(ByteBuffer.allocate(messageSize));
+            }
+
+            assertEquals(messageCount * messageSize, session.getQueuedWriteBytes());
+            assertFalse(session.isWritable());
+
+            busy.countDown();
+
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            in.readFully(new byte[messageCount * messageSize]);
+
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while (!session.isWritable() && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(10);
+            }
+
+            assertTrue(session.isWritable());
+            assertEquals(0, session.getQueuedWriteBytes());
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
+    /**
+     * A message with a header : the size of the message, and its number, negative for the urgent messages
+     */
+    private static ByteBuffer frame(int number, int size) {
+        ByteBuffer message = ByteBuffer.allocate(size);
+        message.putInt(size);
+        message.putInt(number);
+        message.position(size);
+        message.flip();
+
+        return message;
+    }
+
+    /**
+     * Read the number of the next message
+     */
+    private static int readFrame(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        int number = in.readInt();
+        in.readFully(new byte[size - 8]);
+
+        return number;
+    }
+
+    @Test
+    public void urgentMessageIsWrittenBeforeTheQueuedNormalMessages() throws Exception {
+        final int messageCount = 1024;
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new FixedSelectorLoopPool("Server",
+                1), null);
+
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                // the client does not read yet : most of the messages are queued
+                for (int i = 0; i < messageCount; i++) {
+                    session.write(frame(i, 16 * 1024));
+                }
+
+                session.write(frame(-1, 8), WritePriority.URGENT);
+            }
+        });
+        server.bind(0);
+
+        Socket client = new Socket("127.0.0.1", server.getServerSocketChannel().socket().getLocalPort());
+
+        try {
+            Thread.sleep(200);
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+            int urgentPosition = -1;
+            int expected = 0;
+
+            for (int i = 0; i <= messageCount; i++) {
+                int number = readFrame(in);
+
+                if (number < 0) {
+                    urgentPosition = i;
+                } else {
+                    // the normal messages are not cut by the urgent one
+                    assertEquals(expected++, number);
+                }
+            }
+
+            // the urgent message only waits for the messages already in the socket buffers
+            assertTrue("urgent message received at " + urgentPosition, (urgentPosition >= 0)
+                    && (urgentPosition < messageCount / 2));
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void weightedPriorityLetsNormalMessagesThrough() throws Exception {
+        final int messageCount = 512;
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new FixedSelectorLoopPool("Server",
+                1), null);
+
+        server.getSessionConfig().setWritePriorityWeight(2);
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                for (int i = 0; i < messageCount; i++) {
+                    session.write(frame(i, 16 * 1024));
+                }
+
+                for (int i = 1; i <= messageCount; i++) {
+                    session.write(frame(-i, 16 * 1024), WritePriority.URGENT);
+                }
+            }
+        });
+        server.bind(0);
+
+        Socket client = new Socket("127.0.0.1", server.getServerSocketChannel().socket().getLocalPort());
+
+        try {
+            Thread.sleep(200);
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+            int expectedNormal = 0;
+            int expectedUrgent = -1;
+            int urgentInARow = 0;
+
+            for (int i = 0; i < 2 * messageCount; i++) {
+                int number = readFrame(in);
+
+                if (number < 0) {
+                    assertEquals(expectedUrgent--, number);
+                    urgentInARow++;
+
+                    // at most 2 urgent messages in a row while normal messages are waiting
+                    assertTrue((urgentInARow <= 2) || (expectedNormal == messageCount));
+                } else {
+                    assertEquals(expectedNormal++, number);
+                    urgentInARow = 0;
+                }
+            }
+
+            // the urgent messages were interleaved with the normal ones
+            assertTrue(expectedUrgent < -1);
+        } finally {
+            client.close();
+            server.unbind();
+        }
+    }
+
+    @Test
+    public void fileRegionIsWrittenBetweenTheQueuedBuffers() throws Exception {
+        final int fileSize = 4 * 1024 * 1024 + 17;
+        File file = File.createTempFile("mina", ".bin");
+        file.deleteOnExit();
+
+        byte[] content = new byte[fileSize];
+
+        for (int i = 0; i < fileSize; i++) {
+            content[i] = (byte) (i % 251);
+        }
+
+        FileOutputStream out = new FileOutputStream(file);
+
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final NioTcpServer server = new NioTcpServer(new NioSelectorLoop("accept"), new FixedSelectorLoopPool("Server",
+                1), null);
+        final CountDownLatch sent = new CountDownLatch(1);
+        final FileRegion[] sentRegion = new FileRegion[1];
+
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                session.write(ByteBuffer.wrap("HEAD".getBytes()));
+                // skip the first byte of the file
+                session.write(new DefaultFileRegion(raf.getChannel(), 1, fileSize - 1));
+                session.write(ByteBuffer.wrap("TAIL".getBytes()));
+            }
+
+            @Override
+            public void messageSent(IoSession session, Object message) {
+                if (message instanceof FileRegion) {
+                    sentRegion[0] = (FileRegion) message;
+                    sent.countDown();
+                }
+            }
+        });
+        server.bind(0);
+
+        Socket client = new Socket("127.0.0.1", server.getServerSocketChannel().socket().getLocalPort());
+
+        try {
+            // the client does not read yet : the region is written in several write events
+            Thread.sleep(200);
+
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            byte[] received = new byte[4 + fileSize - 1 + 4];
+            in.readFully(received);
+
+            assertEquals("HEAD", new String(received, 0, 4));
+            assertTrue(Arrays.equals(Arrays.copyOfRange(content, 1, fileSize),
+                    Arrays.copyOfRange(received, 4, 4 + fileSize - 1)));
+            assertEquals("TAIL", new String(received, 4 + fileSize - 1, 4));
+
+            assertTrue(sent.await(5, TimeUnit.SECONDS));
+            assertEquals(0, sentRegion[0].getRemainingBytes());
+            assertEquals(fileSize - 1, sentRegion[0].getWrittenBytes());
+        } finally {
+            client.close();
+            server.unbind();
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.transport.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ReadSizePredictor}
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class ReadSizePredictorTest {
+
+    @Test
+    public void startsWithTheInitialSize() {
+        assertEquals(ReadSizePredictor.INITIAL, new ReadSizePredictor(64 * 1024).nextReadSize());
+        assertEquals(1024, new ReadSizePredictor(1024).nextReadSize());
+    }
+
+    @Test
+    public void growsFastWhenTheWindowIsFilled() {
+        ReadSizePredictor predictor = new ReadSizePredictor(64 * 1024);
+
+        for (int i = 0; i < 5; i++) {
+            int window = predictor.nextReadSize();
+            predictor.record(window, window);
+        }
+
+        assertEquals(64 * 1024, predictor.nextReadSize());
+    }
+
+    @Test
+    public void shrinksSlowlyForSmallReads() {
+        ReadSizePredictor predictor = new ReadSizePredictor(64 * 1024);
+
+        predictor.record(10, predictor.nextReadSize());
+
+        // one small read does not collapse the window
+        assertTrue(predictor.nextReadSize() >= 1024);
+
+        for (int i = 0; i < 50; i++) {
+            predictor.record(10, predictor.nextReadSize());
+        }
+
+        assertEquals(ReadSizePredictor.MINIMUM, predictor.nextReadSize());
+    }
+
+    @Test
+    public void sizesArePowersOfTwo() {
+        ReadSizePredictor predictor = new ReadSizePredictor(64 * 1024);
+
+        predictor.record(1000, 2048);
+
+        int size = predictor.nextReadSize();
+        assertEquals(1, Integer.bitCount(size));
+    }
+}
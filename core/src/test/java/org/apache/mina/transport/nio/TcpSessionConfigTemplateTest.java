@@ -0,0 +1,101 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.transport.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.mina.api.AbstractIoHandler;
+import org.apache.mina.api.IoSession;
+import org.junit.Test;
+
+/**
+ * Tests that the socket options configured on a {@link NioTcpServer} reach the accepted sockets
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class TcpSessionConfigTemplateTest {
+
+    /**
+     * The accepted sockets inherit SO_REUSEADDR from the server socket : disabling it explicitly must be applied even
+     * if it's the value of a new client socket.
+     */
+    @Test
+    public void explicitOptionHavingTheClientSocketValueReachesTheAcceptedSocket() throws Exception {
+        boolean clientDefault;
+
+        try (Socket socket = new Socket()) {
+            clientDefault = socket.getReuseAddress();
+        }
+
+        final NioTcpServer server = new NioTcpServer();
+        final CountDownLatch openLatch = new CountDownLatch(1);
+        final AtomicReference<Boolean> accepted = new AtomicReference<>();
+
+        server.setReuseAddress(!clientDefault);
+        server.getSessionConfig().setReuseAddress(clientDefault);
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                accepted.set(((NioTcpSession) session).getConfig().isReuseAddress());
+                openLatch.countDown();
+            }
+        });
+        server.bind(0);
+
+        try (Socket client = new Socket("127.0.0.1", server.getServerSocketChannel().socket().getLocalPort())) {
+            assertTrue(openLatch.await(5, TimeUnit.SECONDS));
+            assertEquals(Boolean.valueOf(clientDefault), accepted.get());
+        } finally {
+            server.unbind();
+        }
+    }
+
+    /**
+     * The connection probing the options of the accepted sockets must not be seen as a session
+     */
+    @Test
+    public void probingConnectionIsNotASession() throws Exception {
+        final NioTcpServer server = new NioTcpServer();
+        final CountDownLatch openLatch = new CountDownLatch(1);
+
+        server.getSessionConfig().setTcpNoDelay(true);
+        server.setIoHandler(new AbstractIoHandler() {
+            @Override
+            public void sessionOpened(IoSession session) {
+                openLatch.countDown();
+            }
+        });
+        server.bind(0);
+
+        try {
+            assertFalse(openLatch.await(200, TimeUnit.MILLISECONDS));
+            assertTrue(server.getManagedSessions().isEmpty());
+        } finally {
+            server.unbind();
+        }
+    }
+}
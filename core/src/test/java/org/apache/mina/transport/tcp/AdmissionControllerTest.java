@@ -0,0 +1,73 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.transport.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link AdmissionController}
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class AdmissionControllerTest {
+
+    @Test
+    public void admissionIsOpenWithoutThresholds() {
+        AdmissionController admission = new AdmissionController();
+
+        assertTrue(admission.update(Integer.MAX_VALUE - 1, Integer.MAX_VALUE - 1, 1d));
+        assertFalse(admission.isOverloaded());
+    }
+
+    @Test
+    public void admissionIsClosedByAnyThresholdAndOpenedWhenAllAreUnderTheResumeLevel() {
+        AdmissionController admission = new AdmissionController();
+        admission.setSessionThresholds(100, 80);
+        admission.setExecutorQueueThresholds(1000, 500);
+        admission.setLoopUtilisationThresholds(0.9d, 0.7d);
+
+        assertTrue(admission.update(99, 999, 0.89d));
+
+        // closed by the executor queue
+        assertFalse(admission.update(10, 1000, 0.1d));
+
+        // hysteresis : still closed between the resume and the max levels
+        assertFalse(admission.update(10, 600, 0.1d));
+
+        // all the metrics must be under their resume level
+        assertFalse(admission.update(90, 500, 0.1d));
+        assertFalse(admission.update(80, 500, 0.8d));
+        assertTrue(admission.update(80, 500, 0.7d));
+
+        // closed by the loop utilisation
+        assertFalse(admission.update(0, 0, 0.95d));
+
+        assertEquals(2, admission.getOverloadCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void resumeThresholdMustBeLowerThanTheMaxThreshold() {
+        new AdmissionController().setSessionThresholds(100, 100);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.mina.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Tests class {@link DirectBufferArena}
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class DirectBufferArenaTest {
+
+    @Test
+    public void buffersAreRoundedToTheirSizeClass() {
+        DirectBufferArena arena = new DirectBufferArena();
+
+        ByteBuffer small = arena.acquire(10);
+        assertTrue(small.isDirect());
+        assertEquals(0, small.position());
+        assertEquals(10, small.limit());
+        assertEquals(DirectBufferArena.MIN_CHUNK_SIZE, small.capacity());
+
+        assertEquals(2048, arena.acquire(1025).capacity());
+        assertEquals(2048, arena.acquire(2048).capacity());
+        assertEquals(DirectBufferArena.DEFAULT_MAX_CHUNK_SIZE,
+                arena.acquire(DirectBufferArena.DEFAULT_MAX_CHUNK_SIZE).capacity());
+    }
+
+    @Test
+    public void tooBigBuffersAreNotPooled() {
+        DirectBufferArena arena = new DirectBufferArena();
+
+        assertNull(arena.acquire(DirectBufferArena.DEFAULT_MAX_CHUNK_SIZE + 1));
+        assertEquals(1, arena.getMissCount());
+        assertEquals(0, arena.getArenaBytes());
+    }
+
+    @Test
+    public void releasedBufferIsReused() {
+        DirectBufferArena arena = new DirectBufferArena();
+
+        ByteBuffer buffer = arena.acquire(100);
+        buffer.put((byte) 1);
+        arena.release(buffer);
+
+        ByteBuffer reused = arena.acquire(200);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(200, reused.limit());
+    }
+
+    @Test
+    public void chunksOfASlabDontOverlap() {
+        DirectBufferArena arena = new DirectBufferArena();
+        int chunks = DirectBufferArena.SLAB_SIZE / DirectBufferArena.MIN_CHUNK_SIZE;
+        ByteBuffer[] buffers = new ByteBuffer[chunks];
+
+        for (int i = 0; i < chunks; i++) {
+            buffers[i] = arena.acquire(DirectBufferArena.MIN_CHUNK_SIZE);
+
+            while (buffers[i].hasRemaining()) {
+                buffers[i].put((byte) i);
+            }
+        }
+
+        assertEquals(DirectBufferArena.SLAB_SIZE, arena.getArenaBytes());
+
+        for (int i = 0; i < chunks; i++) {
+            for (int j = 0; j < DirectBufferArena.MIN_CHUNK_SIZE; j++) {
+                assertEquals((byte) i, buffers[i].get(j));
+            }
+        }
+    }
+
+    @Test
+    public void fullArenaDoesNotAllocate() {
+        DirectBufferArena arena = new DirectBufferArena(DirectBufferArena.SLAB_SIZE, DirectBufferArena.SLAB_SIZE);
+
+        ByteBuffer buffer = arena.acquire(DirectBufferArena.SLAB_SIZE);
+        assertEquals(DirectBufferArena.SLAB_SIZE, buffer.capacity());
+        assertNull(arena.acquire(1));
+        assertEquals(1, arena.getMissCount());
+
+        arena.release(buffer);
+        assertSame(buffer, arena.acquire(DirectBufferArena.SLAB_SIZE));
+    }
+
+    @Test
+    public void outstandingBuffersAreCounted() {
+        DirectBufferArena arena = new DirectBufferArena();
+
+        ByteBuffer first = arena.acquire(100);
+        ByteBuffer second = arena.acquire(5000);
+        arena.acquire(100);
+        assertEquals(3, arena.getAcquiredCount());
+        assertEquals(3, arena.getOutstandingCount());
+
+        arena.release(first);
+        arena.release(second);
+        assertEquals(2, arena.getReleasedCount());
+        assertEquals(1, arena.getOutstandingCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void foreignBufferIsRejected() {
+        new DirectBufferArena().release(ByteBuffer.allocateDirect(1000));
+    }
+
+    @Test
+    public void foreignBufferOfASizeClassCapacityIsRejected() {
+        DirectBufferArena arena = new DirectBufferArena();
+        arena.acquire(100);
+
+        try {
+            arena.release(ByteBuffer.allocateDirect(DirectBufferArena.MIN_CHUNK_SIZE));
+            fail("the buffer does not come from the arena");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        assertEquals(0, arena.getReleasedCount());
+    }
+
+    @Test
+    public void doubleReleaseIsRejected() {
+        DirectBufferArena arena = new DirectBufferArena();
+
+        ByteBuffer buffer = arena.acquire(100);
+        arena.release(buffer);
+
+        try {
+            arena.release(buffer);
+            fail("the buffer was already released");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // the buffer is given only once
+        assertNotSame(arena.acquire(100), arena.acquire(100));
+        assertEquals(1, arena.getReleasedCount());
+    }
+
+    @Test
+    public void retainedBufferGoesBackOnTheLastRelease() {
+        DirectBufferArena arena = new DirectBufferArena();
+
+        ByteBuffer buffer = arena.acquire(100);
+        assertTrue(arena.retain(buffer));
+
+        arena.release(buffer);
+        assertEquals(1, arena.getOutstandingCount());
+        assertNotSame(buffer, arena.acquire(100));
+
+        arena.release(buffer);
+        assertEquals(1, arena.getOutstandingCount());
+        assertSame(buffer, arena.acquire(100));
+    }
+
+    @Test
+    public void onlyBuffersInUseAreRetained() {
+        DirectBufferArena arena = new DirectBufferArena();
+
+        ByteBuffer buffer = arena.acquire(100);
+        arena.release(buffer);
+
+        assertFalse(arena.retain(buffer));
+        assertFalse(arena.retain(ByteBuffer.allocateDirect(DirectBufferArena.MIN_CHUNK_SIZE)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxChunkSizeIsAPowerOfTwo() {
+        new DirectBufferArena(3000, DirectBufferArena.DEFAULT_MAX_ARENA_BYTES);
+    }
+}
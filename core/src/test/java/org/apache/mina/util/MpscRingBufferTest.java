@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.mina.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Tests class {@link MpscRingBuffer}
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class MpscRingBufferTest {
+
+    @Test
+    public void capacityIsRoundedToPowerOfTwo() {
+        assertEquals(8, new MpscRingBuffer<Integer>(5).capacity());
+        assertEquals(1, new MpscRingBuffer<Integer>(1).capacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroCapacity() {
+        new MpscRingBuffer<Integer>(0);
+    }
+
+    @Test
+    public void offerUntilFullThenPoll() {
+        MpscRingBuffer<Integer> ring = new MpscRingBuffer<Integer>(4);
+
+        assertTrue(ring.isEmpty());
+        assertNull(ring.poll());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.size());
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.valueOf(i), ring.poll());
+        }
+
+        assertTrue(ring.isEmpty());
+        assertNull(ring.poll());
+    }
+
+    @Test
+    public void slotsAreReusedAfterWrapping() {
+        MpscRingBuffer<Integer> ring = new MpscRingBuffer<Integer>(2);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(ring.offer(i));
+            assertEquals(Integer.valueOf(i), ring.poll());
+        }
+
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void concurrentProducersKeepPerProducerOrder() throws InterruptedException {
+        final int producerCount = 4;
+        final int perProducer = 100000;
+        final MpscRingBuffer<long[]> ring = new MpscRingBuffer<long[]>(1024);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        for (int p = 0; p < producerCount; p++) {
+            final int producer = p;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    for (int i = 0; i < perProducer; i++) {
+                        long[] element = new long[] { producer, i };
+
+                        while (!ring.offer(element)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        start.countDown();
+
+        long[] expected = new long[producerCount];
+        int received = 0;
+
+        while (received < producerCount * perProducer) {
+            long[] element = ring.poll();
+
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+
+            int producer = (int) element[0];
+            assertEquals(expected[producer], element[1]);
+            expected[producer]++;
+            received++;
+        }
+
+        assertTrue(ring.isEmpty());
+    }
+}
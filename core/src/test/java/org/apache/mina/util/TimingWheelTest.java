@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.mina.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests class {@link TimingWheel}
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class TimingWheelTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static Runnable record(final List<String> events, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                events.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void timeoutsExpireInDeadlineOrder() {
+        TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 8);
+        List<String> events = new ArrayList<String>();
+        long now = System.nanoTime();
+
+        wheel.schedule(record(events, "b"), 50, TimeUnit.MILLISECONDS);
+        wheel.schedule(record(events, "a"), 20, TimeUnit.MILLISECONDS);
+        assertEquals(2, wheel.size());
+
+        assertEquals(0, wheel.expire(now));
+        assertEquals(1, wheel.expire(now + 40 * MS));
+        assertEquals("[a]", events.toString());
+
+        assertEquals(1, wheel.expire(now + 70 * MS));
+        assertEquals("[a, b]", events.toString());
+        assertEquals(0, wheel.size());
+        assertEquals(-1L, wheel.nanosToNextExpiration(now));
+    }
+
+    @Test
+    public void timeoutsLongerThanOneTurnWaitForTheirRound() {
+        // one turn of the wheel is 40ms
+        TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 4);
+        List<String> events = new ArrayList<String>();
+        long now = System.nanoTime();
+
+        wheel.schedule(record(events, "late"), 100, TimeUnit.MILLISECONDS);
+
+        wheel.expire(now + 50 * MS);
+        assertTrue(events.isEmpty());
+
+        wheel.expire(now + 90 * MS);
+        assertTrue(events.isEmpty());
+
+        wheel.expire(now + 130 * MS);
+        assertEquals("[late]", events.toString());
+    }
+
+    @Test
+    public void cancelledTimeoutsAreNotRun() {
+        TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 8);
+        List<String> events = new ArrayList<String>();
+        long now = System.nanoTime();
+
+        TimingWheel.Timeout timeout = wheel.schedule(record(events, "cancelled"), 20, TimeUnit.MILLISECONDS);
+
+        assertTrue(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+        assertEquals(0, wheel.expire(now + 50 * MS));
+        assertTrue(events.isEmpty());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void timeoutsCancelledByTheOwnerAreRemovedImmediately() {
+        TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 8);
+        long now = System.nanoTime();
+
+        TimingWheel.Timeout timeout = wheel.schedule(record(new ArrayList<String>(), "x"), 20, TimeUnit.MILLISECONDS);
+        assertEquals(1, wheel.size());
+
+        assertTrue(timeout.cancel());
+        assertEquals(0, wheel.size());
+        assertEquals(-1L, wheel.nanosToNextExpiration(now));
+    }
+
+    @Test
+    public void timeoutsCancelledByAnotherThreadAreRemovedByTheOwner() throws Exception {
+        TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 64);
+        List<String> events = new ArrayList<String>();
+        long now = System.nanoTime();
+
+        final TimingWheel.Timeout timeout = wheel.schedule(record(events, "cancelled"), 20, TimeUnit.MILLISECONDS);
+        wheel.schedule(record(events, "kept"), 500, TimeUnit.MILLISECONDS);
+
+        Thread canceller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                timeout.cancel();
+            }
+        });
+        canceller.start();
+        canceller.join();
+
+        // the next wake up is for the remaining timeout
+        assertTrue(wheel.nanosToNextExpiration(now) >= 490 * MS);
+        assertEquals(1, wheel.size());
+        assertEquals(0, wheel.expire(now + 50 * MS));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void timeoutsCancelledByATaskOfTheSameTickAreNotRun() {
+        TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 8);
+        final List<String> events = new ArrayList<String>();
+        final TimingWheel.Timeout[] cancelled = new TimingWheel.Timeout[1];
+        long now = System.nanoTime();
+
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                events.add("first");
+                cancelled[0].cancel();
+            }
+        }, 20, TimeUnit.MILLISECONDS);
+        cancelled[0] = wheel.schedule(record(events, "cancelled"), 20, TimeUnit.MILLISECONDS);
+        wheel.schedule(record(events, "last"), 20, TimeUnit.MILLISECONDS);
+
+        assertEquals(2, wheel.expire(now + 50 * MS));
+        assertEquals("[first, last]", events.toString());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void expiredTimeoutsCannotBeCancelled() {
+        TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 8);
+        List<String> events = new ArrayList<String>();
+
+        TimingWheel.Timeout timeout = wheel.schedule(record(events, "run"), 0, TimeUnit.MILLISECONDS);
+        wheel.expire(System.nanoTime() + 50 * MS);
+
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+        assertEquals("[run]", events.toString());
+    }
+
+    @Test
+    public void nextExpirationIsTheNextNonEmptyTick() {
+        TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 64);
+        long now = System.nanoTime();
+
+        wheel.schedule(record(new ArrayList<String>(), "x"), 200, TimeUnit.MILLISECONDS);
+
+        long wait = wheel.nanosToNextExpiration(now);
+        assertTrue(wait >= 190 * MS);
+        assertTrue(wait <= 220 * MS);
+    }
+
+    @Test
+    public void timeoutsAddedByATaskAreNotRunInTheSameTick() {
+        final TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 4);
+        final List<String> events = new ArrayList<String>();
+        long now = System.nanoTime();
+
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                events.add("first");
+                // lands in the same bucket, one turn later
+                wheel.schedule(record(events, "second"), 40, TimeUnit.MILLISECONDS);
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+
+        wheel.expire(now + 25 * MS);
+        assertEquals("[first]", events.toString());
+
+        wheel.expire(now + 100 * MS);
+        assertEquals("[first, second]", events.toString());
+    }
+}